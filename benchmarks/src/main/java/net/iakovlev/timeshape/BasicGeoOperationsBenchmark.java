@@ -17,6 +17,8 @@ public class BasicGeoOperationsBenchmark {
         TimeZoneEngine engine = TimeZoneEngine.initialize();
         Index index;
         QuadTree quadTree;
+        PackedRTree tree;
+        PackedRTree.Cursor treeCursor;
         Point p = new Point(13.31, 52.52);
         ArrayList<Index.Entry> entries;
         Geometry matchingGeometry;
@@ -28,12 +30,20 @@ public class BasicGeoOperationsBenchmark {
                 Field indexField = engine.getClass().getDeclaredField("index");
                 indexField.setAccessible(true);
                 index = (Index) indexField.get(engine);
-                Field quadTreeField = index.getClass().getDeclaredField("quadTree");
-                quadTreeField.setAccessible(true);
-                quadTree = (QuadTree) quadTreeField.get(index);
+                Field treeField = index.getClass().getDeclaredField("tree");
+                treeField.setAccessible(true);
+                tree = (PackedRTree) treeField.get(index);
+                treeCursor = tree.cursor();
                 Field zoneIdsField = index.getClass().getDeclaredField("zoneIds");
                 zoneIdsField.setAccessible(true);
                 entries = (ArrayList<Index.Entry>) zoneIdsField.get(index);
+                // the quad tree the index used before the packed R-tree, for comparison
+                quadTree = new QuadTree(new Envelope2D(-180, -90, 180, 90), 8);
+                Envelope2D env = new Envelope2D();
+                for (int i = 0; i < entries.size(); i++) {
+                    entries.get(i).geometry.queryEnvelope2D(env);
+                    quadTree.insert(i, env);
+                }
                 QuadTree.QuadTreeIterator iterator = quadTree.getIterator(p, 0);
                 for (int i = iterator.next(); i >= 0; i = iterator.next()) {
                     int element = quadTree.getElement(i);
@@ -62,6 +72,15 @@ public class BasicGeoOperationsBenchmark {
         }
     }
 
+    @Benchmark
+    public void testPackedRTree(BenchmarkState state, Blackhole blackhole) {
+        PackedRTree.Cursor cursor = state.treeCursor;
+        cursor.reset(state.p.getX(), state.p.getY(), state.p.getX(), state.p.getY());
+        for (int i = cursor.next(); i >= 0; i = cursor.next()) {
+            blackhole.consume(i);
+        }
+    }
+
     @Benchmark
     public void testSearchInNonMatchingGeometry(BenchmarkState state, Blackhole blackhole) {
         for (Geometry g : state.nonMatchingGeometries) {
@@ -0,0 +1,52 @@
+package net.iakovlev.timeshape;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+/**
+ * Compares querying random points all over the world one by one with {@link TimeZoneEngine#query(double, double)},
+ * in their original order with {@link TimeZoneEngine#queryBatch(double[])}, and in the order of the Hilbert curve
+ * with {@link TimeZoneEngine#queryBulk(double[])}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(java.util.concurrent.TimeUnit.MILLISECONDS)
+public class BulkQueryBenchmark {
+    @State(Scope.Benchmark)
+    public static class BulkState {
+        @Param({"false", "true"})
+        boolean packedGeometry;
+
+        TimeZoneEngine engine;
+        double[] points;
+
+        @Setup
+        public void setup() {
+            engine = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withPackedGeometry(packedGeometry));
+            Random random = new Random(42);
+            points = new double[100_000 * 2];
+            for (int i = 0; i < points.length; i += 2) {
+                points[i] = random.nextDouble() * 180 - 90;
+                points[i + 1] = random.nextDouble() * 360 - 180;
+            }
+        }
+    }
+
+    @Benchmark
+    public void testQueryLoop(BulkState state, Blackhole blackhole) {
+        for (int i = 0; i < state.points.length; i += 2) {
+            blackhole.consume(state.engine.query(state.points[i], state.points[i + 1]));
+        }
+    }
+
+    @Benchmark
+    public BatchQueryResult testQueryBatch(BulkState state) {
+        return state.engine.queryBatch(state.points);
+    }
+
+    @Benchmark
+    public BatchQueryResult testQueryBulk(BulkState state) {
+        return state.engine.queryBulk(state.points);
+    }
+}
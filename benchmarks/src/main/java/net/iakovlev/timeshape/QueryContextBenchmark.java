@@ -0,0 +1,50 @@
+package net.iakovlev.timeshape;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the allocating single point query with the query through {@link QueryContext}.
+ * Run with {@code -prof gc} to see the allocation rate per operation.
+ */
+public class QueryContextBenchmark {
+    @State(Scope.Benchmark)
+    public static class EngineState {
+        TimeZoneEngine engine = TimeZoneEngine.initialize();
+
+        double[] cityCoordinates = {
+                35.6762, 139.6503, // Tokyo, Japan
+                28.7041, 77.1025, // Delhi, India
+                19.4326, -99.1332, // Mexico City, Mexico
+                -23.551, -46.6333, // Sao Paulo, Brazil
+                40.7128, -74.0060, // New York City, USA
+                30.0444, 31.2357, // Cairo, Egypt
+                6.5244, 3.3792, // Lagos, Nigeria
+                55.7558, 37.6173 // Moscow, Russia
+        };
+    }
+
+    @State(Scope.Thread)
+    public static class ContextState {
+        QueryContext context;
+
+        @Setup
+        public void setup(EngineState state) {
+            context = state.engine.newQueryContext();
+        }
+    }
+
+    @Benchmark
+    public void testQuery(EngineState state, Blackhole blackhole) {
+        for (int i = 0; i < state.cityCoordinates.length; i += 2) {
+            blackhole.consume(state.engine.query(state.cityCoordinates[i], state.cityCoordinates[i + 1]));
+        }
+    }
+
+    @Benchmark
+    public void testQueryContext(EngineState state, ContextState context, Blackhole blackhole) {
+        for (int i = 0; i < state.cityCoordinates.length; i += 2) {
+            blackhole.consume(context.context.queryOrdinal(state.cityCoordinates[i], state.cityCoordinates[i + 1]));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package net.iakovlev.timeshape;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+/**
+ * Compares querying random points all over the world without the result cache, and with a result cache too small
+ * to ever hit, so that every query is a cold miss, which also checks whether a zone boundary passes near its cell.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(java.util.concurrent.TimeUnit.MILLISECONDS)
+public class ResultCacheBenchmark {
+    @State(Scope.Benchmark)
+    public static class CacheState {
+        @Param({"false", "true"})
+        boolean packedGeometry;
+
+        TimeZoneEngine engine;
+        TimeZoneEngine cachedEngine;
+        double[] points;
+
+        @Setup
+        public void setup() {
+            TimeZoneEngineOptions options = TimeZoneEngineOptions.defaults().withPackedGeometry(packedGeometry);
+            engine = TimeZoneEngine.initialize(options);
+            cachedEngine = TimeZoneEngine.initialize(options.withResultCache(1e-4, 64));
+            Random random = new Random(42);
+            points = new double[10_000 * 2];
+            for (int i = 0; i < points.length; i += 2) {
+                points[i] = random.nextDouble() * 180 - 90;
+                points[i + 1] = random.nextDouble() * 360 - 180;
+            }
+        }
+    }
+
+    @Benchmark
+    public void testUncached(CacheState state, Blackhole blackhole) {
+        for (int i = 0; i < state.points.length; i += 2) {
+            blackhole.consume(state.engine.queryAll(state.points[i], state.points[i + 1]));
+        }
+    }
+
+    @Benchmark
+    public void testColdMiss(CacheState state, Blackhole blackhole) {
+        for (int i = 0; i < state.points.length; i += 2) {
+            blackhole.consume(state.cachedEngine.queryAll(state.points[i], state.points[i + 1]));
+        }
+    }
+}
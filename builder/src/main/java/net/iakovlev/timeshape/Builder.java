@@ -9,12 +9,13 @@ import java.util.stream.Stream;
 
 final class Builder {
     private static Geojson.LineString geoJsonCoordinatesToProtoLineString(List<LngLatAlt> geoJsonCoordinates) {
-        return Geojson.LineString.newBuilder().addAllCoordinates(geoJsonCoordinates.stream().map(lngLatAlt -> {
-            Geojson.Position.Builder builder = Geojson.Position.newBuilder();
-            builder.setLat((float) lngLatAlt.getLatitude());
-            builder.setLon((float) lngLatAlt.getLongitude());
-            return builder.build();
-        }).collect(Collectors.toList())).build();
+        float[] coordinates = new float[geoJsonCoordinates.size() * 2];
+        int i = 0;
+        for (LngLatAlt lngLatAlt : geoJsonCoordinates) {
+            coordinates[i++] = (float) lngLatAlt.getLongitude();
+            coordinates[i++] = (float) lngLatAlt.getLatitude();
+        }
+        return PackedCoordinates.encode(coordinates);
     }
 
     private static Geojson.Polygon geoJsonPolygonToProtoPolygon(List<List<LngLatAlt>> poly) {
@@ -32,31 +33,30 @@ final class Builder {
         return builder.build();
     }
 
-    static Geojson.FeatureCollection buildProto(FeatureCollection featureCollection) {
-        Geojson.FeatureCollection.Builder featureCollectionBuilder = Geojson.FeatureCollection.newBuilder();
-        for (org.geojson.Feature f : featureCollection.getFeatures()) {
-            String tzid = f.getProperties().get("tzid").toString();
-            Geojson.Feature.Builder featureBuilder = Geojson.Feature.newBuilder();
-            featureBuilder.addProperties(Geojson.Property.newBuilder().setKey("tzid").setValueString(tzid));
-            GeoJsonObject geoJsonObject = f.getGeometry();
-            if (geoJsonObject instanceof Polygon) {
-                Polygon poly = (Polygon) geoJsonObject;
-                Stream.Builder<List<LngLatAlt>> s = Stream.builder();
-                s.add(poly.getExteriorRing());
-                poly.getInteriorRings().forEach(s::add);
-                featureCollectionBuilder.addFeatures(
-                        featureBuilder.setGeometry(
-                                Geojson.Geometry.newBuilder().setPolygon(
-                                        geoJsonPolygonToProtoPolygon(s.build().collect(Collectors.toList())))));
-            } else if (geoJsonObject instanceof MultiPolygon) {
-                MultiPolygon multiPolygon = (MultiPolygon) geoJsonObject;
-                featureCollectionBuilder.addFeatures(featureBuilder.setGeometry(Geojson.Geometry.newBuilder().setMultiPolygon(
-                        geoJsonMultiPolygonToProtoMultiPolygon(multiPolygon)
-                )));
-            } else {
-                throw new RuntimeException("not implemented");
-            }
+    /**
+     * Converts a single GeoJSON feature, so that features can be converted independently of each other,
+     * as soon as they are parsed.
+     */
+    static Geojson.Feature buildFeature(org.geojson.Feature f) {
+        String tzid = f.getProperties().get("tzid").toString();
+        Geojson.Feature.Builder featureBuilder = Geojson.Feature.newBuilder();
+        featureBuilder.addProperties(Geojson.Property.newBuilder().setKey("tzid").setValueString(tzid));
+        GeoJsonObject geoJsonObject = f.getGeometry();
+        if (geoJsonObject instanceof Polygon) {
+            Polygon poly = (Polygon) geoJsonObject;
+            Stream.Builder<List<LngLatAlt>> s = Stream.builder();
+            s.add(poly.getExteriorRing());
+            poly.getInteriorRings().forEach(s::add);
+            return featureBuilder.setGeometry(
+                    Geojson.Geometry.newBuilder().setPolygon(
+                            geoJsonPolygonToProtoPolygon(s.build().collect(Collectors.toList())))).build();
+        } else if (geoJsonObject instanceof MultiPolygon) {
+            MultiPolygon multiPolygon = (MultiPolygon) geoJsonObject;
+            return featureBuilder.setGeometry(Geojson.Geometry.newBuilder().setMultiPolygon(
+                    geoJsonMultiPolygonToProtoMultiPolygon(multiPolygon)
+            )).build();
+        } else {
+            throw new RuntimeException("not implemented");
         }
-        return featureCollectionBuilder.build();
     }
 }
@@ -0,0 +1,292 @@
+package net.iakovlev.timeshape;
+
+import java.util.Arrays;
+
+/**
+ * Computes the edge grid of the packed index: a raster over the whole globe, where every cell lists the polygons
+ * which contain at least some points of the cell, in ascending order. A polygon covering the whole cell is listed
+ * by itself, and a polygon which boundary passes through the cell is listed together with the few edges near
+ * the cell, so that the core tests only those edges instead of all edges of the polygon.
+ * <p>
+ * The test in the core is the same even-odd test with a ray to the east as in {@code PackedIndex}, restricted
+ * to a point in the cell. Edges left of, above or below the cell never cross the ray. Edges right of the cell
+ * cross it whenever they span the latitude of the point, and for a chain of consecutive such edges the parity
+ * of the crossings only depends on whether its two ends are north of the point. So the ends of the chains
+ * outside of the row of the cell are folded into a precomputed parity, and the other ends are listed with
+ * the cell, as well as all remaining edges, which are tested as usual.
+ * <p>
+ * The layout of a cell is a sequence of entries. An entry is either the polygon id shifted left by one with
+ * {@link #FULL} bit set, or the polygon id shifted left by one, followed by the precomputed parity, the number
+ * of edges, the number of chain ends, the edges as pairs of their end and start vertices, and the chain ends
+ * as vertices.
+ */
+final class EdgeGridWriter {
+    static final int CELLS_PER_DEGREE = 4;
+    static final int COLUMNS = 360 * CELLS_PER_DEGREE;
+    static final int ROWS = 180 * CELLS_PER_DEGREE;
+    static final int FULL = 1;
+    // Edges this close to a cell horizontally are listed with it, so that the rounding of the intersections
+    // of edges left or right of the cell with the ray can't change on which side of the point they are.
+    private static final double MARGIN = 1e-9;
+
+    final int[] cellStarts;
+    final int[] data;
+    final int maxEntries;
+
+    private EdgeGridWriter(int[] cellStarts, int[] data, int maxEntries) {
+        this.cellStarts = cellStarts;
+        this.data = data;
+        this.maxEntries = maxEntries;
+    }
+
+    // must be computed the same way as in PackedEdgeGrid in core
+    private static double longitude(int column) {
+        return column / (double) CELLS_PER_DEGREE - 180;
+    }
+
+    private static double latitude(int row) {
+        return row / (double) CELLS_PER_DEGREE - 90;
+    }
+
+    private static int column(double longitude) {
+        return Math.max(0, Math.min(COLUMNS - 1, (int) Math.floor((longitude + 180) * CELLS_PER_DEGREE)));
+    }
+
+    private static int row(double latitude) {
+        return Math.max(0, Math.min(ROWS - 1, (int) Math.floor((latitude + 90) * CELLS_PER_DEGREE)));
+    }
+
+    /**
+     * @param coordinates   interleaved longitudes and latitudes of all vertices
+     * @param polygonRings  position of the first ring of every polygon, followed by the number of rings
+     * @param ringVertices  position of the first vertex of every ring, followed by the number of vertices
+     */
+    static EdgeGridWriter build(float[] coordinates, int[] polygonRings, int[] ringVertices) {
+        int[][] cells = new int[COLUMNS * ROWS][];
+        int[] cellSizes = new int[COLUMNS * ROWS];
+        int[] entryCounts = new int[COLUMNS * ROWS];
+        for (int polygon = 0; polygon < polygonRings.length - 1; polygon++) {
+            new PolygonCells(coordinates, ringVertices, polygonRings[polygon], polygonRings[polygon + 1])
+                    .write(polygon, cells, cellSizes, entryCounts);
+        }
+        int[] cellStarts = new int[cells.length + 1];
+        for (int cell = 0; cell < cells.length; cell++) {
+            cellStarts[cell + 1] = cellStarts[cell] + cellSizes[cell];
+        }
+        int[] data = new int[cellStarts[cells.length]];
+        int maxEntries = 0;
+        for (int cell = 0; cell < cells.length; cell++) {
+            if (cells[cell] != null) {
+                System.arraycopy(cells[cell], 0, data, cellStarts[cell], cellSizes[cell]);
+            }
+            maxEntries = Math.max(maxEntries, entryCounts[cell]);
+        }
+        return new EdgeGridWriter(cellStarts, data, maxEntries);
+    }
+
+    private static void append(int[][] cells, int[] cellSizes, int cell, int value) {
+        int[] values = cells[cell];
+        if (values == null) {
+            values = cells[cell] = new int[4];
+        } else if (cellSizes[cell] == values.length) {
+            values = cells[cell] = Arrays.copyOf(values, values.length * 2);
+        }
+        values[cellSizes[cell]++] = value;
+    }
+
+    /**
+     * Cells of a single polygon, in the window of the grid covering its bounding box. Outside of it the polygon
+     * contains no points. Edge {@code i} goes from vertex {@code previous[i]} to vertex {@code i}, counted from
+     * the first vertex of the polygon.
+     */
+    private static final class PolygonCells {
+        private final float[] coordinates;
+        private final int firstVertex;
+        private final int[] previous;
+        private final int[] next;
+        private final int column0;
+        private final int row0;
+        private final int width;
+        private final int height;
+        // first column in which every edge isn't right of the cell any more
+        private final int[] notRightFrom;
+
+        PolygonCells(float[] coordinates, int[] ringVertices, int firstRing, int lastRing) {
+            this.coordinates = coordinates;
+            this.firstVertex = ringVertices[firstRing];
+            int vertexCount = ringVertices[lastRing] - firstVertex;
+            this.previous = new int[vertexCount];
+            this.next = new int[vertexCount];
+            double minX = Double.POSITIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            for (int ring = firstRing; ring < lastRing; ring++) {
+                int start = ringVertices[ring] - firstVertex;
+                int end = ringVertices[ring + 1] - firstVertex;
+                for (int i = start; i < end; i++) {
+                    previous[i] = i == start ? end - 1 : i - 1;
+                    next[i] = i == end - 1 ? start : i + 1;
+                    minX = Math.min(minX, x(i));
+                    minY = Math.min(minY, y(i));
+                    maxX = Math.max(maxX, x(i));
+                    maxY = Math.max(maxY, y(i));
+                }
+            }
+            if (vertexCount == 0) {
+                this.column0 = this.row0 = this.width = this.height = 0;
+                this.notRightFrom = new int[0];
+                return;
+            }
+            this.column0 = column(minX - MARGIN);
+            this.row0 = row(minY);
+            this.width = column(maxX + MARGIN) - column0 + 1;
+            this.height = row(maxY) - row0 + 1;
+            this.notRightFrom = new int[vertexCount];
+            for (int i = 0; i < vertexCount; i++) {
+                double edgeMinX = Math.min(x(previous[i]), x(i));
+                int column = Math.max(column0, Math.min(column0 + width, column(edgeMinX - MARGIN) - 1));
+                while (column < column0 + width && isRightOf(edgeMinX, column)) {
+                    column++;
+                }
+                while (column > column0 && !isRightOf(edgeMinX, column - 1)) {
+                    column--;
+                }
+                notRightFrom[i] = column;
+            }
+        }
+
+        private double x(int vertex) {
+            return coordinates[(firstVertex + vertex) * 2];
+        }
+
+        private double y(int vertex) {
+            return coordinates[(firstVertex + vertex) * 2 + 1];
+        }
+
+        private static boolean isRightOf(double edgeMinX, int column) {
+            return edgeMinX > longitude(column + 1) + MARGIN;
+        }
+
+        void write(int polygon, int[][] cells, int[] cellSizes, int[] entryCounts) {
+            int cellCount = width * height;
+            if (cellCount == 0) {
+                return;
+            }
+            // edges which are neither left, right, above nor below of the cell, as pairs of the cell and the edge
+            int[] edges = new int[16];
+            int edgeCount = 0;
+            for (int i = 0; i < previous.length; i++) {
+                double edgeMinX = Math.min(x(previous[i]), x(i));
+                double edgeMaxX = Math.max(x(previous[i]), x(i));
+                double edgeMinY = Math.min(y(previous[i]), y(i));
+                double edgeMaxY = Math.max(y(previous[i]), y(i));
+                int fromRow = row(edgeMinY);
+                if (fromRow > row0 && edgeMinY <= latitude(fromRow)) {
+                    fromRow--;
+                }
+                int toRow = row(edgeMaxY);
+                int fromColumn = notRightFrom[i];
+                int toColumn = Math.min(column0 + width - 1, column(edgeMaxX + MARGIN) + 1);
+                while (toColumn >= fromColumn && edgeMaxX < longitude(toColumn) - MARGIN) {
+                    toColumn--;
+                }
+                for (int row = fromRow; row <= toRow; row++) {
+                    for (int column = fromColumn; column <= toColumn; column++) {
+                        if (edgeCount + 2 > edges.length) {
+                            edges = Arrays.copyOf(edges, edges.length * 2);
+                        }
+                        edges[edgeCount++] = (row - row0) * width + column - column0;
+                        edges[edgeCount++] = i;
+                    }
+                }
+            }
+            // ends of the chains of edges right of the cell: vertices with one edge right of the cell and one not
+            int[] ends = new int[16];
+            int endCount = 0;
+            boolean[] parity = new boolean[cellCount];
+            for (int i = 0; i < previous.length; i++) {
+                int from = Math.min(notRightFrom[i], notRightFrom[next[i]]) - column0;
+                int to = Math.max(notRightFrom[i], notRightFrom[next[i]]) - column0;
+                if (from == to) {
+                    continue;
+                }
+                // the end is north of any point in the rows below its own, and in its own row it's listed
+                int row = row(y(i)) - row0;
+                for (int column = from; column < to; column++) {
+                    if (endCount + 2 > ends.length) {
+                        ends = Arrays.copyOf(ends, ends.length * 2);
+                    }
+                    ends[endCount++] = row * width + column;
+                    ends[endCount++] = i;
+                }
+                if (row > 0) {
+                    parity[(row - 1) * width + from] ^= true;
+                    if (to < width) {
+                        parity[(row - 1) * width + to] ^= true;
+                    }
+                }
+            }
+            // the flips above apply to the columns from their position on, and to all rows below theirs
+            for (int row = 0; row < height; row++) {
+                for (int column = 1; column < width; column++) {
+                    parity[row * width + column] ^= parity[row * width + column - 1];
+                }
+            }
+            for (int row = height - 2; row >= 0; row--) {
+                for (int column = 0; column < width; column++) {
+                    parity[row * width + column] ^= parity[(row + 1) * width + column];
+                }
+            }
+
+            int[] edgeStarts = groupByCell(edges, edgeCount, cellCount);
+            int[] endStarts = groupByCell(ends, endCount, cellCount);
+            for (int cell = 0; cell < cellCount; cell++) {
+                int cellEdges = edgeStarts[cell + 1] - edgeStarts[cell];
+                int cellEnds = endStarts[cell + 1] - endStarts[cell];
+                if (cellEdges == 0 && cellEnds == 0 && !parity[cell]) {
+                    continue;
+                }
+                int gridCell = (row0 + cell / width) * COLUMNS + column0 + cell % width;
+                entryCounts[gridCell]++;
+                if (cellEdges == 0 && cellEnds == 0) {
+                    append(cells, cellSizes, gridCell, polygon << 1 | FULL);
+                    continue;
+                }
+                append(cells, cellSizes, gridCell, polygon << 1);
+                append(cells, cellSizes, gridCell, parity[cell] ? 1 : 0);
+                append(cells, cellSizes, gridCell, cellEdges);
+                append(cells, cellSizes, gridCell, cellEnds);
+                for (int e = edgeStarts[cell]; e < edgeStarts[cell + 1]; e++) {
+                    append(cells, cellSizes, gridCell, firstVertex + edges[e]);
+                    append(cells, cellSizes, gridCell, firstVertex + previous[edges[e]]);
+                }
+                for (int e = endStarts[cell]; e < endStarts[cell + 1]; e++) {
+                    append(cells, cellSizes, gridCell, firstVertex + ends[e]);
+                }
+            }
+        }
+
+        /**
+         * Sorts the values of pairs of cells and values by the cells, in place of the first half of the array.
+         *
+         * @return position of the first value of every cell, followed by the number of values
+         */
+        private static int[] groupByCell(int[] pairs, int pairsLength, int cellCount) {
+            int[] starts = new int[cellCount + 1];
+            for (int i = 0; i < pairsLength; i += 2) {
+                starts[pairs[i] + 1]++;
+            }
+            for (int cell = 0; cell < cellCount; cell++) {
+                starts[cell + 1] += starts[cell];
+            }
+            int[] positions = Arrays.copyOf(starts, cellCount);
+            int[] values = new int[pairsLength / 2];
+            for (int i = 0; i < pairsLength; i += 2) {
+                values[positions[pairs[i]]++] = pairs[i + 1];
+            }
+            System.arraycopy(values, 0, pairs, 0, values.length);
+            return starts;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package net.iakovlev.timeshape;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.geojson.Feature;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the features of a GeoJSON feature collection one at a time with the Jackson streaming API, so that only
+ * the features being processed are in memory, and not the whole collection.
+ */
+final class FeatureReader {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonParser parser;
+
+    FeatureReader(InputStream in) throws IOException {
+        parser = mapper.getFactory().createParser(in);
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("GeoJSON doesn't start with an object");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.START_ARRAY && "features".equals(field)) {
+                return;
+            }
+            parser.skipChildren();
+        }
+        throw new IOException("GeoJSON doesn't have features");
+    }
+
+    /**
+     * @return the next feature, or null if there are no more
+     */
+    Feature next() throws IOException {
+        return parser.nextToken() == JsonToken.START_OBJECT ? mapper.readValue(parser, Feature.class) : null;
+    }
+}
@@ -1,16 +1,22 @@
 package net.iakovlev.timeshape;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.luben.zstd.ZstdOutputStream;
 import net.iakovlev.timeshape.proto.Geojson;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
-import org.geojson.FeatureCollection;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipInputStream;
 
 public class Main {
@@ -33,36 +39,113 @@ public class Main {
     }
 
     /**
-     * Reads the zip-compressed input stream of GeoJSON, converts its data to proto and writes
-     * each GeoJSON feature as a separate entry into a tar file, which is compressed with ZStandard
-     * algorithm at the end
+     * Feature converted to proto, with everything computed from it independently of the other features.
+     */
+    private static final class ConvertedFeature {
+        final Geojson.Feature feature;
+        final byte[] encoded;
+        final byte[] rasters;
+        final ZoneContainerWriter.Zone zone;
+
+        ConvertedFeature(org.geojson.Feature source) {
+            feature = Builder.buildFeature(source);
+            encoded = feature.toByteArray();
+            rasters = PolygonRasterWriter.write(PackedIndexWriter.getPolygons(feature));
+            zone = ZoneContainerWriter.compress(feature, encoded, rasters);
+        }
+    }
+
+    /**
+     * Reads the zip-compressed input stream of GeoJSON, converts its data to proto and writes it into the zone
+     * container (see {@link ZoneContainerWriter}). Optionally, it's also written into a tar file with each GeoJSON
+     * feature as a separate entry, followed by an entry with the rasters of its polygons
+     * (see {@link PolygonRasterWriter}), and the tar file is compressed with ZStandard algorithm at the end.
+     * <p>
+     * The features are parsed one at a time, converted, rasterized and compressed on a pool of threads,
+     * and written in the order of the source, so only a few features at a time are in memory,
+     * besides the compressed zone container and the flat arrays of the packed index.
      * @param argument
-     * @param outputPath
+     * @param outputPath where to write the zone container
+     * @param packedIndexPath where to write the packed index file, or null to skip it
+     * @param tarPath where to write the tar file, or null to skip it
      */
-    private static void writeTarZStdProto(String argument, String outputPath) {
-        try (ZipInputStream zipInputStream = new ZipInputStream(createInputStream(argument))) {
+    private static void writeData(String argument, String outputPath, String packedIndexPath, String tarPath) {
+        long start = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "timeshape-builder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ZoneContainerWriter container = new ZoneContainerWriter();
+        PackedIndexWriter packedIndex = packedIndexPath != null ? new PackedIndexWriter() : null;
+        int count = 0;
+        try (ZipInputStream zipInputStream = new ZipInputStream(createInputStream(argument));
+             TarArchiveOutputStream tar = tarPath != null ? new TarArchiveOutputStream(
+                     new ZstdOutputStream(new BufferedOutputStream(new FileOutputStream(tarPath)), 22)
+                             .setWorkers(threads)) : null) {
             zipInputStream.getNextEntry();
-            Geojson.FeatureCollection featureCollection = Builder.buildProto(new ObjectMapper().readValue(zipInputStream, FeatureCollection.class));
-            try (TarArchiveOutputStream out =
-                         new TarArchiveOutputStream(
-                                 new ZstdCompressorOutputStream(new FileOutputStream(outputPath), 22))) {
-                for (Geojson.Feature feature : featureCollection.getFeaturesList()) {
-                    TarArchiveEntry entry = new TarArchiveEntry(feature.getProperties(0).getValueString());
-                    byte[] bytes = feature.toByteArray();
-                    entry.setSize(bytes.length);
-                    out.putArchiveEntry(entry);
-                    out.write(bytes);
-                    out.closeArchiveEntry();
+            FeatureReader reader = new FeatureReader(zipInputStream);
+            Deque<Future<ConvertedFeature>> pending = new ArrayDeque<>();
+            org.geojson.Feature source;
+            while ((source = reader.next()) != null) {
+                org.geojson.Feature submitted = source;
+                pending.add(pool.submit(() -> new ConvertedFeature(submitted)));
+                // the number of features in flight is limited, so that the memory doesn't depend on the source
+                if (pending.size() > threads * 2) {
+                    write(pending.poll().get(), container, packedIndex, tar);
+                    count++;
                 }
             }
+            while (!pending.isEmpty()) {
+                write(pending.poll().get(), container, packedIndex, tar);
+                count++;
+            }
+            container.write(outputPath);
+            if (packedIndex != null) {
+                packedIndex.write(packedIndexPath);
+            }
         } catch (Exception e) {
             throw new RuntimeException("Couldn't prepare the data", e);
+        } finally {
+            pool.shutdownNow();
         }
+        long peakHeap = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                peakHeap += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("Prepared %d zones in %.1f s with %d threads, peak heap usage %d MB%n",
+                count, (System.nanoTime() - start) / 1e9, threads, peakHeap >> 20);
+    }
+
+    private static void write(ConvertedFeature converted, ZoneContainerWriter container,
+                              PackedIndexWriter packedIndex, TarArchiveOutputStream tar) throws IOException {
+        container.add(converted.zone);
+        if (packedIndex != null) {
+            packedIndex.add(converted.feature);
+        }
+        if (tar != null) {
+            String name = converted.feature.getProperties(0).getValueString();
+            writeEntry(tar, name, converted.encoded);
+            writeEntry(tar, name + PolygonRasterWriter.ENTRY_SUFFIX, converted.rasters);
+        }
+    }
+
+    private static void writeEntry(TarArchiveOutputStream out, String name, byte[] bytes) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(bytes.length);
+        out.putArchiveEntry(entry);
+        out.write(bytes);
+        out.closeArchiveEntry();
     }
 
     public static void main(String[] args) {
         String argument = args[0];
         String outputPath = args[1];
-        writeTarZStdProto(argument, outputPath);
+        String packedIndexPath = args.length > 2 ? args[2] : null;
+        String tarPath = args.length > 3 ? args[3] : null;
+        writeData(argument, outputPath, packedIndexPath, tarPath);
     }
 }
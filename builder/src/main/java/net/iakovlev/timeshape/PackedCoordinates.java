@@ -0,0 +1,59 @@
+package net.iakovlev.timeshape;
+
+import net.iakovlev.timeshape.proto.Geojson;
+
+/**
+ * Writes the coordinates of a line string as {@code packedCoordinates}: for every position, the differences
+ * of the bits of its longitude and latitude as floats from the bits of the previous position. Neighbouring
+ * positions have close bits, so the differences are small and take a few bytes as zigzag varints, unlike
+ * a {@code Position} message, and the floats are restored exactly. Must be kept in sync with
+ * {@code PackedCoordinates} in core.
+ */
+final class PackedCoordinates {
+    private PackedCoordinates() {
+    }
+
+    /**
+     * @param coordinates interleaved longitudes and latitudes
+     */
+    static Geojson.LineString encode(float[] coordinates) {
+        Geojson.LineString.Builder builder = Geojson.LineString.newBuilder();
+        int lon = 0;
+        int lat = 0;
+        for (int i = 0; i < coordinates.length; i += 2) {
+            int lonBits = Float.floatToIntBits(coordinates[i]);
+            int latBits = Float.floatToIntBits(coordinates[i + 1]);
+            builder.addPackedCoordinates(lonBits - lon);
+            builder.addPackedCoordinates(latBits - lat);
+            lon = lonBits;
+            lat = latBits;
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return interleaved longitudes and latitudes of the line string
+     */
+    static float[] decode(Geojson.LineString ring) {
+        int count = ring.getPackedCoordinatesCount();
+        if (count == 0) {
+            float[] coordinates = new float[ring.getCoordinatesCount() * 2];
+            int i = 0;
+            for (Geojson.Position p : ring.getCoordinatesList()) {
+                coordinates[i++] = p.getLon();
+                coordinates[i++] = p.getLat();
+            }
+            return coordinates;
+        }
+        float[] coordinates = new float[count];
+        int lon = 0;
+        int lat = 0;
+        for (int i = 0; i < count; i += 2) {
+            lon += ring.getPackedCoordinates(i);
+            lat += ring.getPackedCoordinates(i + 1);
+            coordinates[i] = Float.intBitsToFloat(lon);
+            coordinates[i + 1] = Float.intBitsToFloat(lat);
+        }
+        return coordinates;
+    }
+}
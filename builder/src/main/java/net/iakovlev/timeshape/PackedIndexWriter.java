@@ -0,0 +1,304 @@
+package net.iakovlev.timeshape;
+
+import net.iakovlev.timeshape.proto.Geojson;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the packed index file, which the core can map into memory and query in place.
+ * The layout is described in doc/Architecture.md and must be kept in sync with {@code PackedIndex} in core.
+ */
+final class PackedIndexWriter {
+    private static final int MAGIC = 0x58495354; // "TSIX" in little endian
+    private static final int VERSION = 2;
+    private static final int NODE_SIZE = 16;
+
+    private final Map<String, Integer> zones = new LinkedHashMap<>();
+    // flat arrays, growing as the features are added, so that the features themselves aren't kept
+    private int[] polygonZones = new int[256];
+    private float[] polygonBoxes = new float[256 * 4];
+    private int[] polygonRings = new int[257];
+    private int[] ringVertices = new int[1025];
+    private float[] coordinates = new float[1 << 16];
+    private int polygonCount;
+    private int ringCount;
+    private int vertexCount;
+
+    static List<Geojson.Polygon> getPolygons(Geojson.Feature f) {
+        if (f.getGeometry().hasPolygon()) {
+            return Arrays.asList(f.getGeometry().getPolygon());
+        } else if (f.getGeometry().hasMultiPolygon()) {
+            return f.getGeometry().getMultiPolygon().getCoordinatesList();
+        } else {
+            throw new RuntimeException("Unknown geometry type");
+        }
+    }
+
+    /**
+     * Adds the polygons of the feature to the index, in the order the features are added.
+     */
+    void add(Geojson.Feature feature) {
+        int zone = zones.computeIfAbsent(feature.getProperties(0).getValueString(), z -> zones.size());
+        for (Geojson.Polygon polygon : getPolygons(feature)) {
+            if (polygonCount == polygonZones.length) {
+                polygonZones = Arrays.copyOf(polygonZones, polygonCount * 2);
+                polygonBoxes = Arrays.copyOf(polygonBoxes, polygonCount * 2 * 4);
+                polygonRings = Arrays.copyOf(polygonRings, polygonCount * 2 + 1);
+            }
+            polygonZones[polygonCount] = zone;
+            polygonRings[polygonCount] = ringCount;
+            float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+            for (Geojson.LineString ring : polygon.getCoordinatesList()) {
+                if (ringCount + 1 == ringVertices.length) {
+                    ringVertices = Arrays.copyOf(ringVertices, ringVertices.length * 2);
+                }
+                ringVertices[ringCount++] = vertexCount;
+                float[] ringCoordinates = PackedCoordinates.decode(ring);
+                if (vertexCount * 2 + ringCoordinates.length > coordinates.length) {
+                    coordinates = Arrays.copyOf(coordinates,
+                            Math.max(coordinates.length * 2, vertexCount * 2 + ringCoordinates.length));
+                }
+                System.arraycopy(ringCoordinates, 0, coordinates, vertexCount * 2, ringCoordinates.length);
+                vertexCount += ringCoordinates.length / 2;
+                for (int i = 0; i < ringCoordinates.length; i += 2) {
+                    minX = Math.min(minX, ringCoordinates[i]);
+                    minY = Math.min(minY, ringCoordinates[i + 1]);
+                    maxX = Math.max(maxX, ringCoordinates[i]);
+                    maxY = Math.max(maxY, ringCoordinates[i + 1]);
+                }
+            }
+            polygonBoxes[polygonCount * 4] = minX;
+            polygonBoxes[polygonCount * 4 + 1] = minY;
+            polygonBoxes[polygonCount * 4 + 2] = maxX;
+            polygonBoxes[polygonCount * 4 + 3] = maxY;
+            polygonCount++;
+        }
+    }
+
+    void write(String outputPath) throws IOException {
+        Tree tree = buildTree(polygonBoxes, polygonCount);
+        polygonRings[polygonCount] = ringCount;
+        ringVertices[ringCount] = vertexCount;
+        int[] polygonRings = Arrays.copyOf(this.polygonRings, polygonCount + 1);
+        int[] ringVertices = Arrays.copyOf(this.ringVertices, ringCount + 1);
+        float[] coordinates = Arrays.copyOf(this.coordinates, vertexCount * 2);
+        EdgeGridWriter grid = EdgeGridWriter.build(coordinates, polygonRings, ringVertices);
+
+        List<byte[]> zoneNames = new ArrayList<>();
+        int zoneTableSize = 0;
+        for (String zone : zones.keySet()) {
+            byte[] name = zone.getBytes(StandardCharsets.UTF_8);
+            zoneNames.add(name);
+            zoneTableSize += align(4 + name.length);
+        }
+        int nodeCount = tree.indices.length;
+        long size = 32L + zoneTableSize + tree.levelEnds.length * 4L + polygonCount * 4L + (polygonCount + 1) * 4L
+                + (ringCount + 1) * 4L + vertexCount * 8L + nodeCount * 16L + nodeCount * 4L
+                + 16L + grid.cellStarts.length * 4L + grid.data.length * 4L;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Packed index is too large: " + size + " bytes");
+        }
+
+        try (Output out = new Output(outputPath)) {
+            out.putInt(MAGIC).putInt(VERSION).putInt(NODE_SIZE).putInt(zones.size())
+                    .putInt(polygonCount).putInt(ringCount).putInt(vertexCount).putInt(tree.levelEnds.length);
+            for (byte[] name : zoneNames) {
+                out.putInt(name.length).put(name);
+                out.align();
+            }
+            for (int levelEnd : tree.levelEnds) {
+                out.putInt(levelEnd);
+            }
+            for (int i = 0; i < polygonCount; i++) {
+                out.putInt(polygonZones[i]);
+            }
+            for (int r : polygonRings) {
+                out.putInt(r);
+            }
+            for (int v : ringVertices) {
+                out.putInt(v);
+            }
+            for (float c : coordinates) {
+                out.putFloat(c);
+            }
+            for (float f : tree.boxes) {
+                out.putFloat(f);
+            }
+            for (int index : tree.indices) {
+                out.putInt(index);
+            }
+            out.putInt(EdgeGridWriter.CELLS_PER_DEGREE).putInt(EdgeGridWriter.COLUMNS).putInt(EdgeGridWriter.ROWS)
+                    .putInt(grid.maxEntries);
+            for (int cellStart : grid.cellStarts) {
+                out.putInt(cellStart);
+            }
+            for (int value : grid.data) {
+                out.putInt(value);
+            }
+        }
+    }
+
+    /**
+     * Writes the file through a small buffer, so that the file is never in memory as a whole,
+     * in addition to the arrays it's written from.
+     */
+    private static final class Output implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        Output(String path) throws IOException {
+            channel = FileChannel.open(Paths.get(path),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        private ByteBuffer reserve(int length) throws IOException {
+            if (buffer.remaining() < length) {
+                flush();
+            }
+            position += length;
+            return buffer;
+        }
+
+        Output putInt(int value) throws IOException {
+            reserve(4).putInt(value);
+            return this;
+        }
+
+        Output putFloat(float value) throws IOException {
+            reserve(4).putFloat(value);
+            return this;
+        }
+
+        Output put(byte[] values) throws IOException {
+            reserve(values.length).put(values);
+            return this;
+        }
+
+        /**
+         * Pads the file with zeros to 4 byte boundary.
+         */
+        void align() throws IOException {
+            while (position % 4 != 0) {
+                reserve(1).put((byte) 0);
+            }
+        }
+
+        private void flush() throws IOException {
+            ((Buffer) buffer).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            ((Buffer) buffer).clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static int align(int offset) {
+        return (offset + 3) & ~3;
+    }
+
+    private static final class Tree {
+        final float[] boxes;
+        final int[] indices;
+        final int[] levelEnds;
+
+        Tree(float[] boxes, int[] indices, int[] levelEnds) {
+            this.boxes = boxes;
+            this.indices = indices;
+            this.levelEnds = levelEnds;
+        }
+    }
+
+    /**
+     * Builds the R-tree with Sort-Tile-Recursive algorithm: the items of every level are sorted into
+     * vertical slices by the x coordinate of their centers, and inside of each slice by the y coordinate,
+     * and then every {@link #NODE_SIZE} consecutive items get a common parent.
+     */
+    private static Tree buildTree(float[] itemBoxes, int itemCount) {
+        float[] boxes = new float[0];
+        int[] indices = new int[0];
+        List<Integer> levelEnds = new ArrayList<>();
+        float[] levelBoxes = itemBoxes;
+        int[] levelIndices = new int[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            levelIndices[i] = i;
+        }
+        int count = itemCount;
+        while (count > 0) {
+            int start = indices.length;
+            Integer[] order = sortTileRecursive(levelBoxes, count);
+            boxes = Arrays.copyOf(boxes, (start + count) * 4);
+            indices = Arrays.copyOf(indices, start + count);
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(levelBoxes, order[i] * 4, boxes, (start + i) * 4, 4);
+                indices[start + i] = levelIndices[order[i]];
+            }
+            levelEnds.add(start + count);
+            if (count == 1 && levelEnds.size() > 1) {
+                break;
+            }
+            int parentCount = (count + NODE_SIZE - 1) / NODE_SIZE;
+            float[] parentBoxes = new float[parentCount * 4];
+            int[] parentIndices = new int[parentCount];
+            for (int parent = 0; parent < parentCount; parent++) {
+                int firstChild = start + parent * NODE_SIZE;
+                int lastChild = Math.min(firstChild + NODE_SIZE, start + count);
+                parentIndices[parent] = firstChild;
+                parentBoxes[parent * 4] = Float.POSITIVE_INFINITY;
+                parentBoxes[parent * 4 + 1] = Float.POSITIVE_INFINITY;
+                parentBoxes[parent * 4 + 2] = Float.NEGATIVE_INFINITY;
+                parentBoxes[parent * 4 + 3] = Float.NEGATIVE_INFINITY;
+                for (int child = firstChild; child < lastChild; child++) {
+                    parentBoxes[parent * 4] = Math.min(parentBoxes[parent * 4], boxes[child * 4]);
+                    parentBoxes[parent * 4 + 1] = Math.min(parentBoxes[parent * 4 + 1], boxes[child * 4 + 1]);
+                    parentBoxes[parent * 4 + 2] = Math.max(parentBoxes[parent * 4 + 2], boxes[child * 4 + 2]);
+                    parentBoxes[parent * 4 + 3] = Math.max(parentBoxes[parent * 4 + 3], boxes[child * 4 + 3]);
+                }
+            }
+            levelBoxes = parentBoxes;
+            levelIndices = parentIndices;
+            count = parentCount;
+        }
+        return new Tree(boxes, indices, levelEnds.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private static Integer[] sortTileRecursive(float[] boxes, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Comparator<Integer> byCenterX = Comparator.comparingDouble(i -> boxes[i * 4] + boxes[i * 4 + 2]);
+        Comparator<Integer> byCenterY = Comparator.comparingDouble(i -> boxes[i * 4 + 1] + boxes[i * 4 + 3]);
+        Arrays.sort(order, byCenterX);
+        int nodeCount = (count + NODE_SIZE - 1) / NODE_SIZE;
+        int sliceSize = (int) Math.ceil(Math.sqrt(nodeCount)) * NODE_SIZE;
+        for (int slice = 0; slice < count; slice += sliceSize) {
+            Arrays.sort(order, slice, Math.min(slice + sliceSize, count), byCenterY);
+        }
+        return order;
+    }
+}
@@ -0,0 +1,200 @@
+package net.iakovlev.timeshape;
+
+import net.iakovlev.timeshape.proto.Geojson;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Precomputes the rasters, which the core uses for accelerated geometry instead of building the Esri acceleration
+ * at startup. The layout must be kept in sync with {@code PolygonRaster} in core.
+ * <p>
+ * The bounding box of every polygon is split into a grid of cells, and every cell is classified as outside of
+ * the polygon, inside of it, or touched by its boundary, 2 bits per cell, 4 cells per byte starting from the lowest
+ * bits, row by row from the south. A cell is touched by the boundary if any edge passes closer than {@link #MARGIN}
+ * to it, so that the cells, which are not, are inside or outside entirely, including the tolerance the Esri
+ * geometry API tests the points with.
+ */
+final class PolygonRasterWriter {
+    static final String ENTRY_SUFFIX = ".raster";
+    private static final int OUTSIDE = 0;
+    private static final int INSIDE = 1;
+    private static final int BOUNDARY = 2;
+    private static final double MARGIN = 1e-7;
+    // the number of cells grows with the number of vertices, within these limits
+    private static final int MIN_CELLS = 256;
+    private static final int MAX_CELLS = 65536;
+    private static final int CELLS_PER_VERTEX = 4;
+
+    private PolygonRasterWriter() {
+    }
+
+    /**
+     * @return the number of polygons, followed by the raster of every polygon: its bounding box as 4 floats,
+     * the number of columns and rows, and the cells
+     */
+    static byte[] write(List<Geojson.Polygon> polygons) {
+        byte[][] rasters = new byte[polygons.size()][];
+        int size = 4;
+        for (int i = 0; i < rasters.length; i++) {
+            rasters[i] = rasterize(polygons.get(i));
+            size += rasters[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(rasters.length);
+        for (byte[] raster : rasters) {
+            buffer.put(raster);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] rasterize(Geojson.Polygon polygon) {
+        float[][] rings = new float[polygon.getCoordinatesCount()][];
+        int vertexCount = 0;
+        for (int ring = 0; ring < rings.length; ring++) {
+            rings[ring] = PackedCoordinates.decode(polygon.getCoordinates(ring));
+            vertexCount += rings[ring].length / 2;
+        }
+        float[] coordinates = new float[vertexCount * 2];
+        int[] ringStarts = new int[rings.length + 1];
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        int i = 0;
+        for (int ring = 0; ring < rings.length; ring++) {
+            for (int j = 0; j < rings[ring].length; j += 2) {
+                coordinates[i++] = rings[ring][j];
+                coordinates[i++] = rings[ring][j + 1];
+                minX = Math.min(minX, rings[ring][j]);
+                minY = Math.min(minY, rings[ring][j + 1]);
+                maxX = Math.max(maxX, rings[ring][j]);
+                maxY = Math.max(maxY, rings[ring][j + 1]);
+            }
+            ringStarts[ring + 1] = i;
+        }
+        double width = (double) maxX - minX;
+        double height = (double) maxY - minY;
+        int columns = 1;
+        int rows = 1;
+        if (width > 0 && height > 0) {
+            // cells are roughly square in degrees
+            long target = Math.max(MIN_CELLS, Math.min(MAX_CELLS, (long) vertexCount * CELLS_PER_VERTEX));
+            columns = (int) Math.max(1, Math.min(MAX_CELLS, Math.round(Math.sqrt(target * width / height))));
+            rows = (int) Math.max(1, Math.min(MAX_CELLS / columns, Math.round((double) target / columns)));
+        }
+        int[] cells = new int[columns * rows];
+        if (width > 0 && height > 0) {
+            classify(coordinates, ringStarts, minX, minY, width / columns, height / rows, columns, rows, cells);
+        } else {
+            Arrays.fill(cells, BOUNDARY);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(24 + (cells.length + 3) / 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putFloat(minX).putFloat(minY).putFloat(maxX).putFloat(maxY).putInt(columns).putInt(rows);
+        for (int cell = 0; cell < cells.length; cell += 4) {
+            int packed = 0;
+            for (int j = 0; j < 4 && cell + j < cells.length; j++) {
+                packed |= cells[cell + j] << (j * 2);
+            }
+            buffer.put((byte) packed);
+        }
+        return buffer.array();
+    }
+
+    private static void classify(float[] coordinates, int[] ringStarts, double minX, double minY,
+                                 double cellWidth, double cellHeight, int columns, int rows, int[] cells) {
+        double margin = MARGIN / Math.min(cellWidth, cellHeight);
+        // crossings of every edge with the horizontal lines through the centers of the rows it spans,
+        // counted first and then filled in, row by row
+        int[] rowStarts = new int[rows + 1];
+        for (int pass = 0; pass < 2; pass++) {
+            double[] crossings = pass == 0 ? null : new double[rowStarts[rows]];
+            int[] positions = pass == 0 ? null : rowStarts.clone();
+            for (int ring = 0; ring + 1 < ringStarts.length; ring++) {
+                int start = ringStarts[ring];
+                int end = ringStarts[ring + 1];
+                for (int v = start; v < end; v += 2) {
+                    // the last edge closes the ring
+                    int next = v + 2 < end ? v + 2 : start;
+                    double ax = (coordinates[v] - minX) / cellWidth;
+                    double ay = (coordinates[v + 1] - minY) / cellHeight;
+                    double bx = (coordinates[next] - minX) / cellWidth;
+                    double by = (coordinates[next + 1] - minY) / cellHeight;
+                    if (pass == 0) {
+                        markSegment(cells, columns, rows, margin, ax, ay, bx, by);
+                    }
+                    // rows, which centers are in [min(ay, by), max(ay, by)), the same half open rule
+                    // the even-odd point in polygon test uses
+                    int firstRow = Math.max(0, (int) Math.ceil(Math.min(ay, by) - 0.5));
+                    int lastRow = Math.min(rows - 1, (int) Math.ceil(Math.max(ay, by) - 0.5) - 1);
+                    for (int row = firstRow; row <= lastRow; row++) {
+                        if (pass == 0) {
+                            rowStarts[row + 1]++;
+                        } else {
+                            double y = row + 0.5;
+                            crossings[positions[row]++] = ax + (y - ay) * (bx - ax) / (by - ay);
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int row = 0; row < rows; row++) {
+                    rowStarts[row + 1] += rowStarts[row];
+                }
+                continue;
+            }
+            // a cell not touched by any edge is entirely on one side of the boundary, so its center decides
+            for (int row = 0; row < rows; row++) {
+                Arrays.sort(crossings, rowStarts[row], rowStarts[row + 1]);
+                int crossing = rowStarts[row];
+                for (int column = 0; column < columns; column++) {
+                    double x = column + 0.5;
+                    while (crossing < rowStarts[row + 1] && crossings[crossing] < x) {
+                        crossing++;
+                    }
+                    if (cells[row * columns + column] != BOUNDARY) {
+                        cells[row * columns + column] = (crossing - rowStarts[row]) % 2 == 1 ? INSIDE : OUTSIDE;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks all the cells touched by the segment as boundary. Coordinates are in cell units.
+     */
+    private static void markSegment(int[] cells, int columns, int rows, double margin,
+                                    double ax, double ay, double bx, double by) {
+        if (ax > bx) {
+            double t = ax;
+            ax = bx;
+            bx = t;
+            t = ay;
+            ay = by;
+            by = t;
+        }
+        int firstColumn = clamp((int) Math.floor(ax - margin), columns);
+        int lastColumn = clamp((int) Math.floor(bx + margin), columns);
+        for (int column = firstColumn; column <= lastColumn; column++) {
+            double yFrom;
+            double yTo;
+            if (bx == ax) {
+                yFrom = ay;
+                yTo = by;
+            } else {
+                double slope = (by - ay) / (bx - ax);
+                yFrom = ay + (Math.max(ax, column - margin) - ax) * slope;
+                yTo = ay + (Math.min(bx, column + 1 + margin) - ax) * slope;
+            }
+            int firstRow = clamp((int) Math.floor(Math.min(yFrom, yTo) - margin), rows);
+            int lastRow = clamp((int) Math.floor(Math.max(yFrom, yTo) + margin), rows);
+            for (int row = firstRow; row <= lastRow; row++) {
+                cells[row * columns + column] = BOUNDARY;
+            }
+        }
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
+    }
+}
@@ -0,0 +1,98 @@
+package net.iakovlev.timeshape;
+
+import com.github.luben.zstd.Zstd;
+import net.iakovlev.timeshape.proto.Geojson;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the zone container, the data file bundled into the core JAR: a table of the zones with their bounding boxes,
+ * followed by every zone compressed separately, so that the core reads only the zones a bounded engine needs.
+ * The layout is described in doc/Architecture.md and must be kept in sync with {@code ZoneContainer} in core.
+ */
+final class ZoneContainerWriter {
+    private static final int MAGIC = 0x435A5354; // "TSZC" in little endian
+    private static final int VERSION = 1;
+    private static final int COMPRESSION_LEVEL = 22;
+
+    // the zones are compressed as they come, and only the compressed frames are kept until the table is written
+    private final List<Zone> zones = new ArrayList<>();
+
+    static final class Zone {
+        private final byte[] name;
+        private final float[] box;
+        private final byte[] frame;
+        private final int featureLength;
+        private final int rastersLength;
+
+        private Zone(byte[] name, float[] box, byte[] frame, int featureLength, int rastersLength) {
+            this.name = name;
+            this.box = box;
+            this.frame = frame;
+            this.featureLength = featureLength;
+            this.rastersLength = rastersLength;
+        }
+    }
+
+    /**
+     * Compresses the zone, independently of the other zones, so that it can be done on any thread.
+     *
+     * @param rasters the rasters of the polygons of the feature, see {@link PolygonRasterWriter}
+     */
+    static Zone compress(Geojson.Feature feature, byte[] encoded, byte[] rasters) {
+        float[] box = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (Geojson.Polygon polygon : PackedIndexWriter.getPolygons(feature)) {
+            for (Geojson.LineString ring : polygon.getCoordinatesList()) {
+                float[] coordinates = PackedCoordinates.decode(ring);
+                for (int i = 0; i < coordinates.length; i += 2) {
+                    box[0] = Math.min(box[0], coordinates[i]);
+                    box[1] = Math.min(box[1], coordinates[i + 1]);
+                    box[2] = Math.max(box[2], coordinates[i]);
+                    box[3] = Math.max(box[3], coordinates[i + 1]);
+                }
+            }
+        }
+        byte[] frame = new byte[encoded.length + rasters.length];
+        System.arraycopy(encoded, 0, frame, 0, encoded.length);
+        System.arraycopy(rasters, 0, frame, encoded.length, rasters.length);
+        return new Zone(feature.getProperties(0).getValueString().getBytes(StandardCharsets.UTF_8), box,
+                Zstd.compress(frame, COMPRESSION_LEVEL), encoded.length, rasters.length);
+    }
+
+    /**
+     * Adds the zone to the container, in the order the zones are added.
+     */
+    void add(Zone zone) {
+        zones.add(zone);
+    }
+
+    void write(String outputPath) throws IOException {
+        int tableSize = 0;
+        for (Zone zone : zones) {
+            tableSize += 4 + zone.name.length + 16 + 16;
+        }
+        ByteBuffer table = ByteBuffer.allocate(16 + tableSize).order(ByteOrder.LITTLE_ENDIAN);
+        table.putInt(MAGIC).putInt(VERSION).putInt(zones.size()).putInt(tableSize);
+        int offset = 0;
+        for (Zone zone : zones) {
+            table.putInt(zone.name.length).put(zone.name);
+            table.putFloat(zone.box[0]).putFloat(zone.box[1]).putFloat(zone.box[2]).putFloat(zone.box[3]);
+            table.putInt(offset).putInt(zone.frame.length).putInt(zone.featureLength).putInt(zone.rastersLength);
+            offset += zone.frame.length;
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputPath))) {
+            out.write(table.array());
+            for (Zone zone : zones) {
+                out.write(zone.frame);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package net.iakovlev.timeshape;
+
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Result of {@link TimeZoneEngine#queryBatch(double[])}. Instead of a {@link ZoneId} per point, it keeps
+ * a position in the table of zones, returned by {@link #getZoneIds()}, for every point.
+ */
+public final class BatchQueryResult {
+    /**
+     * Ordinal of the points which don't belong to any zone.
+     */
+    public static final int NO_ZONE = -1;
+
+    private final int[] zoneOrdinals;
+    private final List<ZoneId> zoneIds;
+
+    BatchQueryResult(int[] zoneOrdinals, List<ZoneId> zoneIds) {
+        this.zoneOrdinals = zoneOrdinals;
+        this.zoneIds = zoneIds;
+    }
+
+    /**
+     * @return number of points in the query
+     */
+    public int size() {
+        return zoneOrdinals.length;
+    }
+
+    /**
+     * Returns the ordinals of zones of all points, in order of the points in the query.
+     * The array is not copied, so it must not be modified.
+     *
+     * @return position in {@link #getZoneIds()} of the zone of each point, or {@link #NO_ZONE}
+     */
+    public int[] getZoneOrdinals() {
+        return zoneOrdinals;
+    }
+
+    /**
+     * @param point index of the point in the query, i.e. half of the index of its latitude in the query array
+     * @return position in {@link #getZoneIds()} of the zone of the point, or {@link #NO_ZONE}
+     */
+    public int getZoneOrdinal(int point) {
+        return zoneOrdinals[point];
+    }
+
+    /**
+     * @param point index of the point in the query, i.e. half of the index of its latitude in the query array
+     * @return the same as {@link TimeZoneEngine#query(double, double)} would return for the point
+     */
+    public Optional<ZoneId> getZoneId(int point) {
+        int ordinal = zoneOrdinals[point];
+        return ordinal == NO_ZONE ? Optional.empty() : Optional.of(zoneIds.get(ordinal));
+    }
+
+    /**
+     * @return unmodifiable table of zones, which the ordinals point to
+     */
+    public List<ZoneId> getZoneIds() {
+        return zoneIds;
+    }
+}
@@ -0,0 +1,115 @@
+package net.iakovlev.timeshape;
+
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.Polygon;
+
+/**
+ * Sutherland-Hodgman clipping of the rings of a polygon, in the arrays of a lazy {@link Index.Entry}, to a box.
+ * It's a single pass over the vertices per side of the box, many times faster than the Esri clipping, but where
+ * a ring leaves the box and comes back, the parts of the result are connected by edges along the side of the box,
+ * which have no area. Every point strictly within the box is classified exactly by the even-odd rule, the fill
+ * rule of the Esri polygons, but the points on the sides may match those edges. So polygons are clipped to
+ * the boundaries expanded by a margin, see {@link #withMargin(Envelope2D)}, which keeps those edges away from
+ * the boundaries, and the points on the boundaries get the same zones as in an index without clipping.
+ * <p>
+ * Instances reuse their buffers and are not thread safe.
+ */
+final class BoxClipper {
+    private double[] xs = new double[64];
+    private double[] ys = new double[64];
+    private double[] nextXs = new double[64];
+    private double[] nextYs = new double[64];
+    private int size;
+
+    /**
+     * @return the boundaries expanded by 1/64 of their larger side, but at least by 0.001 degrees
+     */
+    static Envelope2D withMargin(Envelope2D boundaries) {
+        double margin = Math.max(Math.max(boundaries.getWidth(), boundaries.getHeight()) / 64, 1e-3);
+        return new Envelope2D(boundaries.xmin - margin, boundaries.ymin - margin,
+                boundaries.xmax + margin, boundaries.ymax + margin);
+    }
+
+    /**
+     * @return the polygon clipped to the box, or null if none of its rings has any area within the box
+     */
+    Polygon clip(int[] ringStarts, float[] coordinates, Envelope2D box) {
+        Polygon result = new Polygon();
+        for (int ring = 0; ring < ringStarts.length - 1; ring++) {
+            size = 0;
+            ensureCapacity((ringStarts[ring + 1] - ringStarts[ring]) / 2);
+            for (int i = ringStarts[ring]; i < ringStarts[ring + 1]; i += 2) {
+                xs[size] = coordinates[i];
+                ys[size++] = coordinates[i + 1];
+            }
+            clip(true, box.xmin, true);
+            clip(true, box.xmax, false);
+            clip(false, box.ymin, true);
+            clip(false, box.ymax, false);
+            if (size >= 3) {
+                result.startPath(xs[0], ys[0]);
+                for (int i = 1; i < size; i++) {
+                    result.lineTo(xs[i], ys[i]);
+                }
+            }
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * Clips the current ring to the half plane of the points with x, or y, at least or at most the bound.
+     */
+    private void clip(boolean x, double bound, boolean atLeast) {
+        if (size == 0) {
+            return;
+        }
+        // every edge adds at most two vertices: the crossing and its end
+        if (nextXs.length < size * 2) {
+            nextXs = new double[size * 2];
+            nextYs = new double[size * 2];
+        }
+        int count = 0;
+        double previousX = xs[size - 1];
+        double previousY = ys[size - 1];
+        boolean previousInside = inside(x ? previousX : previousY, bound, atLeast);
+        for (int i = 0; i < size; i++) {
+            double currentX = xs[i];
+            double currentY = ys[i];
+            boolean currentInside = inside(x ? currentX : currentY, bound, atLeast);
+            if (currentInside != previousInside) {
+                if (x) {
+                    nextXs[count] = bound;
+                    nextYs[count++] = previousY + (bound - previousX) / (currentX - previousX) * (currentY - previousY);
+                } else {
+                    nextXs[count] = previousX + (bound - previousY) / (currentY - previousY) * (currentX - previousX);
+                    nextYs[count++] = bound;
+                }
+            }
+            if (currentInside) {
+                nextXs[count] = currentX;
+                nextYs[count++] = currentY;
+            }
+            previousX = currentX;
+            previousY = currentY;
+            previousInside = currentInside;
+        }
+        double[] swap = xs;
+        xs = nextXs;
+        nextXs = swap;
+        swap = ys;
+        ys = nextYs;
+        nextYs = swap;
+        size = count;
+    }
+
+    private static boolean inside(double value, double bound, boolean atLeast) {
+        return atLeast ? value >= bound : value <= bound;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (xs.length < capacity) {
+            xs = new double[capacity];
+            ys = new double[capacity];
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package net.iakovlev.timeshape;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Hands out parts of large direct buffers to the off-heap polygons of an index, so that the number of direct buffers,
+ * each with its own cleaner the garbage collector has to track, grows with the amount of geometry, and not with
+ * the number of polygons. The parts are slices, which keep their chunk reachable, so a chunk is released once
+ * none of the polygons in it is reachable anymore.
+ * <p>
+ * Every index build has arenas of its own, one per build thread, so that indexes don't share chunks, and the
+ * threads of a parallel build don't contend for an arena. The index keeps one of them for the polygons it
+ * materializes later.
+ */
+final class DirectArena {
+    private static final int CHUNK_SIZE = 4 << 20;
+    // larger parts get a buffer of their own, so that a chunk doesn't lose more than that to its unused end
+    private static final int MAX_PART_SIZE = CHUNK_SIZE / 8;
+    // arena of the index being deserialized on this thread, see Index#readObject
+    private static final ThreadLocal<DirectArena> DESERIALIZING = new ThreadLocal<>();
+
+    private ByteBuffer chunk;
+
+    /**
+     * @param size size in bytes, a multiple of 4, so that all the parts of a chunk stay aligned
+     * @return direct buffer of the size in native byte order, at position 0
+     */
+    synchronized ByteBuffer allocate(int size) {
+        if (size > MAX_PART_SIZE) {
+            return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+        if (chunk == null || chunk.remaining() < size) {
+            chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        }
+        ByteBuffer part = chunk.slice().order(ByteOrder.nativeOrder());
+        ((Buffer) part).limit(size);
+        ((Buffer) chunk).position(chunk.position() + size);
+        return part;
+    }
+
+    /**
+     * Makes the deserialized off-heap polygons use {@code arena}, until {@link #endDeserializing()} is called.
+     */
+    static void beginDeserializing(DirectArena arena) {
+        DESERIALIZING.set(arena);
+    }
+
+    static void endDeserializing() {
+        DESERIALIZING.remove();
+    }
+
+    /**
+     * @return the arena of the index being deserialized on this thread, or a new one for a polygon deserialized
+     * on its own
+     */
+    static DirectArena deserializing() {
+        DirectArena arena = DESERIALIZING.get();
+        return arena != null ? arena : new DirectArena();
+    }
+}
@@ -0,0 +1,124 @@
+package net.iakovlev.timeshape;
+
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.Point2D;
+
+import java.util.function.IntFunction;
+
+/**
+ * Spatial index of the edges of a single polygon, for finding the edge nearest to a point.
+ * The edges are the items of a {@link PackedRTree}, so the search only looks at the edges close to the point.
+ */
+final class EdgeIndex {
+    private static final int NODE_SIZE = 16;
+    // mean radius of the Earth in meters
+    private static final double EARTH_RADIUS = 6_371_008.8;
+
+    // x1, y1, x2, y2 of every edge
+    private final float[] edges;
+    private final PackedRTree tree;
+    private final PackedRTree.ItemDistance edgeDistance = this::edgeDistance;
+
+    private EdgeIndex(float[] edges) {
+        this.edges = edges;
+        float[] boxes = new float[edges.length];
+        for (int e = 0; e < edges.length; e += 4) {
+            boxes[e] = Math.min(edges[e], edges[e + 2]);
+            boxes[e + 1] = Math.min(edges[e + 1], edges[e + 3]);
+            boxes[e + 2] = Math.max(edges[e], edges[e + 2]);
+            boxes[e + 3] = Math.max(edges[e + 1], edges[e + 3]);
+        }
+        this.tree = PackedRTree.pack(boxes, NODE_SIZE);
+    }
+
+    /**
+     * @param edges x1, y1, x2, y2 of every edge, must not be modified afterwards
+     */
+    static EdgeIndex build(float[] edges) {
+        return new EdgeIndex(edges);
+    }
+
+    static EdgeIndex build(MultiPath polygon) {
+        float[] edges = new float[polygon.getPointCount() * 4];
+        Point2D vertex = new Point2D();
+        int e = 0;
+        for (int path = 0; path < polygon.getPathCount(); path++) {
+            int start = polygon.getPathStart(path);
+            int end = polygon.getPathEnd(path);
+            polygon.getXY(end - 1, vertex);
+            for (int i = start; i < end; i++) {
+                edges[e++] = (float) vertex.x;
+                edges[e++] = (float) vertex.y;
+                polygon.getXY(i, vertex);
+                edges[e++] = (float) vertex.x;
+                edges[e++] = (float) vertex.y;
+            }
+        }
+        return new EdgeIndex(edges);
+    }
+
+    /**
+     * @return whether any edge intersects the box, only the edges which bounding boxes intersect it are tested
+     */
+    boolean hasEdgeWithin(double minX, double minY, double maxX, double maxY) {
+        PackedRTree.Cursor cursor = tree.cursor();
+        cursor.reset(minX, minY, maxX, maxY);
+        for (int edge = cursor.next(); edge >= 0; edge = cursor.next()) {
+            int e = edge * 4;
+            if (Segments.intersectsBox(edges[e], edges[e + 1], edges[e + 2], edges[e + 3], minX, minY, maxX, maxY)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return squared distance to the nearest edge, if it's lower than {@code bound}, or {@code bound}
+     */
+    double squaredDistance(double x, double y, double scaleX, double bound) {
+        return tree.nearest(x, y, scaleX, bound, edgeDistance);
+    }
+
+    private double edgeDistance(int edge, double x, double y, double scaleX, double bound) {
+        int e = edge * 4;
+        // the point is moved to the origin
+        double ax = (edges[e] - x) * scaleX;
+        double ay = edges[e + 1] - y;
+        double dx = (edges[e + 2] - x) * scaleX - ax;
+        double dy = edges[e + 3] - y - ay;
+        double length = dx * dx + dy * dy;
+        double t = length == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / length));
+        double px = ax + t * dx;
+        double py = ay + t * dy;
+        return px * px + py * py;
+    }
+
+    /**
+     * Distance from the point to the nearest edge of any polygon, measured on the equirectangular projection
+     * centered at the point, which is close to the distance on the surface of the Earth for short distances.
+     * Longitudes get closer to each other towards the poles, so the search is repeated with the scale of the
+     * longitudes at the farthest latitude the nearest edge can be at, which makes the result a lower bound.
+     *
+     * @param polygons   index of the bounding boxes of the polygons
+     * @param edgeIndexes edge index of the polygon by its id in {@code polygons}, or null to ignore the polygon
+     * @return distance in meters, or {@link Double#POSITIVE_INFINITY} if there are no polygons
+     */
+    static double distanceToBoundary(PackedRTree polygons, double latitude, double longitude,
+                                     IntFunction<EdgeIndex> edgeIndexes) {
+        PackedRTree.ItemDistance polygonDistance = (polygon, x, y, scaleX, bound) -> {
+            EdgeIndex edgeIndex = edgeIndexes.apply(polygon);
+            return edgeIndex == null ? bound : edgeIndex.squaredDistance(x, y, scaleX, bound);
+        };
+        double scale = Math.cos(Math.toRadians(latitude));
+        double nearest = polygons.nearest(longitude, latitude, scale, Double.POSITIVE_INFINITY, polygonDistance);
+        if (nearest == Double.POSITIVE_INFINITY) {
+            return nearest;
+        }
+        double farthestLatitude = Math.min(90, Math.abs(latitude) + Math.sqrt(nearest));
+        double lowerScale = Math.cos(Math.toRadians(farthestLatitude));
+        if (lowerScale < scale) {
+            nearest = polygons.nearest(longitude, latitude, lowerScale, nearest, polygonDistance);
+        }
+        return Math.toRadians(Math.sqrt(nearest)) * EARTH_RADIUS;
+    }
+}
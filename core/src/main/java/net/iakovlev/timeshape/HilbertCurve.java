@@ -0,0 +1,65 @@
+package net.iakovlev.timeshape;
+
+import java.util.Arrays;
+
+/**
+ * Hilbert space filling curve over the longitude and latitude, used to order points so that the ones which are
+ * close to each other on the curve are also close on the map.
+ */
+final class HilbertCurve {
+    // bits per coordinate, so that the position on the curve and the index of a point fit into a long together
+    private static final int ORDER = 15;
+    private static final int SIDE = 1 << ORDER;
+
+    private HilbertCurve() {
+    }
+
+    /**
+     * @return position of the point on the curve, from 0 inclusive to 2^30 exclusive
+     */
+    static int position(double latitude, double longitude) {
+        int x = cell((longitude + 180) / 360);
+        int y = cell((latitude + 90) / 180);
+        int position = 0;
+        for (int s = SIDE / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            position += s * s * ((3 * rx) ^ ry);
+            // rotate the quadrant, so that the curve inside of it is continuous with the neighbouring ones
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = SIDE - 1 - x;
+                    y = SIDE - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return position;
+    }
+
+    private static int cell(double fraction) {
+        int cell = (int) (fraction * SIDE);
+        // also takes care of NaN, which is cast to 0
+        return cell < 0 ? 0 : Math.min(cell, SIDE - 1);
+    }
+
+    /**
+     * @param latLon points in the shape of <code>{lat_1, lon_1, lat_2, lon_2, ..., lat_N, lon_N}</code>
+     * @return indices of the points, ordered by their positions on the curve
+     */
+    static int[] order(double[] latLon) {
+        int size = latLon.length / 2;
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = (long) position(latLon[i * 2], latLon[i * 2 + 1]) << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+}
@@ -1,187 +1,963 @@
 package net.iakovlev.timeshape;
 
 import com.esri.core.geometry.*;
+import com.google.protobuf.InvalidProtocolBufferException;
 import net.iakovlev.timeshape.proto.Geojson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
 import java.time.ZoneId;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.PrimitiveIterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
-final class Index implements Serializable {
+final class Index implements ZoneIndex, Serializable {
     static final class Entry implements Serializable {
         final ZoneId zoneId;
-        final Geometry geometry;
+        // one of them, depending on the kind of geometry of the index, is set, except for a lazy entry,
+        // which is not materialized yet or was evicted
+        volatile Geometry geometry;
+        volatile SlabPolygon slabPolygon;
+        // source of a lazy entry: start of every ring in coordinates, followed by the end of the last ring,
+        // and the interleaved longitudes and latitudes of the vertices
+        final int[] ringStarts;
+        final float[] coordinates;
+        // coarse level of detail, which decides the queries away from the boundary without the geometry
+        final SimplifiedPolygon simplified;
+        // precomputed replacement of the acceleration of an Esri geometry, if the data file has it
+        final PolygonRaster raster;
+        // set by the queries using a materialized lazy entry, and cleared by the hand of the clock, see addToClock
+        transient volatile boolean referenced;
+        // built on the first query of the distance to the boundary
+        transient volatile EdgeIndex edgeIndex;
 
         Entry(ZoneId zoneId, Geometry geometry) {
+            this(zoneId, geometry, null);
+        }
+
+        Entry(ZoneId zoneId, Geometry geometry, PolygonRaster raster) {
             this.zoneId = zoneId;
             this.geometry = geometry;
+            this.ringStarts = null;
+            this.coordinates = null;
+            this.simplified = null;
+            this.raster = raster;
+        }
+
+        Entry(ZoneId zoneId, SlabPolygon slabPolygon) {
+            this.zoneId = zoneId;
+            this.slabPolygon = slabPolygon;
+            this.ringStarts = null;
+            this.coordinates = null;
+            this.simplified = null;
+            this.raster = null;
+        }
+
+        Entry(ZoneId zoneId, int[] ringStarts, float[] coordinates) {
+            this(zoneId, ringStarts, coordinates, null, null);
+        }
+
+        Entry(ZoneId zoneId, int[] ringStarts, float[] coordinates, SimplifiedPolygon simplified, PolygonRaster raster) {
+            this.zoneId = zoneId;
+            this.ringStarts = ringStarts;
+            this.coordinates = coordinates;
+            this.simplified = simplified;
+            this.raster = raster;
+        }
+
+        boolean isLazy() {
+            return coordinates != null;
+        }
+
+        boolean isMaterialized() {
+            return geometry != null || slabPolygon != null;
         }
     }
 
     private static final int WGS84_WKID = 4326;
     private final ArrayList<Entry> zoneIds;
     private static final SpatialReference spatialReference = SpatialReference.create(WGS84_WKID);
-    private final QuadTree quadTree;
+    private static final int TREE_NODE_SIZE = 16;
+    // several times the tolerance of the spatial reference, to stay on the safe side of floating point rounding
+    private static final double EDGE_MARGIN_DEGREES = 1e-7;
+    private final PackedRTree tree;
+    // distinct zones in the order of their first appearance, and the position in it of every entry's zone
+    private final List<ZoneId> zoneTable;
+    private final int[] entryOrdinals;
+    private final List<ZoneId> knownZoneIds;
+    private final ZoneGrid grid;
+    private final int[] gridOrdinals;
+    private final boolean accelerateGeometry;
+    private final boolean packedGeometry;
+    private final boolean offHeapGeometry;
+    // maximum number of materialized lazy entries, 0 if unlimited
+    private final int maxMaterialized;
+    // materialized lazy entries, if their number is capped, which the hand goes around to find one to evict
+    private transient Entry[] clock;
+    private transient int clockSize;
+    private transient int clockHand;
+    // arena of the off-heap polygons materialized by queries, null if the geometry is on the heap
+    private transient DirectArena arena;
     private static final Logger log = LoggerFactory.getLogger(Index.class);
 
-    private Index(QuadTree quadTree, ArrayList<Entry> zoneIds) {
+    /**
+     * @param grid  lookup grid read from a snapshot, or null to build it, if the options enable it
+     * @param arena arena the off-heap polygons of the index were built in, null if the geometry is on the heap
+     */
+    private Index(PackedRTree tree, ArrayList<Entry> zoneIds, Envelope2D boundaries, TimeZoneEngineOptions options,
+                  ZoneGrid grid, DirectArena arena) {
         log.info("Initialized index with {} time zones", zoneIds.size());
-        this.quadTree = quadTree;
+        this.tree = tree;
         this.zoneIds = zoneIds;
+        this.accelerateGeometry = options.isAccelerateGeometry();
+        this.packedGeometry = options.isPackedGeometry();
+        this.offHeapGeometry = options.isOffHeapGeometry();
+        this.maxMaterialized = options.getMaxMaterializedGeometries();
+        this.clock = maxMaterialized > 0 ? new Entry[maxMaterialized] : null;
+        this.arena = arena;
+        Map<ZoneId, Integer> ordinals = new LinkedHashMap<>();
+        this.entryOrdinals = new int[zoneIds.size()];
+        for (int i = 0; i < zoneIds.size(); i++) {
+            entryOrdinals[i] = ordinals.computeIfAbsent(zoneIds.get(i).zoneId, z -> ordinals.size());
+        }
+        this.zoneTable = Collections.unmodifiableList(new ArrayList<>(ordinals.keySet()));
+        this.knownZoneIds = Collections.unmodifiableList(zoneIds.stream().map(e -> e.zoneId).collect(Collectors.toList()));
+        if (grid == null && options.isLookupGridEnabled()) {
+            // the polygons are built as the grid iterates over them, so only one of them is kept at a time
+            List<MultiPath> polygons = new AbstractList<MultiPath>() {
+                @Override
+                public MultiPath get(int index) {
+                    return gridPolygon(zoneIds.get(index));
+                }
+
+                @Override
+                public int size() {
+                    return zoneIds.size();
+                }
+            };
+            grid = ZoneGrid.build(boundaries, options.getLookupGridResolution(), options.getLookupGridMemoryBudget(), this, polygons);
+        }
+        this.grid = grid;
+        if (grid != null) {
+            this.gridOrdinals = grid.getZoneSets().stream()
+                    .mapToInt(zones -> zones.isEmpty() ? -1 : ordinals.get(zones.get(0)))
+                    .toArray();
+        } else {
+            this.gridOrdinals = null;
+        }
+    }
+
+    /**
+     * @return polygon of the entry to mark the edges of in the lookup grid. The polygon of a lazy entry is
+     * a temporary one, built from its coordinates, so that the grid doesn't materialize, accelerate or evict entries.
+     */
+    private MultiPath gridPolygon(Entry entry) {
+        if (entry.isLazy()) {
+            return buildPoly(entry.ringStarts, entry.coordinates);
+        }
+        return packedGeometry ? entry.slabPolygon.toPolygon() : (MultiPath) entry.geometry;
+    }
+
+    /**
+     * @return Esri geometry of the entry, materializing it first if it's lazy and not materialized yet
+     */
+    private Geometry geometry(Entry entry) {
+        Geometry geometry = entry.geometry;
+        if (geometry == null) {
+            return (Geometry) materialize(entry);
+        }
+        if (maxMaterialized > 0 && entry.isLazy() && !entry.referenced) {
+            entry.referenced = true;
+        }
+        return geometry;
+    }
+
+    /**
+     * @return packed geometry of the entry, materializing it first if it's lazy and not materialized yet
+     */
+    private SlabPolygon slabPolygon(Entry entry) {
+        SlabPolygon slabPolygon = entry.slabPolygon;
+        if (slabPolygon == null) {
+            return (SlabPolygon) materialize(entry);
+        }
+        if (maxMaterialized > 0 && entry.isLazy() && !entry.referenced) {
+            entry.referenced = true;
+        }
+        return slabPolygon;
+    }
+
+    /**
+     * @return {@link SlabPolygon} if the index uses packed geometry, or Esri {@link Polygon} otherwise
+     */
+    private Object materialize(Entry entry) {
+        Object result;
+        synchronized (entry) {
+            if (entry.isMaterialized()) {
+                return packedGeometry ? entry.slabPolygon : entry.geometry;
+            }
+            if (packedGeometry) {
+                SlabPolygon slabPolygon = SlabPolygon.build(entry.ringStarts, entry.coordinates, arena);
+                entry.slabPolygon = slabPolygon;
+                result = slabPolygon;
+            } else {
+                Polygon polygon = buildPoly(entry.ringStarts, entry.coordinates);
+                if (isAccelerated(entry)) {
+                    OperatorIntersects.local().accelerateGeometry(polygon, spatialReference, Geometry.GeometryAccelerationDegree.enumMild);
+                }
+                entry.geometry = polygon;
+                result = polygon;
+            }
+        }
+        if (maxMaterialized > 0) {
+            addToClock(entry);
+        }
+        return result;
+    }
+
+    /**
+     * Point in polygon test with the kind of geometry the index uses. Polygons without geometry acceleration,
+     * including the ones whose raster replaces it, are tested with the allocation free
+     * {@link #classify(MultiPath, Point2D, double, double)} first, and with {@link OperatorIntersects} only near the edges.
+     */
+    private boolean contains(Entry entry, Point point, Point2D vertex, OperatorIntersects operator) {
+        if (entry.raster != null) {
+            int side = entry.raster.classify(point.getX(), point.getY());
+            if (side >= 0) {
+                return side == 1;
+            }
+        }
+        if (entry.simplified != null) {
+            int side = entry.simplified.classify(point.getX(), point.getY());
+            if (side >= 0) {
+                return side == 1;
+            }
+        }
+        if (packedGeometry) {
+            return slabPolygon(entry).contains(point.getX(), point.getY());
+        }
+        Geometry polygon = geometry(entry);
+        if (!isAccelerated(entry)) {
+            int side = classify((MultiPath) polygon, vertex, point.getX(), point.getY());
+            if (side >= 0) {
+                return side == 1;
+            }
+        }
+        return operator.execute(polygon, point, spatialReference, null);
+    }
+
+    /**
+     * Whether the Esri geometry of the entry is accelerated. Polygons with a raster are not, the raster replaces it.
+     */
+    private boolean isAccelerated(Entry entry) {
+        return accelerateGeometry && entry.raster == null;
+    }
+
+    /**
+     * Adds a newly materialized lazy entry to the clock, and drops the geometry of another entry if the cap is met.
+     * The hand goes around the materialized entries, gives a second chance to the ones used since it last passed
+     * them, and evicts the first one which wasn't, so an eviction is O(1) amortized, and the queries, which only
+     * set the flag of the entries they use, don't contend for the clock. The evicted entry stays in the index,
+     * so its geometry is materialized again on the next hit.
+     */
+    private void addToClock(Entry entry) {
+        Entry evicted;
+        synchronized (clock) {
+            if (clockSize < clock.length) {
+                clock[clockSize++] = entry;
+                return;
+            }
+            while (clock[clockHand].referenced) {
+                clock[clockHand].referenced = false;
+                clockHand = (clockHand + 1) % clock.length;
+            }
+            evicted = clock[clockHand];
+            clock[clockHand] = entry;
+            clockHand = (clockHand + 1) % clock.length;
+        }
+        synchronized (evicted) {
+            evicted.geometry = null;
+            evicted.slabPolygon = null;
+        }
+    }
+
+    @Override
+    public List<ZoneId> getZoneTable() {
+        return zoneTable;
+    }
+
+    @Override
+    public List<ZoneId> getKnownZoneIds() {
+        return knownZoneIds;
+    }
+
+    @Override
+    public List<ZoneMetadata> getZoneMetadata() {
+        ZoneMetadata.Collector collector = new ZoneMetadata.Collector(zoneTable);
+        for (int i = 0; i < zoneIds.size(); i++) {
+            Entry entry = zoneIds.get(i);
+            if (entry.isLazy()) {
+                // the source of a lazy entry is always there, materialized or not
+                collector.add(entryOrdinals[i], entry.ringStarts, entry.coordinates);
+            } else {
+                collector.add(entryOrdinals[i], packedGeometry ? entry.slabPolygon.toPolygon() : (MultiPath) entry.geometry);
+            }
+        }
+        return collector.build();
     }
 
-    List<ZoneId> getKnownZoneIds() {
-        return zoneIds.stream().map(e -> e.zoneId).collect(Collectors.toList());
+    @Override
+    public List<ZoneId> query(double latitude, double longitude) {
+        if (grid != null) {
+            List<ZoneId> result = grid.lookup(latitude, longitude);
+            if (result != null) {
+                return result;
+            }
+        }
+        return queryPolygons(latitude, longitude);
     }
 
-    List<ZoneId> query(double latitude, double longitude) {
-        ArrayList<ZoneId> result = new ArrayList<>(2);
+    List<ZoneId> queryPolygons(double latitude, double longitude) {
+        int[] matches = new int[2];
+        int size = 0;
         Point point = new Point(longitude, latitude);
+        Point2D vertex = new Point2D();
         OperatorIntersects operator = OperatorIntersects.local();
-        QuadTree.QuadTreeIterator iterator = quadTree.getIterator(point, 0);
-        for (int i = iterator.next(); i >= 0; i = iterator.next()) {
-            int element = quadTree.getElement(i);
-            Entry entry = zoneIds.get(element);
-            if(operator.execute(entry.geometry, point, spatialReference, null)) {
-                result.add(entry.zoneId);
+        PackedRTree.Cursor cursor = tree.cursor();
+        cursor.reset(longitude, latitude, longitude, latitude);
+        for (int element = cursor.next(); element >= 0; element = cursor.next()) {
+            if (contains(zoneIds.get(element), point, vertex, operator)) {
+                if (size == matches.length) {
+                    matches = Arrays.copyOf(matches, size * 2);
+                }
+                matches[size++] = element;
             }
         }
+        // the tree yields the entries in arbitrary order, the result is in the source order
+        Arrays.sort(matches, 0, size);
+        ArrayList<ZoneId> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(zoneIds.get(matches[i]).zoneId);
+        }
         return result;
     }
 
-    List<SameZoneSpan> queryPolyline(double[] line) {
+    @Override
+    public double distanceToBoundary(double latitude, double longitude) {
+        return EdgeIndex.distanceToBoundary(tree, latitude, longitude, element -> edgeIndex(zoneIds.get(element)));
+    }
 
-        Polyline polyline = new Polyline();
-        ArrayList<Point> points = new ArrayList<>(line.length / 2);
-        for (int i = 0; i < line.length - 1; i += 2) {
-            Point p = new Point(line[i + 1], line[i]);
-            points.add(p);
+    private EdgeIndex edgeIndex(Entry entry) {
+        EdgeIndex edgeIndex = entry.edgeIndex;
+        if (edgeIndex == null) {
+            // concurrent queries may build the same index twice, but any of them will do
+            edgeIndex = packedGeometry
+                    ? EdgeIndex.build(slabPolygon(entry).edges())
+                    : EdgeIndex.build((MultiPath) geometry(entry));
+            entry.edgeIndex = edgeIndex;
         }
-        polyline.startPath(points.get(0));
-        for (int i = 1; i < points.size(); i += 1) {
-            polyline.lineTo(points.get(i));
+        return edgeIndex;
+    }
+
+    @Override
+    public boolean hasBoundaryWithin(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        PackedRTree.Cursor cursor = tree.cursor();
+        cursor.reset(minLongitude, minLatitude, maxLongitude, maxLatitude);
+        for (int element = cursor.next(); element >= 0; element = cursor.next()) {
+            Entry entry = zoneIds.get(element);
+            // only the slabs, or the nodes of the edge index, overlapping the box are looked at
+            boolean found = packedGeometry
+                    ? slabPolygon(entry).hasEdgeWithin(minLongitude, minLatitude, maxLongitude, maxLatitude)
+                    : edgeIndex(entry).hasEdgeWithin(minLongitude, minLatitude, maxLongitude, maxLatitude);
+            if (found) {
+                return true;
+            }
         }
-        QuadTree.QuadTreeIterator iterator = quadTree.getIterator(polyline, 0);
+        return false;
+    }
 
-        ArrayList<Entry> potentiallyMatchingEntries = new ArrayList<>();
+    @Override
+    public ZoneIndex.Cursor cursor() {
+        return new Cursor();
+    }
 
-        for (int i = iterator.next(); i >= 0; i = iterator.next()) {
-            int element = quadTree.getElement(i);
-            Entry entry = zoneIds.get(element);
-            potentiallyMatchingEntries.add(entry);
+    /**
+     * Even-odd point in polygon test over all paths of the polygon, the fill rule Esri geometry API uses by default.
+     * Unlike {@link OperatorIntersects}, it doesn't allocate, but it doesn't benefit from geometry acceleration either.
+     * {@link OperatorIntersects} also counts the points within the tolerance of the spatial reference from an edge
+     * as inside, so the points closer than {@link #EDGE_MARGIN_DEGREES} to an edge are left to it.
+     *
+     * @return 1 if the polygon contains the point, 0 if it doesn't, -1 if the point is too close to an edge to tell
+     */
+    private static int classify(MultiPath polygon, Point2D vertex, double x, double y) {
+        boolean inside = false;
+        for (int path = 0; path < polygon.getPathCount(); path++) {
+            int start = polygon.getPathStart(path);
+            int end = polygon.getPathEnd(path);
+            polygon.getXY(end - 1, vertex);
+            double previousX = vertex.x;
+            double previousY = vertex.y;
+            for (int i = start; i < end; i++) {
+                polygon.getXY(i, vertex);
+                if (Math.min(vertex.y, previousY) - EDGE_MARGIN_DEGREES <= y && y <= Math.max(vertex.y, previousY) + EDGE_MARGIN_DEGREES
+                        && Math.min(vertex.x, previousX) - EDGE_MARGIN_DEGREES <= x && x <= Math.max(vertex.x, previousX) + EDGE_MARGIN_DEGREES
+                        && Segments.squaredDistance(x, y, previousX, previousY, vertex.x, vertex.y) <= EDGE_MARGIN_DEGREES * EDGE_MARGIN_DEGREES) {
+                    return -1;
+                }
+                if ((vertex.y > y) != (previousY > y)
+                        && x < (previousX - vertex.x) * (y - vertex.y) / (previousY - vertex.y) + vertex.x) {
+                    inside = !inside;
+                }
+                previousX = vertex.x;
+                previousY = vertex.y;
+            }
         }
+        return inside ? 1 : 0;
+    }
 
-        ArrayList<SameZoneSpan> sameZoneSegments = new ArrayList<>();
-        List<Entry> currentEntry = null;
-        // 1. find next matching geometry or geometries
-        // 2. for every match, increase the index
-        // 3. when it doesn't match anymore, save currentSegment to sameZoneSegments and start new one
-        // 4. goto 1.
-        int index = 0;
-        boolean lastWasEmpty = false;
-        OperatorIntersects operator = OperatorIntersects.local();
-        while (index < points.size()) {
-            Point p = points.get(index);
-            if (currentEntry == null) {
-                currentEntry = potentiallyMatchingEntries
-                        .stream()
-                        .filter(e -> operator.execute(e.geometry, p, spatialReference, null))
-                        .collect(Collectors.toList());
+    private static void findCrossings(MultiPath polygon, Point2D vertex, double ax, double ay, double bx, double by,
+                                      DoubleConsumer consumer) {
+        for (int path = 0; path < polygon.getPathCount(); path++) {
+            int start = polygon.getPathStart(path);
+            int end = polygon.getPathEnd(path);
+            polygon.getXY(end - 1, vertex);
+            double previousX = vertex.x;
+            double previousY = vertex.y;
+            for (int i = start; i < end; i++) {
+                polygon.getXY(i, vertex);
+                double t = Segments.crossing(ax, ay, bx, by, previousX, previousY, vertex.x, vertex.y);
+                if (t >= 0) {
+                    consumer.accept(t);
+                }
+                previousX = vertex.x;
+                previousY = vertex.y;
             }
-            if (currentEntry.isEmpty()) {
-                currentEntry = null;
-                lastWasEmpty = true;
-                index++;
+        }
+    }
+
+    /**
+     * The same point and tree cursor are reused for all the queries.
+     * Accelerated polygons are tested with {@link OperatorIntersects} to make use of their bitmap index,
+     * the rest with the allocation free {@link #classify(MultiPath, Point2D, double, double)}, and with
+     * {@link OperatorIntersects} only near the edges.
+     */
+    private final class Cursor implements ZoneIndex.Cursor {
+        private final Point point = new Point();
+        private final Point2D vertex = new Point2D();
+        private final OperatorIntersects operator = OperatorIntersects.local();
+        private final PackedRTree.Cursor treeCursor = tree.cursor();
+        private final PackedRTree.ItemTest test = (element, x, y) -> contains(element, y, x);
+        private final int[] hints = new int[1];
+        // entry found by the last query with affinity
+        private int lastEntry = -1;
+
+        @Override
+        public int queryOrdinal(double latitude, double longitude) {
+            if (grid != null) {
+                int zoneSet = grid.lookupZoneSet(latitude, longitude);
+                if (zoneSet >= 0) {
+                    return gridOrdinals[zoneSet];
+                }
+            }
+            int first = firstGeometry(latitude, longitude, -1);
+            return first < 0 ? -1 : entryOrdinals[first];
+        }
+
+        @Override
+        public int queryOrdinalWithAffinity(double latitude, double longitude) {
+            if (grid != null) {
+                int zoneSet = grid.lookupZoneSet(latitude, longitude);
+                if (zoneSet >= 0) {
+                    return gridOrdinals[zoneSet];
+                }
+            }
+            int first = firstGeometry(latitude, longitude, lastEntry);
+            if (first < 0) {
+                return -1;
+            }
+            lastEntry = first;
+            return entryOrdinals[first];
+        }
+
+        @Override
+        public int firstGeometry(double latitude, double longitude, int hint) {
+            int first = Integer.MAX_VALUE;
+            if (hint >= 0 && contains(hint, latitude, longitude)) {
+                hints[0] = hint;
+                if (tree.noOtherContains(hints, 1, longitude, latitude, hint, test)) {
+                    return hint;
+                }
+                first = hint;
+            }
+            treeCursor.reset(longitude, latitude, longitude, latitude);
+            for (int element = treeCursor.next(); element >= 0; element = treeCursor.next()) {
+                if (element < first && element != hint && contains(element, latitude, longitude)) {
+                    first = element;
+                }
+            }
+            return first == Integer.MAX_VALUE ? -1 : first;
+        }
+
+        @Override
+        public int ordinalOf(int geometry) {
+            return entryOrdinals[geometry];
+        }
+
+        @Override
+        public boolean noOtherContains(int[] geometries, int count, double latitude, double longitude) {
+            return tree.noOtherContains(geometries, count, longitude, latitude, Integer.MAX_VALUE, test);
+        }
+
+        @Override
+        public void findGeometries(double latitude, double longitude, IntConsumer consumer) {
+            treeCursor.reset(longitude, latitude, longitude, latitude);
+            for (int element = treeCursor.next(); element >= 0; element = treeCursor.next()) {
+                if (contains(element, latitude, longitude)) {
+                    consumer.accept(element);
+                }
+            }
+        }
+
+        @Override
+        public void findCandidates(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+                                   IntConsumer consumer) {
+            treeCursor.reset(minLongitude, minLatitude, maxLongitude, maxLatitude);
+            for (int element = treeCursor.next(); element >= 0; element = treeCursor.next()) {
+                consumer.accept(element);
+            }
+        }
+
+        @Override
+        public void findCrossings(int geometry, double latitude1, double longitude1, double latitude2, double longitude2,
+                                  DoubleConsumer consumer) {
+            Entry entry = zoneIds.get(geometry);
+            if (packedGeometry) {
+                slabPolygon(entry).findCrossings(longitude1, latitude1, longitude2, latitude2, consumer);
             } else {
-                if (lastWasEmpty) {
-                    lastWasEmpty = false;
-                    sameZoneSegments.add(SameZoneSpan.fromIndexEntries(Collections.emptyList(), (index - 1) * 2 + 1));
-                    continue;
-                }
-                if (currentEntry.stream().allMatch(e -> operator.execute(e.geometry, p, spatialReference, null))) {
-                    if (index == points.size() - 1) {
-                        sameZoneSegments.add(SameZoneSpan.fromIndexEntries(currentEntry, index * 2 + 1));
-                    }
-                    index++;
-                } else {
-                    sameZoneSegments.add(SameZoneSpan.fromIndexEntries(currentEntry, (index - 1) * 2 + 1));
-                    currentEntry = null;
+                Index.findCrossings((MultiPath) geometry(entry), vertex, longitude1, latitude1, longitude2, latitude2, consumer);
+            }
+        }
+
+        @Override
+        public boolean contains(int geometry, double latitude, double longitude) {
+            Entry entry = zoneIds.get(geometry);
+            if (entry.raster != null) {
+                int side = entry.raster.classify(longitude, latitude);
+                if (side >= 0) {
+                    return side == 1;
                 }
             }
+            if (entry.simplified != null) {
+                int side = entry.simplified.classify(longitude, latitude);
+                if (side >= 0) {
+                    return side == 1;
+                }
+            }
+            if (packedGeometry) {
+                return slabPolygon(entry).contains(longitude, latitude);
+            }
+            Geometry polygon = geometry(entry);
+            if (!isAccelerated(entry)) {
+                int side = classify((MultiPath) polygon, vertex, longitude, latitude);
+                if (side >= 0) {
+                    return side == 1;
+                }
+            }
+            point.setXY(longitude, latitude);
+            return operator.execute(polygon, point, spatialReference, null);
+        }
+
+        @Override
+        public ZoneId zoneOf(int geometry) {
+            return zoneIds.get(geometry).zoneId;
+        }
+    }
+
+    @Override
+    public List<SameZoneSpan> queryPolyline(double[] line) {
+        ArrayList<Point> points = new ArrayList<>(line.length / 2);
+        for (int i = 0; i < line.length - 1; i += 2) {
+            Point p = new Point(line[i + 1], line[i]);
+            points.add(p);
+        }
+        BitSet candidates = new BitSet(zoneIds.size());
+        PackedRTree.Cursor cursor = tree.cursor();
+        for (int i = 0; i < points.size(); i++) {
+            Point from = points.get(i);
+            Point to = points.get(Math.min(i + 1, points.size() - 1));
+            cursor.reset(Math.min(from.getX(), to.getX()), Math.min(from.getY(), to.getY()),
+                    Math.max(from.getX(), to.getX()), Math.max(from.getY(), to.getY()));
+            for (int element = cursor.next(); element >= 0; element = cursor.next()) {
+                candidates.set(element);
+            }
         }
 
-        if (lastWasEmpty) {
-            sameZoneSegments.add(SameZoneSpan.fromIndexEntries(Collections.emptyList(), index * 2 - 1));
+        ArrayList<Entry> potentiallyMatchingEntries = new ArrayList<>(candidates.cardinality());
+        for (int element = candidates.nextSetBit(0); element >= 0; element = candidates.nextSetBit(element + 1)) {
+            potentiallyMatchingEntries.add(zoneIds.get(element));
         }
 
-        return sameZoneSegments;
+        Point2D vertex = new Point2D();
+        OperatorIntersects operator = OperatorIntersects.local();
+        return PolylineSpans.build(points.size(), potentiallyMatchingEntries,
+                (e, p) -> contains(e, points.get(p), vertex, operator),
+                e -> e.zoneId);
     }
 
     private static Polygon buildPoly(Geojson.Polygon from) {
+        int[] ringStarts = ringStarts(from);
+        float[] coordinates = new float[ringStarts[ringStarts.length - 1]];
+        for (int ring = 0; ring < from.getCoordinatesCount(); ring++) {
+            PackedCoordinates.decode(from.getCoordinates(ring), coordinates, ringStarts[ring]);
+        }
+        return buildPoly(ringStarts, coordinates);
+    }
+
+    private static Polygon buildPoly(int[] ringStarts, float[] coordinates) {
         Polygon poly = new Polygon();
-        from.getCoordinatesList().stream()
-                .map(Geojson.LineString::getCoordinatesList)
-                .forEachOrdered(lp -> {
-                    poly.startPath(lp.get(0).getLon(), lp.get(0).getLat());
-                    lp.subList(1, lp.size()).forEach(p -> poly.lineTo(p.getLon(), p.getLat()));
-                });
+        for (int ring = 0; ring < ringStarts.length - 1; ring++) {
+            int start = ringStarts[ring];
+            poly.startPath(coordinates[start], coordinates[start + 1]);
+            for (int i = start + 2; i < ringStarts[ring + 1]; i += 2) {
+                poly.lineTo(coordinates[i], coordinates[i + 1]);
+            }
+        }
         return poly;
     }
 
-    static Index build(Stream<Geojson.Feature> features, int size, Envelope boundaries) {
-        return build(features, size, boundaries, false);
+    /**
+     * Copies the polygon into a lazy entry, and stores its bounding box into {@code envelope}.
+     */
+    private static Entry lazyEntry(ZoneId zoneId, Geojson.Polygon from, Envelope2D envelope) {
+        int[] ringStarts = ringStarts(from);
+        float[] coordinates = new float[ringStarts[ringStarts.length - 1]];
+        for (int ring = 0; ring < from.getCoordinatesCount(); ring++) {
+            PackedCoordinates.decode(from.getCoordinates(ring), coordinates, ringStarts[ring]);
+        }
+        return lazyEntry(zoneId, ringStarts, coordinates, envelope);
+    }
+
+    /**
+     * Same as {@link #lazyEntry(ZoneId, Geojson.Polygon, Envelope2D)} for an Esri polygon, such as a clipped one.
+     * Its rings are closed by repeating the first vertex, the way they are in the data file.
+     */
+    private static Entry lazyEntry(ZoneId zoneId, Polygon from, Envelope2D envelope) {
+        int[] ringStarts = new int[from.getPathCount() + 1];
+        for (int ring = 0; ring < from.getPathCount(); ring++) {
+            ringStarts[ring + 1] = ringStarts[ring] + (from.getPathSize(ring) + 1) * 2;
+        }
+        float[] coordinates = new float[ringStarts[ringStarts.length - 1]];
+        Point2D vertex = new Point2D();
+        for (int ring = 0; ring < from.getPathCount(); ring++) {
+            int start = from.getPathStart(ring);
+            int end = from.getPathEnd(ring);
+            int position = ringStarts[ring];
+            for (int i = start; i <= end; i++) {
+                from.getXY(i == end ? start : i, vertex);
+                coordinates[position++] = (float) vertex.x;
+                coordinates[position++] = (float) vertex.y;
+            }
+        }
+        return lazyEntry(zoneId, ringStarts, coordinates, envelope);
     }
 
-    private static Stream<Polygon> getPolygons(Geojson.Feature f) {
+    private static Entry lazyEntry(ZoneId zoneId, int[] ringStarts, float[] coordinates, Envelope2D envelope) {
+        envelope.setEmpty();
+        for (int i = 0; i < coordinates.length; i += 2) {
+            envelope.merge(coordinates[i], coordinates[i + 1]);
+        }
+        return new Entry(zoneId, ringStarts, coordinates);
+    }
+
+    private static int[] ringStarts(Geojson.Polygon from) {
+        int ringCount = from.getCoordinatesCount();
+        int[] ringStarts = new int[ringCount + 1];
+        for (int ring = 0; ring < ringCount; ring++) {
+            ringStarts[ring + 1] = ringStarts[ring] + PackedCoordinates.vertexCount(from.getCoordinates(ring)) * 2;
+        }
+        return ringStarts;
+    }
+
+    private static float roundDown(double value) {
+        float rounded = (float) value;
+        return rounded > value ? Math.nextDown(rounded) : rounded;
+    }
+
+    private static float roundUp(double value) {
+        float rounded = (float) value;
+        return rounded < value ? Math.nextUp(rounded) : rounded;
+    }
+
+    private static List<Geojson.Polygon> getPolygonSources(Geojson.Feature f) {
         if (f.getGeometry().hasPolygon()) {
-            return Stream.of(buildPoly(f.getGeometry().getPolygon()));
+            return Collections.singletonList(f.getGeometry().getPolygon());
         } else if (f.getGeometry().hasMultiPolygon()) {
-            Geojson.MultiPolygon multiPolygonProto = f.getGeometry().getMultiPolygon();
-            return multiPolygonProto.getCoordinatesList().stream().map(Index::buildPoly);
+            return f.getGeometry().getMultiPolygon().getCoordinatesList();
         } else {
             throw new RuntimeException("Unknown geometry type");
         }
     }
 
+    static Index build(Stream<Geojson.Feature> features, int size, Envelope boundaries) {
+        return build(features, size, boundaries, false);
+    }
+
     static Index build(Stream<Geojson.Feature> features, int size, Envelope boundaries, boolean accelerateGeometry) {
+        return build(features, size, boundaries, TimeZoneEngineOptions.defaults().withAcceleratedGeometry(accelerateGeometry));
+    }
+
+    static Index build(Stream<Geojson.Feature> features, int size, Envelope boundaries, TimeZoneEngineOptions options) {
+        return buildFrom(features.map(f -> () -> new SourceFeature(f, null)), size, boundaries, options);
+    }
+
+    /**
+     * Feature as stored in the data file, still encoded, together with the rasters of its polygons,
+     * see {@link PolygonRaster}.
+     */
+    static final class EncodedFeature {
+        final byte[] feature;
+        // null if the data file doesn't have them
+        final byte[] rasters;
+
+        EncodedFeature(byte[] feature, byte[] rasters) {
+            this.feature = feature;
+            this.rasters = rasters;
+        }
+    }
+
+    /**
+     * Decoded feature, with the rasters of its polygons if they are used for accelerated geometry.
+     */
+    private static final class SourceFeature {
+        final Geojson.Feature feature;
+        final List<PolygonRaster> rasters;
+
+        SourceFeature(Geojson.Feature feature, List<PolygonRaster> rasters) {
+            this.feature = feature;
+            this.rasters = rasters;
+        }
+    }
+
+    /**
+     * Same as {@link #build(Stream, int, Envelope, TimeZoneEngineOptions)} for features which are still
+     * encoded, so that with parallel initialization they are decoded on the worker threads too.
+     * The precomputed rasters of the polygons, if there are any, replace the acceleration of Esri geometries.
+     */
+    static Index buildEncoded(Stream<Supplier<EncodedFeature>> features, int size, Envelope boundaries, TimeZoneEngineOptions options) {
+        boolean useRasters = options.isAccelerateGeometry() && !options.isPackedGeometry();
+        return buildFrom(features.map(supplier -> () -> {
+            EncodedFeature encoded = supplier.get();
+            try {
+                return new SourceFeature(Geojson.Feature.parseFrom(encoded.feature),
+                        useRasters && encoded.rasters != null ? PolygonRaster.readAll(encoded.rasters) : null);
+            } catch (InvalidProtocolBufferException ex) {
+                throw new RuntimeException(ex);
+            }
+        }), size, boundaries, options);
+    }
+
+    /**
+     * Polygons of a single feature, which are within the boundaries, ready to be inserted into the index.
+     */
+    private static final class PreparedFeature {
+        final String zoneIdName;
+        final boolean known;
+        final List<Entry> entries = new ArrayList<>(1);
+        final List<Envelope2D> envelopes = new ArrayList<>(1);
+
+        PreparedFeature(String zoneIdName, boolean known) {
+            this.zoneIdName = zoneIdName;
+            this.known = known;
+        }
+    }
+
+    /**
+     * Only a zone id the Java runtime doesn't recognize makes the feature unknown. Failures to build the geometry
+     * of a known zone are bugs, and propagate instead of leaving the zone out of the index.
+     *
+     * @param clipBox boundaries with a margin to clip the polygons crossing the boundaries to, see {@link BoxClipper},
+     *                or null to leave them out
+     * @param arena   arena to build the off-heap polygons in, null if the geometry is on the heap
+     */
+    private static PreparedFeature prepare(SourceFeature source, Envelope boundaries, Envelope2D boundariesEnvelope,
+                                           Envelope2D clipBox, TimeZoneEngineOptions options, DirectArena arena) {
+        Geojson.Feature f = source.feature;
+        String zoneIdName = f.getProperties(0).getValueString();
+        ZoneId zoneId;
+        try {
+            zoneId = ZoneId.of(zoneIdName);
+        } catch (DateTimeException ex) {
+            return new PreparedFeature(zoneIdName, false);
+        }
+        PreparedFeature prepared = new PreparedFeature(zoneIdName, true);
+        List<Geojson.Polygon> polygons = getPolygonSources(f);
+        List<PolygonRaster> rasters = source.rasters != null && source.rasters.size() == polygons.size()
+                ? source.rasters : null;
+        if (options.isLazyGeometry() || options.isPackedGeometry() || options.isLevelOfDetailEnabled()) {
+            // the boundaries are a box, so a polygon is within them exactly when its bounding box is
+            for (int i = 0; i < polygons.size(); i++) {
+                Envelope2D env = new Envelope2D();
+                Entry entry = lazyEntry(zoneId, polygons.get(i), env);
+                PolygonRaster raster = rasters != null ? rasters.get(i) : null;
+                boolean within = boundariesEnvelope.contains(env);
+                if (!within && clipBox != null && clipBox.isIntersecting(env)) {
+                    Polygon clipped = new BoxClipper().clip(entry.ringStarts, entry.coordinates, clipBox);
+                    if (clipped != null) {
+                        entry = lazyEntry(zoneId, clipped, env);
+                        // the raster is of the whole polygon, and would be wrong for points outside of the box
+                        raster = null;
+                        within = true;
+                    }
+                }
+                if (within) {
+                    if (options.isLevelOfDetailEnabled()) {
+                        // the geometry is only materialized once a query gets too close to the boundary
+                        entry = new Entry(zoneId, entry.ringStarts, entry.coordinates, SimplifiedPolygon.build(entry.ringStarts,
+                                entry.coordinates, options.getLevelOfDetailTolerance(), arena), raster);
+                    } else if (options.isLazyGeometry() && raster != null) {
+                        entry = new Entry(zoneId, entry.ringStarts, entry.coordinates, null, raster);
+                    } else if (!options.isLazyGeometry()) {
+                        entry = new Entry(zoneId, SlabPolygon.build(entry.ringStarts, entry.coordinates, arena));
+                    }
+                    prepared.entries.add(entry);
+                    prepared.envelopes.add(env);
+                } else {
+                    log.debug("Not adding zone {} to index because it's out of provided boundaries", zoneIdName);
+                }
+            }
+            return prepared;
+        }
+        for (int i = 0; i < polygons.size(); i++) {
+            PolygonRaster raster = rasters != null ? rasters.get(i) : null;
+            Envelope2D env = new Envelope2D();
+            Polygon polygon;
+            boolean within;
+            if (clipBox == null) {
+                polygon = buildPoly(polygons.get(i));
+                polygon.queryEnvelope2D(env);
+                within = GeometryEngine.contains(boundaries, polygon, spatialReference);
+            } else {
+                // the same test as for lazy geometry, which doesn't build the polygons, which are clipped anyway
+                Entry decoded = lazyEntry(zoneId, polygons.get(i), env);
+                within = boundariesEnvelope.contains(env);
+                if (within) {
+                    polygon = buildPoly(decoded.ringStarts, decoded.coordinates);
+                } else {
+                    polygon = clipBox.isIntersecting(env)
+                            ? new BoxClipper().clip(decoded.ringStarts, decoded.coordinates, clipBox) : null;
+                    raster = null;
+                    within = polygon != null;
+                    if (within) {
+                        polygon.queryEnvelope2D(env);
+                    }
+                }
+            }
+            if (within) {
+                if (options.isAccelerateGeometry() && raster == null) {
+                    OperatorIntersects.local().accelerateGeometry(polygon, spatialReference, Geometry.GeometryAccelerationDegree.enumMild);
+                }
+                prepared.entries.add(new Entry(zoneId, polygon, raster));
+                prepared.envelopes.add(env);
+            } else {
+                log.debug("Not adding zone {} to index because it's out of provided boundaries", zoneIdName);
+            }
+        }
+        return prepared;
+    }
+
+    /**
+     * Features are pulled from the stream on the calling thread. With a parallelism or an executor configured,
+     * they are decoded and their polygons are built on the pool, but still inserted in the order of the stream,
+     * so the resulting index is the same as the sequentially built one.
+     */
+    private static Index buildFrom(Stream<Supplier<SourceFeature>> features, int size, Envelope boundaries, TimeZoneEngineOptions options) {
         Envelope2D boundariesEnvelope = new Envelope2D();
         boundaries.queryEnvelope2D(boundariesEnvelope);
-        QuadTree quadTree = new QuadTree(boundariesEnvelope, 8);
-        Envelope2D env = new Envelope2D();
+        Envelope2D clipBox = options.isClipToBoundaries() ? BoxClipper.withMargin(boundariesEnvelope) : null;
+        List<Envelope2D> envelopes = new ArrayList<>(size);
         ArrayList<Entry> zoneIds = new ArrayList<>(size);
-        PrimitiveIterator.OfInt indices = IntStream.iterate(0, i -> i + 1).iterator();
         List<String> unknownZones = new ArrayList<>();
-        OperatorIntersects operatorIntersects = OperatorIntersects.local();
-        features.forEach(f -> {
-            String zoneIdName = f.getProperties(0).getValueString();
+        Consumer<PreparedFeature> insert = prepared -> {
+            if (!prepared.known) {
+                unknownZones.add(prepared.zoneIdName);
+                return;
+            }
+            for (int i = 0; i < prepared.entries.size(); i++) {
+                log.debug("Adding zone {} to index", prepared.zoneIdName);
+                envelopes.add(prepared.envelopes.get(i));
+                zoneIds.add(prepared.entries.get(i));
+            }
+        };
+        Executor executor = options.getExecutor();
+        ExecutorService ownExecutor = null;
+        if (executor == null && options.getParallelism() > 1) {
+            ownExecutor = Executors.newFixedThreadPool(options.getParallelism(), runnable -> {
+                Thread thread = new Thread(runnable, "timeshape-index-builder");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor = ownExecutor;
+        }
+        // every build thread takes an arena of its own for the off-heap polygons, so that they don't contend for it
+        Queue<DirectArena> arenas = new ConcurrentLinkedQueue<>();
+        Function<SourceFeature, PreparedFeature> prepare = source -> {
+            DirectArena arena = null;
+            if (options.isOffHeapGeometry()) {
+                arena = arenas.poll();
+                if (arena == null) {
+                    arena = new DirectArena();
+                }
+            }
             try {
-                ZoneId zoneId = ZoneId.of(zoneIdName);
-                getPolygons(f).forEach(polygon -> {
-                    if (GeometryEngine.contains(boundaries, polygon, spatialReference)) {
-                        log.debug("Adding zone {} to index", zoneIdName);
-                        if (accelerateGeometry) {
-                            operatorIntersects.accelerateGeometry(polygon, spatialReference, Geometry.GeometryAccelerationDegree.enumMild);
-                        }
-                        polygon.queryEnvelope2D(env);
-                        int index = indices.next();
-                        quadTree.insert(index, env);
-                        zoneIds.add(index, new Entry(zoneId, polygon));
-                    } else {
-                        log.debug("Not adding zone {} to index because it's out of provided boundaries", zoneIdName);
-                    }
-                });
-            } catch (Exception ex) {
-                unknownZones.add(zoneIdName);
+                return prepare(source, boundaries, boundariesEnvelope, clipBox, options, arena);
+            } finally {
+                if (arena != null) {
+                    arenas.add(arena);
+                }
+            }
+        };
+        try {
+            if (executor == null) {
+                features.forEach(f -> insert.accept(prepare.apply(f.get())));
+            } else {
+                Executor pool = executor;
+                List<CompletableFuture<PreparedFeature>> prepared = features
+                        .map(f -> CompletableFuture.supplyAsync(() -> prepare.apply(f.get()), pool))
+                        .collect(Collectors.toList());
+                for (CompletableFuture<PreparedFeature> future : prepared) {
+                    insert.accept(future.join());
+                }
             }
-        });
+        } catch (CompletionException ex) {
+            throw ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : new RuntimeException(ex.getCause());
+        } finally {
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+            }
+        }
         if (unknownZones.size() != 0) {
             String allUnknownZones = String.join(", ", unknownZones);
             log.error(
@@ -189,7 +965,153 @@ final class Index implements Serializable {
                             "The most probable reason for this is outdated Java runtime version. " +
                             "The following zones were not recognized: " + allUnknownZones);
         }
-        return new Index(quadTree, zoneIds);
+        float[] boxes = new float[envelopes.size() * 4];
+        for (int i = 0; i < envelopes.size(); i++) {
+            Envelope2D env = envelopes.get(i);
+            // rounded outwards, so that the boxes in the tree still contain the polygons
+            boxes[i * 4] = roundDown(env.xmin);
+            boxes[i * 4 + 1] = roundDown(env.ymin);
+            boxes[i * 4 + 2] = roundUp(env.xmax);
+            boxes[i * 4 + 3] = roundUp(env.ymax);
+        }
+        DirectArena arena = null;
+        if (options.isOffHeapGeometry()) {
+            arena = arenas.isEmpty() ? new DirectArena() : arenas.peek();
+        }
+        return new Index(PackedRTree.pack(boxes, TREE_NODE_SIZE), zoneIds, boundariesEnvelope, options, null, arena);
+    }
+
+    private static final int ESRI_ENTRY = 0;
+    private static final int PACKED_ENTRY = 1;
+    private static final int LAZY_ENTRY = 2;
+
+    /**
+     * Writes the settings of the index, the zone table, the entries, the tree and the lookup grid.
+     * Esri geometries are written as Esri shapes, and their acceleration, if enabled and not replaced by
+     * a precomputed raster, is built again when the snapshot is read. The packed and the simplified polygons
+     * are written as their edges.
+     */
+    @Override
+    public void writeSnapshot(Snapshot.Output out) throws IOException {
+        out.putInt(Snapshot.INDEX);
+        out.putInt(accelerateGeometry ? 1 : 0);
+        out.putInt(packedGeometry ? 1 : 0);
+        out.putInt(offHeapGeometry ? 1 : 0);
+        out.putInt(maxMaterialized);
+        out.putInt(zoneTable.size());
+        for (ZoneId zoneId : zoneTable) {
+            out.putString(zoneId.getId());
+        }
+        out.putInt(zoneIds.size());
+        for (int i = 0; i < zoneIds.size(); i++) {
+            Entry entry = zoneIds.get(i);
+            out.putInt(entryOrdinals[i]);
+            if (entry.isLazy()) {
+                out.putInt(LAZY_ENTRY);
+                out.putInts(entry.ringStarts);
+                out.putFloats(entry.coordinates);
+                out.putInt(entry.simplified != null ? 1 : 0);
+                if (entry.simplified != null) {
+                    entry.simplified.writeSnapshot(out);
+                }
+                writeRaster(entry, out);
+            } else if (packedGeometry) {
+                out.putInt(PACKED_ENTRY);
+                entry.slabPolygon.writeSnapshot(out);
+            } else {
+                out.putInt(ESRI_ENTRY);
+                // Esri shape is the native binary format of the geometry, which it imports with bulk copies
+                out.putBuffer(ByteBuffer.wrap(GeometryEngine.geometryToEsriShape(entry.geometry)));
+                writeRaster(entry, out);
+            }
+        }
+        tree.writeSnapshot(out);
+        out.putInt(grid != null ? 1 : 0);
+        if (grid != null) {
+            grid.writeSnapshot(out, zoneTable);
+        }
+    }
+
+    private static void writeRaster(Entry entry, Snapshot.Output out) throws IOException {
+        out.putInt(entry.raster != null ? 1 : 0);
+        if (entry.raster != null) {
+            entry.raster.writeSnapshot(out);
+        }
+    }
+
+    /**
+     * Reads the index written by {@link #writeSnapshot(Snapshot.Output)}. The lazy entries are read
+     * not materialized.
+     */
+    static Index readSnapshot(ByteBuffer in) {
+        boolean accelerateGeometry = in.getInt() != 0;
+        boolean packedGeometry = in.getInt() != 0;
+        boolean offHeapGeometry = in.getInt() != 0;
+        int maxMaterialized = in.getInt();
+        TimeZoneEngineOptions options = TimeZoneEngineOptions.defaults()
+                .withAcceleratedGeometry(accelerateGeometry)
+                .withPackedGeometry(packedGeometry)
+                .withOffHeapGeometry(offHeapGeometry)
+                .withLazyGeometry(maxMaterialized > 0, maxMaterialized);
+        DirectArena arena = offHeapGeometry ? new DirectArena() : null;
+        List<ZoneId> zoneTable = new ArrayList<>();
+        int zoneCount = in.getInt();
+        for (int i = 0; i < zoneCount; i++) {
+            zoneTable.add(ZoneId.of(Snapshot.getString(in)));
+        }
+        int entryCount = in.getInt();
+        ArrayList<Entry> zoneIds = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            ZoneId zoneId = zoneTable.get(in.getInt());
+            int kind = in.getInt();
+            if (kind == LAZY_ENTRY) {
+                int[] ringStarts = Snapshot.getInts(in);
+                float[] coordinates = Snapshot.getFloats(in);
+                SimplifiedPolygon simplified = in.getInt() != 0 ? SimplifiedPolygon.readSnapshot(in, arena) : null;
+                PolygonRaster raster = in.getInt() != 0 ? PolygonRaster.readSnapshot(in) : null;
+                zoneIds.add(new Entry(zoneId, ringStarts, coordinates, simplified, raster));
+            } else if (kind == PACKED_ENTRY) {
+                zoneIds.add(new Entry(zoneId, SlabPolygon.readSnapshot(in, arena)));
+            } else if (kind == ESRI_ENTRY) {
+                Geometry polygon = OperatorImportFromESRIShape.local().execute(
+                        ShapeImportFlags.ShapeImportDefaults, Geometry.Type.Polygon, Snapshot.getBuffer(in));
+                PolygonRaster raster = in.getInt() != 0 ? PolygonRaster.readSnapshot(in) : null;
+                if (accelerateGeometry && raster == null) {
+                    OperatorIntersects.local().accelerateGeometry(polygon, spatialReference, Geometry.GeometryAccelerationDegree.enumMild);
+                }
+                zoneIds.add(new Entry(zoneId, polygon, raster));
+            } else {
+                throw new IllegalArgumentException("Unknown kind of entry " + kind + " in snapshot");
+            }
+        }
+        PackedRTree tree = PackedRTree.readSnapshot(in);
+        ZoneGrid grid = in.getInt() != 0 ? ZoneGrid.readSnapshot(in, zoneTable) : null;
+        return new Index(tree, zoneIds, null, options, grid, arena);
+    }
+
+    /**
+     * The off-heap polygons of the index are deserialized into an arena of its own, as they are built.
+     * With a cap on the materialized lazy entries, their geometries are dropped, so that the clock tracks all of them.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        DirectArena arena = new DirectArena();
+        DirectArena.beginDeserializing(arena);
+        try {
+            in.defaultReadObject();
+        } finally {
+            DirectArena.endDeserializing();
+        }
+        this.arena = offHeapGeometry ? arena : null;
+        if (maxMaterialized > 0) {
+            // the lazy entries start over not materialized, the same way as when they are read from a snapshot
+            this.clock = new Entry[maxMaterialized];
+            for (Entry entry : zoneIds) {
+                if (entry.isLazy()) {
+                    entry.geometry = null;
+                    entry.slabPolygon = null;
+                }
+            }
+        }
     }
 
 }
@@ -0,0 +1,42 @@
+package net.iakovlev.timeshape;
+
+import net.iakovlev.timeshape.proto.Geojson;
+
+/**
+ * Reads the coordinates of a ring straight into a float array. The builder writes them as {@code packedCoordinates}:
+ * the differences of the bits of the floats from the previous position, which protobuf decodes into an array
+ * of ints, so no object per position is created. Rings written by older builders have {@code Position} messages.
+ */
+final class PackedCoordinates {
+    private PackedCoordinates() {
+    }
+
+    static int vertexCount(Geojson.LineString ring) {
+        return ring.getPackedCoordinatesCount() > 0 ? ring.getPackedCoordinatesCount() / 2 : ring.getCoordinatesCount();
+    }
+
+    /**
+     * Copies the interleaved longitudes and latitudes of the ring into the array.
+     *
+     * @return the position in the array after the ring
+     */
+    static int decode(Geojson.LineString ring, float[] into, int position) {
+        int count = ring.getPackedCoordinatesCount();
+        if (count > 0) {
+            int lon = 0;
+            int lat = 0;
+            for (int i = 0; i < count; i += 2) {
+                lon += ring.getPackedCoordinates(i);
+                lat += ring.getPackedCoordinates(i + 1);
+                into[position++] = Float.intBitsToFloat(lon);
+                into[position++] = Float.intBitsToFloat(lat);
+            }
+        } else {
+            for (Geojson.Position p : ring.getCoordinatesList()) {
+                into[position++] = p.getLon();
+                into[position++] = p.getLat();
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,109 @@
+package net.iakovlev.timeshape;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Edge grid section of the packed index, written by {@code EdgeGridWriter} in the builder, which describes
+ * its layout. Every cell of the grid lists the polygons which contain points of the cell, and for the polygons
+ * which boundary passes through the cell, the few edges near it, so a point in polygon test only looks at
+ * those edges, however long the boundary of the polygon is.
+ */
+final class PackedEdgeGrid {
+    private static final int FULL = 1;
+
+    private final int cellsPerDegree;
+    private final int columns;
+    private final int rows;
+    private final int maxEntries;
+    private final IntBuffer cellStarts;
+    private final IntBuffer data;
+    private final FloatBuffer coordinates;
+    // position in the zone table of the zone of every polygon, or -1 if the zone is not known to the Java runtime
+    private final int[] polygonOrdinals;
+
+    PackedEdgeGrid(int cellsPerDegree, int columns, int rows, int maxEntries, IntBuffer cellStarts, IntBuffer data,
+                   FloatBuffer coordinates, int[] polygonOrdinals) {
+        this.cellsPerDegree = cellsPerDegree;
+        this.columns = columns;
+        this.rows = rows;
+        this.maxEntries = maxEntries;
+        this.cellStarts = cellStarts;
+        this.data = data;
+        this.coordinates = coordinates;
+        this.polygonOrdinals = polygonOrdinals;
+    }
+
+    /**
+     * @return the largest number of polygons listed in a cell
+     */
+    int maxEntries() {
+        return maxEntries;
+    }
+
+    // must be computed the same way as in EdgeGridWriter in the builder
+    private double longitude(int column) {
+        return column / (double) cellsPerDegree - 180;
+    }
+
+    private double latitude(int row) {
+        return row / (double) cellsPerDegree - 90;
+    }
+
+    /**
+     * Finds the polygons of known zones containing the point, in ascending order.
+     *
+     * @param result array to put the polygons into
+     * @param limit  maximal number of polygons to find
+     * @return the number of polygons found, or -1 if the point is not in the grid and must be looked up otherwise
+     */
+    int find(double x, double y, int[] result, int limit) {
+        int column = (int) Math.floor((x + 180) * cellsPerDegree);
+        int row = (int) Math.floor((y + 90) * cellsPerDegree);
+        if (column < 0 || column >= columns || row < 0 || row >= rows) {
+            return -1;
+        }
+        // the cell is only valid for the points in it, not for the ones put into it by rounding
+        if (!(x >= longitude(column) && x <= longitude(column + 1) && y >= latitude(row) && y < latitude(row + 1))) {
+            return -1;
+        }
+        int count = 0;
+        int cell = row * columns + column;
+        int position = cellStarts.get(cell);
+        int end = cellStarts.get(cell + 1);
+        while (position < end && count < limit) {
+            int header = data.get(position++);
+            int polygon = header >>> 1;
+            boolean inside;
+            if ((header & FULL) != 0) {
+                inside = true;
+            } else {
+                inside = data.get(position) != 0;
+                int edgeCount = data.get(position + 1);
+                int endCount = data.get(position + 2);
+                position += 3;
+                for (int last = position + edgeCount * 2; position < last; position += 2) {
+                    int current = data.get(position);
+                    int previous = data.get(position + 1);
+                    double currentX = coordinates.get(current * 2);
+                    double currentY = coordinates.get(current * 2 + 1);
+                    double previousX = coordinates.get(previous * 2);
+                    double previousY = coordinates.get(previous * 2 + 1);
+                    if ((currentY > y) != (previousY > y)
+                            && x < (previousX - currentX) * (y - currentY) / (previousY - currentY) + currentX) {
+                        inside = !inside;
+                    }
+                }
+                for (int last = position + endCount; position < last; position++) {
+                    if (coordinates.get(data.get(position) * 2 + 1) > y) {
+                        inside = !inside;
+                    }
+                }
+            }
+            if (inside && polygonOrdinals[polygon] >= 0) {
+                result[count++] = polygon;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,514 @@
+package net.iakovlev.timeshape;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+
+/**
+ * {@link ZoneIndex} which queries the packed index file, produced by the builder, in place.
+ * All the geometry stays in the buffer the index is created from, typically a file mapped into memory,
+ * so creating the index doesn't depend on the amount of data. See doc/Architecture.md for the file layout.
+ */
+final class PackedIndex implements ZoneIndex, Serializable {
+    static final int MAGIC = 0x58495354; // "TSIX" in little endian
+    static final int VERSION = 2;
+    // the edge grid was added in version 2, older files are still read, and queried without it
+    private static final int MIN_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private static final Logger log = LoggerFactory.getLogger(PackedIndex.class);
+
+    private final ByteBuffer buffer;
+    private final List<ZoneId> zoneTable;
+    // position in zoneTable of the zone of every polygon, or -1 if the zone is not known to the Java runtime
+    private final int[] polygonOrdinals;
+    private final List<ZoneId> knownZoneIds;
+    // built on the first query of the distance to the boundary
+    private final AtomicReferenceArray<EdgeIndex> edgeIndexes;
+    private final IntBuffer polygonRings;
+    private final IntBuffer ringVertices;
+    private final FloatBuffer coordinates;
+    private final PackedRTree tree;
+    // null for files written before the edge grid was added
+    private final PackedEdgeGrid grid;
+
+    private PackedIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        ByteBuffer data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (data.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a packed index file");
+        }
+        int version = data.getInt(4);
+        if (version < MIN_VERSION || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported packed index version " + version + ", expected "
+                    + MIN_VERSION + " to " + VERSION);
+        }
+        int nodeSize = data.getInt(8);
+        int zoneCount = data.getInt(12);
+        int polygonCount = data.getInt(16);
+        int ringCount = data.getInt(20);
+        int vertexCount = data.getInt(24);
+        int treeLevels = data.getInt(28);
+
+        int offset = HEADER_SIZE;
+        String[] zoneNames = new String[zoneCount];
+        for (int i = 0; i < zoneCount; i++) {
+            int length = data.getInt(offset);
+            byte[] name = new byte[length];
+            ((Buffer) data).position(offset + 4);
+            data.get(name);
+            zoneNames[i] = new String(name, StandardCharsets.UTF_8);
+            offset = align(offset + 4 + length);
+        }
+        int[] levelEnds = new int[treeLevels];
+        slice(data, offset, treeLevels * 4).asIntBuffer().get(levelEnds);
+        offset += treeLevels * 4;
+        int nodeCount = treeLevels == 0 ? 0 : levelEnds[treeLevels - 1];
+        IntBuffer polygonZones = slice(data, offset, polygonCount * 4).asIntBuffer();
+        offset += polygonCount * 4;
+        this.polygonRings = slice(data, offset, (polygonCount + 1) * 4).asIntBuffer();
+        offset += (polygonCount + 1) * 4;
+        this.ringVertices = slice(data, offset, (ringCount + 1) * 4).asIntBuffer();
+        offset += (ringCount + 1) * 4;
+        this.coordinates = slice(data, offset, vertexCount * 8).asFloatBuffer();
+        offset += vertexCount * 8;
+        FloatBuffer treeBoxes = slice(data, offset, nodeCount * 16).asFloatBuffer();
+        offset += nodeCount * 16;
+        IntBuffer treeIndices = slice(data, offset, nodeCount * 4).asIntBuffer();
+        offset += nodeCount * 4;
+        this.tree = new PackedRTree(treeBoxes, treeIndices, levelEnds, nodeSize);
+
+        Map<ZoneId, Integer> ordinals = new LinkedHashMap<>();
+        int[] fileOrdinals = new int[zoneCount];
+        List<String> unknownZones = new ArrayList<>();
+        for (int i = 0; i < zoneCount; i++) {
+            try {
+                fileOrdinals[i] = ordinals.computeIfAbsent(ZoneId.of(zoneNames[i]), z -> ordinals.size());
+            } catch (Exception ex) {
+                fileOrdinals[i] = -1;
+                unknownZones.add(zoneNames[i]);
+            }
+        }
+        this.polygonOrdinals = new int[polygonCount];
+        this.edgeIndexes = new AtomicReferenceArray<>(polygonCount);
+        for (int i = 0; i < polygonCount; i++) {
+            polygonOrdinals[i] = fileOrdinals[polygonZones.get(i)];
+        }
+        this.zoneTable = Collections.unmodifiableList(new ArrayList<>(ordinals.keySet()));
+        List<ZoneId> knownZoneIds = new ArrayList<>(polygonCount);
+        for (int ordinal : polygonOrdinals) {
+            if (ordinal >= 0) {
+                knownZoneIds.add(zoneTable.get(ordinal));
+            }
+        }
+        this.knownZoneIds = Collections.unmodifiableList(knownZoneIds);
+        if (version >= 2) {
+            int cellsPerDegree = data.getInt(offset);
+            int columns = data.getInt(offset + 4);
+            int rows = data.getInt(offset + 8);
+            int maxEntries = data.getInt(offset + 12);
+            offset += 16;
+            int cellCount = columns * rows;
+            IntBuffer cellStarts = slice(data, offset, (cellCount + 1) * 4).asIntBuffer();
+            offset += (cellCount + 1) * 4;
+            IntBuffer cells = slice(data, offset, cellStarts.get(cellCount) * 4).asIntBuffer();
+            this.grid = new PackedEdgeGrid(cellsPerDegree, columns, rows, maxEntries, cellStarts, cells,
+                    coordinates, polygonOrdinals);
+        } else {
+            this.grid = null;
+        }
+        if (unknownZones.size() != 0) {
+            log.error(
+                    "Some of the zone ids were not recognized by the Java runtime and will be ignored. " +
+                            "The most probable reason for this is outdated Java runtime version. " +
+                            "The following zones were not recognized: " + String.join(", ", unknownZones));
+        }
+        log.info("Initialized packed index with {} polygons of {} time zones", polygonCount, zoneTable.size());
+    }
+
+    private static int align(int offset) {
+        return (offset + 3) & ~3;
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+        ByteBuffer duplicate = data.duplicate();
+        ((Buffer) duplicate).position(offset);
+        ((Buffer) duplicate).limit(offset + length);
+        return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates the index on top of a buffer containing the packed index file. The buffer is not copied.
+     */
+    static PackedIndex wrap(ByteBuffer buffer) {
+        return new PackedIndex(buffer);
+    }
+
+    /**
+     * Reads the index written by {@link #writeSnapshot(Snapshot.Output)}, on top of the buffer the snapshot is
+     * read into.
+     */
+    static PackedIndex readSnapshot(ByteBuffer in) {
+        return new PackedIndex(Snapshot.getBuffer(in));
+    }
+
+    /**
+     * The snapshot is the packed index file itself.
+     */
+    @Override
+    public void writeSnapshot(Snapshot.Output out) throws IOException {
+        out.putInt(Snapshot.PACKED_INDEX);
+        ByteBuffer contents = buffer.duplicate();
+        ((Buffer) contents).clear();
+        out.putBuffer(contents);
+    }
+
+    /**
+     * Maps the packed index file into memory and creates the index on top of it.
+     */
+    static PackedIndex map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new PackedIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Even-odd point in polygon test over all rings of the polygon, which is the same fill rule
+     * Esri geometry API uses by default. Unlike Esri geometry, it has no tolerance, so a point on an edge
+     * is usually inside of only one of the polygons sharing it.
+     */
+    private boolean contains(int polygon, double x, double y) {
+        boolean inside = false;
+        int lastRing = polygonRings.get(polygon + 1);
+        for (int ring = polygonRings.get(polygon); ring < lastRing; ring++) {
+            int start = ringVertices.get(ring);
+            int end = ringVertices.get(ring + 1);
+            double previousX = coordinates.get((end - 1) * 2);
+            double previousY = coordinates.get((end - 1) * 2 + 1);
+            for (int vertex = start; vertex < end; vertex++) {
+                double currentX = coordinates.get(vertex * 2);
+                double currentY = coordinates.get(vertex * 2 + 1);
+                if ((currentY > y) != (previousY > y)
+                        && x < (previousX - currentX) * (y - currentY) / (previousY - currentY) + currentX) {
+                    inside = !inside;
+                }
+                previousX = currentX;
+                previousY = currentY;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * @return ids of known polygons, which bounding boxes intersect given box, in ascending order
+     */
+    private int[] candidates(PackedRTree.Cursor cursor, double minX, double minY, double maxX, double maxY) {
+        int[] result = new int[4];
+        int size = 0;
+        cursor.reset(minX, minY, maxX, maxY);
+        for (int polygon = cursor.next(); polygon >= 0; polygon = cursor.next()) {
+            if (polygonOrdinals[polygon] >= 0) {
+                if (size == result.length) {
+                    result = Arrays.copyOf(result, size * 2);
+                }
+                result[size++] = polygon;
+            }
+        }
+        result = Arrays.copyOf(result, size);
+        Arrays.sort(result);
+        return result;
+    }
+
+    @Override
+    public List<ZoneId> query(double latitude, double longitude) {
+        ArrayList<ZoneId> result = new ArrayList<>(2);
+        if (grid != null) {
+            int[] polygons = new int[grid.maxEntries()];
+            int count = grid.find(longitude, latitude, polygons, polygons.length);
+            if (count >= 0) {
+                for (int i = 0; i < count; i++) {
+                    result.add(zoneTable.get(polygonOrdinals[polygons[i]]));
+                }
+                return result;
+            }
+        }
+        for (int polygon : candidates(tree.cursor(), longitude, latitude, longitude, latitude)) {
+            if (contains(polygon, longitude, latitude)) {
+                result.add(zoneTable.get(polygonOrdinals[polygon]));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<SameZoneSpan> queryPolyline(double[] line) {
+        int pointCount = line.length / 2;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < pointCount; i++) {
+            minY = Math.min(minY, line[i * 2]);
+            maxY = Math.max(maxY, line[i * 2]);
+            minX = Math.min(minX, line[i * 2 + 1]);
+            maxX = Math.max(maxX, line[i * 2 + 1]);
+        }
+        List<Integer> candidates = new ArrayList<>();
+        for (int polygon : candidates(tree.cursor(), minX, minY, maxX, maxY)) {
+            candidates.add(polygon);
+        }
+        return PolylineSpans.build(pointCount, candidates,
+                (polygon, p) -> contains(polygon, line[p * 2 + 1], line[p * 2]),
+                polygon -> zoneTable.get(polygonOrdinals[polygon]));
+    }
+
+    @Override
+    public double distanceToBoundary(double latitude, double longitude) {
+        return EdgeIndex.distanceToBoundary(tree, latitude, longitude,
+                polygon -> polygonOrdinals[polygon] >= 0 ? edgeIndex(polygon) : null);
+    }
+
+    private EdgeIndex edgeIndex(int polygon) {
+        EdgeIndex edgeIndex = edgeIndexes.get(polygon);
+        if (edgeIndex == null) {
+            int firstRing = polygonRings.get(polygon);
+            int lastRing = polygonRings.get(polygon + 1);
+            float[] edges = new float[(ringVertices.get(lastRing) - ringVertices.get(firstRing)) * 4];
+            int e = 0;
+            for (int ring = firstRing; ring < lastRing; ring++) {
+                int start = ringVertices.get(ring);
+                int end = ringVertices.get(ring + 1);
+                int previous = end - 1;
+                for (int vertex = start; vertex < end; vertex++) {
+                    edges[e++] = coordinates.get(previous * 2);
+                    edges[e++] = coordinates.get(previous * 2 + 1);
+                    edges[e++] = coordinates.get(vertex * 2);
+                    edges[e++] = coordinates.get(vertex * 2 + 1);
+                    previous = vertex;
+                }
+            }
+            edgeIndex = EdgeIndex.build(edges);
+            edgeIndexes.compareAndSet(polygon, null, edgeIndex);
+        }
+        return edgeIndex;
+    }
+
+    @Override
+    public boolean hasBoundaryWithin(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        for (int polygon : candidates(tree.cursor(), minLongitude, minLatitude, maxLongitude, maxLatitude)) {
+            // only the nodes of the edge index overlapping the box are looked at
+            if (edgeIndex(polygon).hasEdgeWithin(minLongitude, minLatitude, maxLongitude, maxLatitude)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public ZoneIndex.Cursor cursor() {
+        return new Cursor();
+    }
+
+    private final class Cursor implements ZoneIndex.Cursor {
+        private final PackedRTree.Cursor treeCursor = tree.cursor();
+        private final PackedRTree.ItemTest test = (polygon, x, y) -> polygonOrdinals[polygon] >= 0 && PackedIndex.this.contains(polygon, x, y);
+        private final int[] hints = new int[1];
+        private final int[] found = grid == null ? null : new int[grid.maxEntries()];
+        // polygon found by the last query with affinity
+        private int lastPolygon = -1;
+
+        @Override
+        public int queryOrdinal(double latitude, double longitude) {
+            int first = firstGeometry(latitude, longitude, -1);
+            return first < 0 ? -1 : polygonOrdinals[first];
+        }
+
+        @Override
+        public int queryOrdinalWithAffinity(double latitude, double longitude) {
+            int first = firstGeometry(latitude, longitude, lastPolygon);
+            if (first < 0) {
+                return -1;
+            }
+            lastPolygon = first;
+            return polygonOrdinals[first];
+        }
+
+        @Override
+        public int firstGeometry(double latitude, double longitude, int hint) {
+            if (grid != null) {
+                int count = grid.find(longitude, latitude, found, 1);
+                if (count >= 0) {
+                    return count == 0 ? -1 : found[0];
+                }
+            }
+            int first = Integer.MAX_VALUE;
+            if (hint >= 0 && PackedIndex.this.contains(hint, longitude, latitude)) {
+                hints[0] = hint;
+                if (tree.noOtherContains(hints, 1, longitude, latitude, hint, test)) {
+                    return hint;
+                }
+                first = hint;
+            }
+            treeCursor.reset(longitude, latitude, longitude, latitude);
+            for (int polygon = treeCursor.next(); polygon >= 0; polygon = treeCursor.next()) {
+                if (polygon < first && polygon != hint && polygonOrdinals[polygon] >= 0
+                        && PackedIndex.this.contains(polygon, longitude, latitude)) {
+                    first = polygon;
+                }
+            }
+            return first == Integer.MAX_VALUE ? -1 : first;
+        }
+
+        @Override
+        public int ordinalOf(int geometry) {
+            return polygonOrdinals[geometry];
+        }
+
+        @Override
+        public boolean noOtherContains(int[] geometries, int count, double latitude, double longitude) {
+            return tree.noOtherContains(geometries, count, longitude, latitude, Integer.MAX_VALUE, test);
+        }
+
+        @Override
+        public void findGeometries(double latitude, double longitude, IntConsumer consumer) {
+            if (grid != null) {
+                int count = grid.find(longitude, latitude, found, found.length);
+                if (count >= 0) {
+                    for (int i = 0; i < count; i++) {
+                        consumer.accept(found[i]);
+                    }
+                    return;
+                }
+            }
+            treeCursor.reset(longitude, latitude, longitude, latitude);
+            for (int polygon = treeCursor.next(); polygon >= 0; polygon = treeCursor.next()) {
+                if (polygonOrdinals[polygon] >= 0 && PackedIndex.this.contains(polygon, longitude, latitude)) {
+                    consumer.accept(polygon);
+                }
+            }
+        }
+
+        @Override
+        public void findCandidates(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+                                   IntConsumer consumer) {
+            treeCursor.reset(minLongitude, minLatitude, maxLongitude, maxLatitude);
+            for (int polygon = treeCursor.next(); polygon >= 0; polygon = treeCursor.next()) {
+                if (polygonOrdinals[polygon] >= 0) {
+                    consumer.accept(polygon);
+                }
+            }
+        }
+
+        @Override
+        public void findCrossings(int geometry, double latitude1, double longitude1, double latitude2, double longitude2,
+                                  DoubleConsumer consumer) {
+            int lastRing = polygonRings.get(geometry + 1);
+            for (int ring = polygonRings.get(geometry); ring < lastRing; ring++) {
+                int start = ringVertices.get(ring);
+                int end = ringVertices.get(ring + 1);
+                double previousX = coordinates.get((end - 1) * 2);
+                double previousY = coordinates.get((end - 1) * 2 + 1);
+                for (int vertex = start; vertex < end; vertex++) {
+                    double currentX = coordinates.get(vertex * 2);
+                    double currentY = coordinates.get(vertex * 2 + 1);
+                    double t = Segments.crossing(longitude1, latitude1, longitude2, latitude2,
+                            previousX, previousY, currentX, currentY);
+                    if (t >= 0) {
+                        consumer.accept(t);
+                    }
+                    previousX = currentX;
+                    previousY = currentY;
+                }
+            }
+        }
+
+        @Override
+        public boolean contains(int geometry, double latitude, double longitude) {
+            return PackedIndex.this.contains(geometry, longitude, latitude);
+        }
+
+        @Override
+        public ZoneId zoneOf(int geometry) {
+            return zoneTable.get(polygonOrdinals[geometry]);
+        }
+    }
+
+    @Override
+    public List<ZoneId> getZoneTable() {
+        return zoneTable;
+    }
+
+    @Override
+    public List<ZoneId> getKnownZoneIds() {
+        return knownZoneIds;
+    }
+
+    @Override
+    public List<ZoneMetadata> getZoneMetadata() {
+        ZoneMetadata.Collector collector = new ZoneMetadata.Collector(zoneTable);
+        for (int polygon = 0; polygon < polygonOrdinals.length; polygon++) {
+            if (polygonOrdinals[polygon] < 0) {
+                continue;
+            }
+            int firstRing = polygonRings.get(polygon);
+            int lastRing = polygonRings.get(polygon + 1);
+            int firstVertex = ringVertices.get(firstRing);
+            int[] ringStarts = new int[lastRing - firstRing + 1];
+            for (int ring = firstRing; ring <= lastRing; ring++) {
+                ringStarts[ring - firstRing] = (ringVertices.get(ring) - firstVertex) * 2;
+            }
+            float[] polygonCoordinates = new float[ringStarts[ringStarts.length - 1]];
+            for (int i = 0; i < polygonCoordinates.length; i++) {
+                polygonCoordinates[i] = coordinates.get(firstVertex * 2 + i);
+            }
+            collector.add(polygonOrdinals[polygon], ringStarts, polygonCoordinates);
+        }
+        return collector.build();
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        ByteBuffer data = buffer.duplicate();
+        ((Buffer) data).clear();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return new SerializedForm(bytes);
+    }
+
+    /**
+     * Mapped buffers can't be serialized, so the contents of the buffer are serialized instead.
+     * The deserialized index is backed by a heap buffer.
+     */
+    private static final class SerializedForm implements Serializable {
+        private final byte[] bytes;
+
+        SerializedForm(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return new PackedIndex(ByteBuffer.wrap(bytes));
+        }
+    }
+}
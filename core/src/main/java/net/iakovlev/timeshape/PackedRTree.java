@@ -0,0 +1,389 @@
+package net.iakovlev.timeshape;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Static R-tree packed into flat buffers, as written by the builder into the packed index file.
+ * <p>
+ * Nodes are stored level by level, starting from the leaves, so the root is the last node. Every node has
+ * a bounding box of 4 floats: min longitude, min latitude, max longitude, max latitude. For a leaf, the index
+ * of the node is the id of the item, for other nodes it's the position of the first child node. All children
+ * of a node are stored contiguously, and there are at most {@code nodeSize} of them.
+ */
+final class PackedRTree implements Serializable {
+    private final FloatBuffer boxes;
+    private final IntBuffer indices;
+    private final int[] levelEnds;
+    private final int nodeSize;
+    private transient volatile Overlaps overlaps;
+
+    /**
+     * @param boxes     bounding boxes of the nodes
+     * @param indices   item id or first child position of the nodes
+     * @param levelEnds position after the last node of each level, starting from the leaves
+     * @param nodeSize  maximum number of children of a node
+     */
+    PackedRTree(FloatBuffer boxes, IntBuffer indices, int[] levelEnds, int nodeSize) {
+        this.boxes = boxes;
+        this.indices = indices;
+        this.levelEnds = levelEnds;
+        this.nodeSize = nodeSize;
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Distance to the items, for {@link #nearest}.
+     */
+    interface ItemDistance {
+        /**
+         * @return squared distance from the point to the item, with the x coordinates multiplied by {@code scaleX},
+         * or any value not lower than {@code bound}, if the item is not closer than that
+         */
+        double squaredDistance(int item, double x, double y, double scaleX, double bound);
+    }
+
+    /**
+     * Finds the item nearest to the point with branch and bound search: the subtrees, which bounding boxes are not
+     * closer to the point than the nearest item found so far, are skipped. Distances are measured with the
+     * x coordinates multiplied by {@code scaleX}, e.g. the cosine of the latitude for longitudes.
+     *
+     * @param bound squared distance to find the items closer than
+     * @return the squared distance to the nearest item, if it's lower than {@code bound}, or {@code bound}
+     */
+    double nearest(double x, double y, double scaleX, double bound, ItemDistance distance) {
+        if (levelEnds.length == 0) {
+            return bound;
+        }
+        // pairs of node position and its level, at most nodeSize children are pushed per level
+        int[] stack = new int[levelEnds.length * nodeSize * 2];
+        int stackSize = 0;
+        stack[stackSize++] = levelEnds[levelEnds.length - 1] - 1;
+        stack[stackSize++] = levelEnds.length - 1;
+        while (stackSize > 0) {
+            int level = stack[--stackSize];
+            int node = stack[--stackSize];
+            // the bound may have got lower since the node was pushed
+            if (boxDistance(node, x, y, scaleX) >= bound) {
+                continue;
+            }
+            if (level == 0) {
+                bound = Math.min(bound, distance.squaredDistance(indices.get(node), x, y, scaleX, bound));
+                continue;
+            }
+            int first = indices.get(node);
+            int end = Math.min(first + nodeSize, levelEnds[level - 1]);
+            for (int child = first; child < end; child++) {
+                if (boxDistance(child, x, y, scaleX) < bound) {
+                    stack[stackSize++] = child;
+                    stack[stackSize++] = level - 1;
+                }
+            }
+        }
+        return bound;
+    }
+
+    private double boxDistance(int node, double x, double y, double scaleX) {
+        int box = node * 4;
+        double dx = Math.max(Math.max(boxes.get(box) - x, x - boxes.get(box + 2)), 0) * scaleX;
+        double dy = Math.max(Math.max(boxes.get(box + 1) - y, y - boxes.get(box + 3)), 0);
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Point test of the items, for {@link #noOtherContains}.
+     */
+    interface ItemTest {
+        boolean contains(int item, double x, double y);
+    }
+
+    /**
+     * Checks whether the given items, which all contain the point, are all the items containing it, i.e. whether
+     * none of the other items, which bounding boxes intersect the ones of the given items, contains it.
+     * Only the neighbours of the given items are looked at, so it's much cheaper than a query of the tree,
+     * if the point is in the same items as the previous one.
+     *
+     * @param items sorted ids of the items containing the point
+     * @param count number of the items
+     * @param below only the other items with ids lower than this one are looked at
+     */
+    boolean noOtherContains(int[] items, int count, double x, double y, int below, ItemTest test) {
+        Overlaps overlaps = overlaps();
+        for (int i = 0; i < count; i++) {
+            int item = items[i];
+            for (int n = overlaps.starts[item], last = overlaps.starts[item + 1]; n < last; n++) {
+                int other = overlaps.items[n];
+                if (other >= below) {
+                    // the neighbours are sorted
+                    break;
+                }
+                int box = other * 4;
+                if (x >= overlaps.boxes[box] && y >= overlaps.boxes[box + 1]
+                        && x <= overlaps.boxes[box + 2] && y <= overlaps.boxes[box + 3]
+                        && Arrays.binarySearch(items, 0, count, other) < 0 && test.contains(other, x, y)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computed on the first call, so that opening a mapped tree stays cheap.
+     */
+    private Overlaps overlaps() {
+        Overlaps result = overlaps;
+        if (result == null) {
+            int itemCount = levelEnds.length == 0 ? 0 : levelEnds[0];
+            float[] itemBoxes = new float[itemCount * 4];
+            for (int node = 0; node < itemCount; node++) {
+                for (int i = 0; i < 4; i++) {
+                    itemBoxes[indices.get(node) * 4 + i] = boxes.get(node * 4 + i);
+                }
+            }
+            int[] starts = new int[itemCount + 1];
+            int[] items = new int[16];
+            int size = 0;
+            Cursor cursor = new Cursor();
+            for (int item = 0; item < itemCount; item++) {
+                starts[item] = size;
+                int box = item * 4;
+                cursor.reset(itemBoxes[box], itemBoxes[box + 1], itemBoxes[box + 2], itemBoxes[box + 3]);
+                for (int other = cursor.next(); other >= 0; other = cursor.next()) {
+                    if (other != item) {
+                        if (size == items.length) {
+                            items = Arrays.copyOf(items, size * 2);
+                        }
+                        items[size++] = other;
+                    }
+                }
+                Arrays.sort(items, starts[item], size);
+            }
+            starts[itemCount] = size;
+            result = new Overlaps(itemBoxes, starts, Arrays.copyOf(items, size));
+            overlaps = result;
+        }
+        return result;
+    }
+
+    /**
+     * Bounding boxes of the items by their ids, and their neighbours: for every item, the sorted ids of the other
+     * items, which bounding boxes intersect its one, in {@code items} from {@code starts[item]} to
+     * {@code starts[item + 1]}.
+     */
+    private static final class Overlaps {
+        final float[] boxes;
+        final int[] starts;
+        final int[] items;
+
+        Overlaps(float[] boxes, int[] starts, int[] items) {
+            this.boxes = boxes;
+            this.starts = starts;
+            this.items = items;
+        }
+    }
+
+    /**
+     * Bulk loads the tree with Sort-Tile-Recursive algorithm: the items of every level are sorted into
+     * vertical slices by the x coordinate of their centers, and inside of each slice by the y coordinate,
+     * and then every {@code nodeSize} consecutive items get a common parent. Same as the builder does for
+     * the packed index file.
+     *
+     * @param itemBoxes bounding boxes of the items, 4 floats per item, the item ids are their positions
+     * @param nodeSize  maximum number of children of a node
+     */
+    static PackedRTree pack(float[] itemBoxes, int nodeSize) {
+        int itemCount = itemBoxes.length / 4;
+        float[] boxes = new float[0];
+        int[] indices = new int[0];
+        List<Integer> levelEnds = new ArrayList<>();
+        float[] levelBoxes = itemBoxes;
+        int[] levelIndices = new int[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            levelIndices[i] = i;
+        }
+        int count = itemCount;
+        while (count > 0) {
+            int start = indices.length;
+            Integer[] order = sortTileRecursive(levelBoxes, count, nodeSize);
+            boxes = Arrays.copyOf(boxes, (start + count) * 4);
+            indices = Arrays.copyOf(indices, start + count);
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(levelBoxes, order[i] * 4, boxes, (start + i) * 4, 4);
+                indices[start + i] = levelIndices[order[i]];
+            }
+            levelEnds.add(start + count);
+            if (count == 1 && levelEnds.size() > 1) {
+                break;
+            }
+            int parentCount = (count + nodeSize - 1) / nodeSize;
+            float[] parentBoxes = new float[parentCount * 4];
+            int[] parentIndices = new int[parentCount];
+            for (int parent = 0; parent < parentCount; parent++) {
+                int firstChild = start + parent * nodeSize;
+                int lastChild = Math.min(firstChild + nodeSize, start + count);
+                parentIndices[parent] = firstChild;
+                parentBoxes[parent * 4] = Float.POSITIVE_INFINITY;
+                parentBoxes[parent * 4 + 1] = Float.POSITIVE_INFINITY;
+                parentBoxes[parent * 4 + 2] = Float.NEGATIVE_INFINITY;
+                parentBoxes[parent * 4 + 3] = Float.NEGATIVE_INFINITY;
+                for (int child = firstChild; child < lastChild; child++) {
+                    parentBoxes[parent * 4] = Math.min(parentBoxes[parent * 4], boxes[child * 4]);
+                    parentBoxes[parent * 4 + 1] = Math.min(parentBoxes[parent * 4 + 1], boxes[child * 4 + 1]);
+                    parentBoxes[parent * 4 + 2] = Math.max(parentBoxes[parent * 4 + 2], boxes[child * 4 + 2]);
+                    parentBoxes[parent * 4 + 3] = Math.max(parentBoxes[parent * 4 + 3], boxes[child * 4 + 3]);
+                }
+            }
+            levelBoxes = parentBoxes;
+            levelIndices = parentIndices;
+            count = parentCount;
+        }
+        return new PackedRTree(FloatBuffer.wrap(boxes), IntBuffer.wrap(indices),
+                levelEnds.stream().mapToInt(Integer::intValue).toArray(), nodeSize);
+    }
+
+    private static Integer[] sortTileRecursive(float[] boxes, int count, int nodeSize) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Comparator<Integer> byCenterX = Comparator.comparingDouble(i -> boxes[i * 4] + boxes[i * 4 + 2]);
+        Comparator<Integer> byCenterY = Comparator.comparingDouble(i -> boxes[i * 4 + 1] + boxes[i * 4 + 3]);
+        Arrays.sort(order, byCenterX);
+        int nodeCount = (count + nodeSize - 1) / nodeSize;
+        int sliceSize = (int) Math.ceil(Math.sqrt(nodeCount)) * nodeSize;
+        for (int slice = 0; slice < count; slice += sliceSize) {
+            Arrays.sort(order, slice, Math.min(slice + sliceSize, count), byCenterY);
+        }
+        return order;
+    }
+
+    /**
+     * Iterates over the ids of the items, which bounding boxes intersect the query box.
+     * Same as {@link com.esri.core.geometry.QuadTree.QuadTreeIterator}, a cursor can be reset and reused
+     * for any number of queries, and doesn't allocate.
+     */
+    final class Cursor {
+        // pairs of node position and its level
+        private final int[] stack = new int[Math.max(1, levelEnds.length) * nodeSize * 2];
+        private int stackSize;
+        private int position;
+        private int end;
+        private int level;
+        private double minX;
+        private double minY;
+        private double maxX;
+        private double maxY;
+
+        private Cursor() {
+        }
+
+        void reset(double minX, double minY, double maxX, double maxY) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.stackSize = 0;
+            if (levelEnds.length == 0) {
+                this.position = 0;
+                this.end = 0;
+            } else {
+                this.level = levelEnds.length - 1;
+                this.end = levelEnds[level];
+                this.position = end - 1;
+            }
+        }
+
+        /**
+         * @return id of the next item, or -1 if there's no more items
+         */
+        int next() {
+            while (true) {
+                while (position < end) {
+                    int node = position++;
+                    int box = node * 4;
+                    if (boxes.get(box) > maxX || boxes.get(box + 1) > maxY
+                            || boxes.get(box + 2) < minX || boxes.get(box + 3) < minY) {
+                        continue;
+                    }
+                    if (level == 0) {
+                        return indices.get(node);
+                    }
+                    stack[stackSize++] = node;
+                    stack[stackSize++] = level;
+                }
+                if (stackSize == 0) {
+                    return -1;
+                }
+                level = stack[--stackSize] - 1;
+                position = indices.get(stack[--stackSize]);
+                end = Math.min(position + nodeSize, levelEnds[level]);
+            }
+        }
+    }
+
+    /**
+     * Writes the tree into a snapshot, with the contents of the buffers as arrays.
+     */
+    void writeSnapshot(Snapshot.Output out) throws IOException {
+        float[] boxArray = new float[boxes.limit()];
+        boxes.duplicate().get(boxArray);
+        int[] indexArray = new int[indices.limit()];
+        indices.duplicate().get(indexArray);
+        out.putInt(nodeSize);
+        out.putInts(levelEnds);
+        out.putFloats(boxArray);
+        out.putInts(indexArray);
+    }
+
+    /**
+     * Reads the tree written by {@link #writeSnapshot(Snapshot.Output)}.
+     */
+    static PackedRTree readSnapshot(ByteBuffer in) {
+        int nodeSize = in.getInt();
+        int[] levelEnds = Snapshot.getInts(in);
+        float[] boxes = Snapshot.getFloats(in);
+        int[] indices = Snapshot.getInts(in);
+        return new PackedRTree(FloatBuffer.wrap(boxes), IntBuffer.wrap(indices), levelEnds, nodeSize);
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        float[] boxArray = new float[boxes.limit()];
+        boxes.duplicate().get(boxArray);
+        int[] indexArray = new int[indices.limit()];
+        indices.duplicate().get(indexArray);
+        return new SerializedForm(boxArray, indexArray, levelEnds, nodeSize);
+    }
+
+    /**
+     * Buffers can't be serialized, so their contents are serialized as arrays instead.
+     */
+    private static final class SerializedForm implements Serializable {
+        private final float[] boxes;
+        private final int[] indices;
+        private final int[] levelEnds;
+        private final int nodeSize;
+
+        SerializedForm(float[] boxes, int[] indices, int[] levelEnds, int nodeSize) {
+            this.boxes = boxes;
+            this.indices = indices;
+            this.levelEnds = levelEnds;
+            this.nodeSize = nodeSize;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return new PackedRTree(FloatBuffer.wrap(boxes), IntBuffer.wrap(indices), levelEnds, nodeSize);
+        }
+    }
+}
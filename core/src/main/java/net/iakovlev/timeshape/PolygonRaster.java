@@ -0,0 +1,105 @@
+package net.iakovlev.timeshape;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Raster of a polygon precomputed by the builder, which replaces the Esri geometry acceleration: the bounding box
+ * of the polygon is split into a grid of cells, each of them outside of the polygon, inside of it, or touched by
+ * its boundary. Only the points in the cells touched by the boundary need the polygon to be tested.
+ * <p>
+ * The rasters of the polygons of a feature follow the feature in the data file, as an entry with the same name
+ * and {@link #ENTRY_SUFFIX}. The layout is described in {@code PolygonRasterWriter} in the builder.
+ */
+final class PolygonRaster implements Serializable {
+    static final String ENTRY_SUFFIX = ".raster";
+    private static final int OUTSIDE = 0;
+    private static final int INSIDE = 1;
+    // the builder marks the cells within this distance from an edge as touched by the boundary, and the points
+    // within it from the bounding box are tested against the polygon too
+    private static final double MARGIN = 1e-7;
+
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+    private final int columns;
+    private final int rows;
+    private final double columnsPerDegree;
+    private final double rowsPerDegree;
+    private final byte[] cells;
+
+    private PolygonRaster(double minX, double minY, double maxX, double maxY, int columns, int rows, byte[] cells) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.columns = columns;
+        this.rows = rows;
+        this.columnsPerDegree = maxX > minX ? columns / (maxX - minX) : 0;
+        this.rowsPerDegree = maxY > minY ? rows / (maxY - minY) : 0;
+        this.cells = cells;
+    }
+
+    /**
+     * @return the rasters of the polygons of a feature, in the order of the polygons
+     */
+    static List<PolygonRaster> readAll(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int count = buffer.getInt();
+        List<PolygonRaster> rasters = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rasters.add(read(buffer));
+        }
+        return rasters;
+    }
+
+    private static PolygonRaster read(ByteBuffer buffer) {
+        float minX = buffer.getFloat();
+        float minY = buffer.getFloat();
+        float maxX = buffer.getFloat();
+        float maxY = buffer.getFloat();
+        int columns = buffer.getInt();
+        int rows = buffer.getInt();
+        byte[] cells = new byte[(columns * rows + 3) / 4];
+        buffer.get(cells);
+        return new PolygonRaster(minX, minY, maxX, maxY, columns, rows, cells);
+    }
+
+    /**
+     * Writes the raster into a snapshot in the same layout as in the data file.
+     */
+    void writeSnapshot(Snapshot.Output out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putFloat((float) minX).putFloat((float) minY).putFloat((float) maxX).putFloat((float) maxY)
+                .putInt(columns).putInt(rows);
+        out.putBytes(buffer.array());
+        out.putBytes(cells);
+    }
+
+    /**
+     * Reads the raster written by {@link #writeSnapshot(Snapshot.Output)}.
+     */
+    static PolygonRaster readSnapshot(ByteBuffer in) {
+        return read(in);
+    }
+
+    /**
+     * @return 1 if the polygon contains the point, 0 if it doesn't, -1 if the point is too close to the boundary
+     * to tell, and the polygon must be tested
+     */
+    int classify(double x, double y) {
+        if (!(x >= minX && x <= maxX && y >= minY && y <= maxY)) {
+            return x >= minX - MARGIN && x <= maxX + MARGIN && y >= minY - MARGIN && y <= maxY + MARGIN ? -1 : 0;
+        }
+        int column = Math.min(columns - 1, (int) ((x - minX) * columnsPerDegree));
+        int row = Math.min(rows - 1, (int) ((y - minY) * rowsPerDegree));
+        int cell = row * columns + column;
+        int value = (cells[cell >> 2] >> ((cell & 3) * 2)) & 3;
+        return value == INSIDE ? 1 : value == OUTSIDE ? 0 : -1;
+    }
+}
@@ -0,0 +1,110 @@
+package net.iakovlev.timeshape;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits a polyline into {@link SameZoneSpan}s along its segments, not only at its points, so that a segment
+ * passing through another zone between two points in the same zone is split too.
+ * <p>
+ * Every segment is looked at separately: the geometries which bounding boxes intersect the bounding box of the
+ * segment are the candidates, and the crossings of the segment with their boundaries cut it into parts, each of
+ * which is entirely inside or outside of every candidate. The zones of a part are the zones of the candidates
+ * containing its middle point. A segment without crossings keeps the zones of its start, so it takes no point
+ * in polygon tests at all.
+ */
+final class PolylineCrossings {
+    private final ZoneIndex.Cursor cursor;
+    private int[] candidates = new int[8];
+    private int candidateCount;
+    private double[] crossings = new double[8];
+    private int crossingCount;
+
+    private PolylineCrossings(ZoneIndex.Cursor cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * @param cursor cursor of the index to query
+     * @param points polyline, in the same shape as for {@link TimeZoneEngine#queryPolyline(double[])}
+     */
+    static List<SameZoneSpan> build(ZoneIndex.Cursor cursor, double[] points) {
+        return new PolylineCrossings(cursor).build(points);
+    }
+
+    private List<SameZoneSpan> build(double[] points) {
+        List<SameZoneSpan> spans = new ArrayList<>();
+        int pointCount = points.length / 2;
+        if (pointCount == 0) {
+            return spans;
+        }
+        candidateCount = 0;
+        cursor.findGeometries(points[0], points[1], this::addCandidate);
+        Set<ZoneId> current = zonesOfCandidates(points[0], points[1], false);
+        for (int segment = 0; segment < pointCount - 1; segment++) {
+            double latitude1 = points[segment * 2];
+            double longitude1 = points[segment * 2 + 1];
+            double latitude2 = points[segment * 2 + 2];
+            double longitude2 = points[segment * 2 + 3];
+            candidateCount = 0;
+            cursor.findCandidates(Math.min(latitude1, latitude2), Math.min(longitude1, longitude2),
+                    Math.max(latitude1, latitude2), Math.max(longitude1, longitude2), this::addCandidate);
+            crossingCount = 0;
+            for (int i = 0; i < candidateCount; i++) {
+                cursor.findCrossings(candidates[i], latitude1, longitude1, latitude2, longitude2, this::addCrossing);
+            }
+            if (crossingCount == 0) {
+                continue;
+            }
+            Arrays.sort(crossings, 0, crossingCount);
+            // the parts of the segment are between the start, the crossings and the end
+            double from = 0;
+            for (int i = 0; i <= crossingCount; i++) {
+                double to = i < crossingCount ? crossings[i] : 1;
+                if (to <= from) {
+                    continue;
+                }
+                double middle = (from + to) / 2;
+                Set<ZoneId> zones = zonesOfCandidates(latitude1 + (latitude2 - latitude1) * middle,
+                        longitude1 + (longitude2 - longitude1) * middle, true);
+                if (!zones.equals(current)) {
+                    spans.add(new SameZoneSpan(current, segment * 2 + 1, from,
+                            latitude1 + (latitude2 - latitude1) * from, longitude1 + (longitude2 - longitude1) * from));
+                    current = zones;
+                }
+                from = to;
+            }
+        }
+        int last = pointCount - 1;
+        spans.add(new SameZoneSpan(current, last * 2 + 1, 0, points[last * 2], points[last * 2 + 1]));
+        return spans;
+    }
+
+    private void addCandidate(int geometry) {
+        if (candidateCount == candidates.length) {
+            candidates = Arrays.copyOf(candidates, candidateCount * 2);
+        }
+        candidates[candidateCount++] = geometry;
+    }
+
+    private void addCrossing(double fraction) {
+        if (crossingCount == crossings.length) {
+            crossings = Arrays.copyOf(crossings, crossingCount * 2);
+        }
+        crossings[crossingCount++] = fraction;
+    }
+
+    private Set<ZoneId> zonesOfCandidates(double latitude, double longitude, boolean test) {
+        Set<ZoneId> zones = new HashSet<>();
+        for (int i = 0; i < candidateCount; i++) {
+            if (!test || cursor.contains(candidates[i], latitude, longitude)) {
+                zones.add(cursor.zoneOf(candidates[i]));
+            }
+        }
+        return zones;
+    }
+}
@@ -0,0 +1,125 @@
+package net.iakovlev.timeshape;
+
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Streaming version of {@link TimeZoneEngine#queryPolyline(double[])}, created by
+ * {@link TimeZoneEngine#newPolylineCursor(Consumer)}.
+ * <p>
+ * Points are added one by one or in chunks, and every {@link SameZoneSpan} is passed to the sink as soon as
+ * the polyline leaves it, so a track of any length can be processed in constant memory. The spans are the same
+ * as {@link TimeZoneEngine#queryPolyline(double[])} would return for all points added since the cursor was
+ * created or last finished, and their end indices are counted from the first of these points.
+ * <p>
+ * A cursor must not be used by multiple threads at the same time.
+ */
+public final class PolylineCursor {
+    private final ZoneIndex.Cursor cursor;
+    private final Consumer<SameZoneSpan> sink;
+    private final IntConsumer collector = this::addGeometry;
+    // geometries containing all points of the current span
+    private int[] geometries = new int[4];
+    private int geometryCount;
+    private boolean inSpan;
+    private boolean lastWasEmpty;
+    private int index;
+
+    PolylineCursor(ZoneIndex.Cursor cursor, Consumer<SameZoneSpan> sink) {
+        this.cursor = cursor;
+        this.sink = sink;
+    }
+
+    private void addGeometry(int geometry) {
+        if (geometryCount == geometries.length) {
+            int[] grown = new int[geometries.length * 2];
+            System.arraycopy(geometries, 0, grown, 0, geometryCount);
+            geometries = grown;
+        }
+        geometries[geometryCount++] = geometry;
+    }
+
+    /**
+     * Adds the next point of the polyline.
+     *
+     * @param latitude  latitude of the point
+     * @param longitude longitude of the point
+     */
+    public void add(double latitude, double longitude) {
+        while (true) {
+            if (!inSpan) {
+                geometryCount = 0;
+                cursor.findGeometries(latitude, longitude, collector);
+                inSpan = true;
+            }
+            if (geometryCount == 0) {
+                inSpan = false;
+                lastWasEmpty = true;
+                index++;
+                return;
+            }
+            if (lastWasEmpty) {
+                lastWasEmpty = false;
+                sink.accept(new SameZoneSpan(Collections.emptySet(), (index - 1) * 2 + 1));
+            }
+            if (containedByAll(latitude, longitude)) {
+                index++;
+                return;
+            }
+            sink.accept(new SameZoneSpan(zones(), (index - 1) * 2 + 1));
+            inSpan = false;
+        }
+    }
+
+    /**
+     * Adds the next points of the polyline.
+     *
+     * @param latLon array of doubles representing the points,
+     *               must have the following shape: <code>{lat_1, lon_1, lat_2, lon_2, ..., lat_N, lon_N}</code>
+     */
+    public void add(double[] latLon) {
+        if (latLon.length % 2 != 0) {
+            throw new IllegalArgumentException("Odd number of coordinates: " + latLon.length);
+        }
+        for (int i = 0; i < latLon.length; i += 2) {
+            add(latLon[i], latLon[i + 1]);
+        }
+    }
+
+    /**
+     * Passes the last span of the polyline to the sink, and resets the cursor, so that it can be used for
+     * another polyline.
+     */
+    public void finish() {
+        if (lastWasEmpty) {
+            sink.accept(new SameZoneSpan(Collections.emptySet(), index * 2 - 1));
+        } else if (inSpan) {
+            sink.accept(new SameZoneSpan(zones(), (index - 1) * 2 + 1));
+        }
+        geometryCount = 0;
+        inSpan = false;
+        lastWasEmpty = false;
+        index = 0;
+    }
+
+    private boolean containedByAll(double latitude, double longitude) {
+        for (int i = 0; i < geometryCount; i++) {
+            if (!cursor.contains(geometries[i], latitude, longitude)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Set<ZoneId> zones() {
+        Set<ZoneId> zones = new HashSet<>();
+        for (int i = 0; i < geometryCount; i++) {
+            zones.add(cursor.zoneOf(geometries[i]));
+        }
+        return zones;
+    }
+}
@@ -0,0 +1,81 @@
+package net.iakovlev.timeshape;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Splits a polyline into {@link SameZoneSpan}s, independently of how the zone geometries are stored.
+ */
+final class PolylineSpans {
+
+    interface PointTest<T> {
+        /**
+         * @return whether the point with given index in the polyline belongs to the candidate geometry
+         */
+        boolean contains(T candidate, int point);
+    }
+
+    private PolylineSpans() {
+    }
+
+    /**
+     * @param pointCount number of points in the polyline
+     * @param candidates all geometries which can potentially contain points of the polyline
+     * @param test       point-in-geometry test
+     * @param zoneOf     zone of the candidate geometry
+     */
+    static <T> List<SameZoneSpan> build(int pointCount, List<T> candidates, PointTest<T> test, Function<T, ZoneId> zoneOf) {
+        ArrayList<SameZoneSpan> sameZoneSegments = new ArrayList<>();
+        List<T> currentEntry = null;
+        // 1. find next matching geometry or geometries
+        // 2. for every match, increase the index
+        // 3. when it doesn't match anymore, save currentSegment to sameZoneSegments and start new one
+        // 4. goto 1.
+        int index = 0;
+        boolean lastWasEmpty = false;
+        while (index < pointCount) {
+            int p = index;
+            if (currentEntry == null) {
+                currentEntry = candidates
+                        .stream()
+                        .filter(e -> test.contains(e, p))
+                        .collect(Collectors.toList());
+            }
+            if (currentEntry.isEmpty()) {
+                currentEntry = null;
+                lastWasEmpty = true;
+                index++;
+            } else {
+                if (lastWasEmpty) {
+                    lastWasEmpty = false;
+                    sameZoneSegments.add(new SameZoneSpan(Collections.emptySet(), (index - 1) * 2 + 1));
+                    continue;
+                }
+                if (currentEntry.stream().allMatch(e -> test.contains(e, p))) {
+                    if (index == pointCount - 1) {
+                        sameZoneSegments.add(new SameZoneSpan(zonesOf(currentEntry, zoneOf), index * 2 + 1));
+                    }
+                    index++;
+                } else {
+                    sameZoneSegments.add(new SameZoneSpan(zonesOf(currentEntry, zoneOf), (index - 1) * 2 + 1));
+                    currentEntry = null;
+                }
+            }
+        }
+
+        if (lastWasEmpty) {
+            sameZoneSegments.add(new SameZoneSpan(Collections.emptySet(), index * 2 - 1));
+        }
+
+        return sameZoneSegments;
+    }
+
+    private static <T> Set<ZoneId> zonesOf(List<T> entries, Function<T, ZoneId> zoneOf) {
+        return entries.stream().map(zoneOf).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,173 @@
+package net.iakovlev.timeshape;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Reusable state for querying single points, created by {@link TimeZoneEngine#newQueryContext()}.
+ * The point, the spatial index iterator and the other intermediate objects are kept between the queries,
+ * so a query through the context doesn't allocate any objects.
+ * <p>
+ * A context created with {@link TimeZoneEngine#newQueryContext(boolean)} with affinity also remembers the geometries
+ * found by the previous query, and tests them first. Consecutive points of a device mostly stay in the same zone,
+ * so the spatial index then only needs to be walked when a query leaves the previous geometries. Otherwise, only
+ * the neighbouring geometries, which bounding boxes contain the point, are tested too. The results are always the
+ * same as without affinity, and {@link #getAffinityHitRate()} tells how often the previous geometries matched.
+ * <p>
+ * A context must not be used by multiple threads at the same time: keep one per thread,
+ * e.g. in a {@link ThreadLocal}.
+ */
+public final class QueryContext {
+    private final ZoneIndex.Cursor cursor;
+    private final List<ZoneId> zoneIds;
+    private final boolean affinity;
+    private final IntConsumer collector = this::addGeometry;
+    // geometries found by the previous query, in the source order
+    private int[] geometries = new int[4];
+    private int geometryCount;
+    // zones of the geometries, built on demand
+    private List<ZoneId> zones;
+    private long queryCount;
+    private long affinityHitCount;
+
+    QueryContext(ZoneIndex.Cursor cursor, List<ZoneId> zoneIds) {
+        this(cursor, zoneIds, false);
+    }
+
+    QueryContext(ZoneIndex.Cursor cursor, List<ZoneId> zoneIds, boolean affinity) {
+        this.cursor = cursor;
+        this.zoneIds = zoneIds;
+        this.affinity = affinity;
+    }
+
+    /**
+     * @param latitude  latitude part of query
+     * @param longitude longitude part of query
+     * @return position in {@link #getZoneIds()} of the zone {@link TimeZoneEngine#query(double, double)} would
+     * return, or {@link BatchQueryResult#NO_ZONE} if the point doesn't belong to any zone
+     */
+    public int queryOrdinal(double latitude, double longitude) {
+        if (!affinity) {
+            return cursor.queryOrdinal(latitude, longitude);
+        }
+        queryCount++;
+        int hint = geometryCount > 0 ? geometries[0] : -1;
+        int geometry = cursor.firstGeometry(latitude, longitude, hint);
+        if (geometry < 0) {
+            geometryCount = 0;
+            return BatchQueryResult.NO_ZONE;
+        }
+        if (geometry == hint) {
+            affinityHitCount++;
+        } else {
+            geometries[0] = geometry;
+            geometryCount = 1;
+            zones = null;
+        }
+        return cursor.ordinalOf(geometry);
+    }
+
+    /**
+     * Same as {@link TimeZoneEngine#query(double, double)}, without wrapping the result into {@link java.util.Optional}.
+     *
+     * @param latitude  latitude part of query
+     * @param longitude longitude part of query
+     * @return zone of the point, or null if the point doesn't belong to any zone
+     */
+    public ZoneId queryZoneId(double latitude, double longitude) {
+        int ordinal = queryOrdinal(latitude, longitude);
+        return ordinal == BatchQueryResult.NO_ZONE ? null : zoneIds.get(ordinal);
+    }
+
+    /**
+     * Same as {@link TimeZoneEngine#queryAll(double, double)}. Unlike the other queries of the context, it allocates
+     * the resulting list, unless the context has affinity and the point is in the same geometries as the previous one.
+     *
+     * @param latitude  latitude part of query
+     * @param longitude longitude part of query
+     * @return unmodifiable list of the zones of the point, empty if the point doesn't belong to any zone
+     */
+    public List<ZoneId> queryAll(double latitude, double longitude) {
+        if (affinity) {
+            queryCount++;
+            if (geometryCount > 0 && inPreviousGeometriesOnly(latitude, longitude)) {
+                affinityHitCount++;
+                return zonesOfGeometries();
+            }
+        }
+        geometryCount = 0;
+        zones = null;
+        cursor.findGeometries(latitude, longitude, collector);
+        // the index yields the geometries in arbitrary order, the result is in the source order
+        Arrays.sort(geometries, 0, geometryCount);
+        return zonesOfGeometries();
+    }
+
+    private List<ZoneId> zonesOfGeometries() {
+        if (zones == null) {
+            List<ZoneId> result = new ArrayList<>(geometryCount);
+            for (int i = 0; i < geometryCount; i++) {
+                result.add(cursor.zoneOf(geometries[i]));
+            }
+            zones = Collections.unmodifiableList(result);
+        }
+        return zones;
+    }
+
+    private boolean inPreviousGeometriesOnly(double latitude, double longitude) {
+        for (int i = 0; i < geometryCount; i++) {
+            if (!cursor.contains(geometries[i], latitude, longitude)) {
+                return false;
+            }
+        }
+        return cursor.noOtherContains(geometries, geometryCount, latitude, longitude);
+    }
+
+    private void addGeometry(int geometry) {
+        if (geometryCount == geometries.length) {
+            geometries = Arrays.copyOf(geometries, geometryCount * 2);
+        }
+        geometries[geometryCount++] = geometry;
+    }
+
+    /**
+     * @return distinct zones of the engine, which ordinals returned by {@link #queryOrdinal(double, double)} refer to
+     */
+    public List<ZoneId> getZoneIds() {
+        return zoneIds;
+    }
+
+    /**
+     * @return number of queries made through the context with affinity, 0 if the context has no affinity
+     */
+    public long getQueryCount() {
+        return queryCount;
+    }
+
+    /**
+     * @return number of queries answered by the geometries of the previous query, 0 if the context has no affinity
+     */
+    public long getAffinityHitCount() {
+        return affinityHitCount;
+    }
+
+    /**
+     * @return share of the queries answered by the geometries of the previous query,
+     * or 0 if there were no queries or the context has no affinity
+     */
+    public double getAffinityHitRate() {
+        return queryCount == 0 ? 0 : (double) affinityHitCount / queryCount;
+    }
+
+    /**
+     * Resets the counters of the queries and the affinity hits.
+     */
+    public void resetStats() {
+        queryCount = 0;
+        affinityHitCount = 0;
+    }
+}
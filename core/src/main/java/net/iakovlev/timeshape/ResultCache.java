@@ -0,0 +1,126 @@
+package net.iakovlev.timeshape;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of query results by the cells of a grid of fixed precision. A cell is cached only if no zone
+ * boundary passes through it, so that all points of the cell have the same result.
+ * <p>
+ * The cache is split into stripes, each of which is a small LRU map with its own lock, so that concurrent
+ * queries rarely wait for each other.
+ */
+final class ResultCache implements Serializable {
+    private static final int STRIPES = 16;
+    // marks the cells crossed by a zone boundary, so that they are not checked again on every query
+    private static final List<ZoneId> BOUNDARY = Collections.unmodifiableList(new ArrayList<>());
+    // Cells are treated as crossed by a boundary if an edge passes closer than that to them, since OperatorIntersects
+    // counts the points within its tolerance from an edge as inside, and the first query of a cell may be such point.
+    private static final double EDGE_MARGIN_DEGREES = 1e-7;
+
+    private final double precision;
+    private final int capacity;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ResultCache(double precision, int capacity) {
+        this.precision = precision;
+        this.capacity = capacity;
+        int stripeCapacity = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+    }
+
+    private final class Stripe extends LinkedHashMap<Long, List<ZoneId>> {
+        private final int stripeCapacity;
+
+        Stripe(int stripeCapacity) {
+            super(16, 0.75f, true);
+            this.stripeCapacity = stripeCapacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, List<ZoneId>> eldest) {
+            if (size() > stripeCapacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    List<ZoneId> query(ZoneIndex index, double latitude, double longitude) {
+        long row = (long) Math.floor((latitude + 90) / precision);
+        long column = (long) Math.floor((longitude + 180) / precision);
+        Long key = row << 32 | column;
+        Stripe stripe = stripes[(int) ((key * 0x9E3779B97F4A7C15L) >>> 60)];
+        List<ZoneId> cached;
+        synchronized (stripe) {
+            cached = stripe.get(key);
+        }
+        if (cached != null && cached != BOUNDARY) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        List<ZoneId> result = Collections.unmodifiableList(index.query(latitude, longitude));
+        if (cached == null) {
+            boolean boundary = index.hasBoundaryWithin(
+                    row * precision - 90 - EDGE_MARGIN_DEGREES, column * precision - 180 - EDGE_MARGIN_DEGREES,
+                    (row + 1) * precision - 90 + EDGE_MARGIN_DEGREES, (column + 1) * precision - 180 + EDGE_MARGIN_DEGREES);
+            synchronized (stripe) {
+                stripe.put(key, boundary ? BOUNDARY : result);
+            }
+        }
+        return result;
+    }
+
+    ResultCacheStats stats() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return new ResultCacheStats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    double getPrecision() {
+        return precision;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm(precision, capacity);
+    }
+
+    /**
+     * Only the configuration of the cache is serialized, the deserialized cache is empty.
+     */
+    private static final class SerializedForm implements Serializable {
+        private final double precision;
+        private final int capacity;
+
+        SerializedForm(double precision, int capacity) {
+            this.precision = precision;
+            this.capacity = capacity;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return new ResultCache(precision, capacity);
+        }
+    }
+}
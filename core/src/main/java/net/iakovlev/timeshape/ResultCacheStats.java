@@ -0,0 +1,59 @@
+package net.iakovlev.timeshape;
+
+/**
+ * Snapshot of the counters of the result cache, see {@link TimeZoneEngineOptions#withResultCache(double, int)}.
+ */
+public final class ResultCacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final int size;
+
+    ResultCacheStats(long hitCount, long missCount, long evictionCount, int size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.size = size;
+    }
+
+    /**
+     * @return number of queries answered from the cache
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return number of queries answered from the index, including the ones in cells crossed by zone boundaries
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return number of cells removed from the cache to keep it within its capacity
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return number of cells currently in the cache, including the ones known to be crossed by zone boundaries
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return ratio of hits to all queries, or 0 if there were no queries
+     */
+    public double getHitRate() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultCacheStats{hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + ", size=" + size + "}";
+    }
+}
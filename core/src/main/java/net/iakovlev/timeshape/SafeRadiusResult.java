@@ -0,0 +1,86 @@
+package net.iakovlev.timeshape;
+
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Result of {@link TimeZoneEngine#querySafeRadius(double, double)}: the zones of a point, and the distance the point
+ * can move in any direction without leaving them. As long as a moving object stays within this distance from the
+ * queried point, it doesn't need to be queried again.
+ */
+public final class SafeRadiusResult {
+    // mean radius of the Earth in meters
+    private static final double EARTH_RADIUS = 6_371_008.8;
+
+    private final double latitude;
+    private final double longitude;
+    private final List<ZoneId> zoneIds;
+    private final double safeRadius;
+
+    SafeRadiusResult(double latitude, double longitude, List<ZoneId> zoneIds, double safeRadius) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.zoneIds = zoneIds;
+        this.safeRadius = safeRadius;
+    }
+
+    /**
+     * @return latitude of the queried point
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * @return longitude of the queried point
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * @return the same as {@link TimeZoneEngine#queryAll(double, double)} would return for the point
+     */
+    public List<ZoneId> getZoneIds() {
+        return zoneIds;
+    }
+
+    /**
+     * @return the same as {@link TimeZoneEngine#query(double, double)} would return for the point
+     */
+    public Optional<ZoneId> getZoneId() {
+        return zoneIds.isEmpty() ? Optional.empty() : Optional.of(zoneIds.get(0));
+    }
+
+    /**
+     * The distance is measured on the equirectangular projection centered at the point and is a lower bound, which
+     * is close to the distance on the surface of the Earth for up to a few hundreds of kilometers. It's infinite
+     * if the engine has no zones at all.
+     *
+     * @return distance in meters from the point to the nearest boundary of any zone
+     */
+    public double getSafeRadius() {
+        return safeRadius;
+    }
+
+    /**
+     * @param latitude  latitude of the new position
+     * @param longitude longitude of the new position
+     * @return whether the new position is closer to the queried point than {@link #getSafeRadius()}, which means
+     * that it's in the same zones
+     */
+    public boolean isWithinSafeRadius(double latitude, double longitude) {
+        double dLatitude = Math.toRadians(latitude - this.latitude);
+        double dLongitude = Math.toRadians(longitude - this.longitude);
+        double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2) + Math.cos(Math.toRadians(this.latitude))
+                * Math.cos(Math.toRadians(latitude)) * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+        double distance = 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+        return distance < safeRadius;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: safe radius %.1f m", zoneIds, safeRadius);
+    }
+}
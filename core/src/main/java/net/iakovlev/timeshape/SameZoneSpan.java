@@ -2,10 +2,8 @@ package net.iakovlev.timeshape;
 
 import java.time.ZoneId;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * Represents contiguous span of points belonging to the same set of time zones
@@ -24,12 +22,39 @@ public final class SameZoneSpan {
         return endIndex;
     }
 
+    /**
+     * Position of the end of the span on the segment of the polyline starting at the point of
+     * {@link #getEndIndex()}, as fraction of the length of the segment. Only known for the spans returned by
+     * {@link TimeZoneEngine#queryPolyline(double[], boolean)} with segment awareness, {@link Double#NaN} otherwise.
+     * @return fraction from 0 inclusive to 1 exclusive, or {@link Double#NaN}
+     */
+    public double getEndFraction() {
+        return endFraction;
+    }
+
+    /**
+     * @return latitude of the end of the span, see {@link #getEndFraction()}
+     */
+    public double getEndLatitude() {
+        return endLatitude;
+    }
+
+    /**
+     * @return longitude of the end of the span, see {@link #getEndFraction()}
+     */
+    public double getEndLongitude() {
+        return endLongitude;
+    }
+
     private final Set<ZoneId> zoneIds;
     private final int endIndex;
+    private final double endFraction;
+    private final double endLatitude;
+    private final double endLongitude;
 
     @Override
     public int hashCode() {
-        return Objects.hash(zoneIds, endIndex);
+        return Objects.hash(zoneIds, endIndex, endFraction, endLatitude, endLongitude);
     }
 
     @Override
@@ -39,20 +64,29 @@ public final class SameZoneSpan {
         if (!(obj instanceof SameZoneSpan))
             return false;
         SameZoneSpan other = (SameZoneSpan) obj;
-        return other.endIndex == endIndex && other.zoneIds.equals(zoneIds);
+        return other.endIndex == endIndex && other.zoneIds.equals(zoneIds)
+                && Double.compare(other.endFraction, endFraction) == 0
+                && Double.compare(other.endLatitude, endLatitude) == 0
+                && Double.compare(other.endLongitude, endLongitude) == 0;
     }
 
     @Override
     public String toString() {
-        return String.format("%s: end index %d", zoneIds, endIndex);
+        if (Double.isNaN(endFraction)) {
+            return String.format("%s: end index %d", zoneIds, endIndex);
+        }
+        return String.format("%s: end index %d, fraction %f (%f, %f)", zoneIds, endIndex, endFraction, endLatitude, endLongitude);
     }
 
     SameZoneSpan(Set<ZoneId> zoneIds, int endIndex) {
-        this.zoneIds = new HashSet<>(zoneIds);
-        this.endIndex = endIndex;
+        this(zoneIds, endIndex, Double.NaN, Double.NaN, Double.NaN);
     }
 
-    static SameZoneSpan fromIndexEntries(List<Index.Entry> entries, int index) {
-        return new SameZoneSpan(entries.stream().map(e -> e.zoneId).collect(Collectors.toSet()), index);
+    SameZoneSpan(Set<ZoneId> zoneIds, int endIndex, double endFraction, double endLatitude, double endLongitude) {
+        this.zoneIds = new HashSet<>(zoneIds);
+        this.endIndex = endIndex;
+        this.endFraction = endFraction;
+        this.endLatitude = endLatitude;
+        this.endLongitude = endLongitude;
     }
 }
@@ -0,0 +1,64 @@
+package net.iakovlev.timeshape;
+
+/**
+ * Geometric predicates on polygon edges, shared by the geometry kinds of the indexes.
+ */
+final class Segments {
+    private Segments() {
+    }
+
+    /**
+     * @return whether the segment intersects the box, including touching its border
+     */
+    static boolean intersectsBox(double x1, double y1, double x2, double y2,
+                                 double minX, double minY, double maxX, double maxY) {
+        if (Math.max(x1, x2) < minX || Math.min(x1, x2) > maxX || Math.max(y1, y2) < minY || Math.min(y1, y2) > maxY) {
+            return false;
+        }
+        // the bounding boxes overlap, so the only remaining separating axis is the normal of the segment:
+        // the segment misses the box if all corners of the box are strictly on one side of its line
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double c1 = dx * (minY - y1) - dy * (minX - x1);
+        double c2 = dx * (minY - y1) - dy * (maxX - x1);
+        double c3 = dx * (maxY - y1) - dy * (minX - x1);
+        double c4 = dx * (maxY - y1) - dy * (maxX - x1);
+        return !((c1 > 0 && c2 > 0 && c3 > 0 && c4 > 0) || (c1 < 0 && c2 < 0 && c3 < 0 && c4 < 0));
+    }
+
+    /**
+     * @return position of the intersection of the segment A-B with the segment C-D as fraction of A-B from A,
+     * or -1 if the segments don't intersect or are parallel
+     */
+    static double crossing(double ax, double ay, double bx, double by,
+                           double cx, double cy, double dx, double dy) {
+        if (Math.max(cx, dx) < Math.min(ax, bx) || Math.min(cx, dx) > Math.max(ax, bx)
+                || Math.max(cy, dy) < Math.min(ay, by) || Math.min(cy, dy) > Math.max(ay, by)) {
+            return -1;
+        }
+        double abX = bx - ax;
+        double abY = by - ay;
+        double cdX = dx - cx;
+        double cdY = dy - cy;
+        double denominator = abX * cdY - abY * cdX;
+        if (denominator == 0) {
+            return -1;
+        }
+        double t = ((cx - ax) * cdY - (cy - ay) * cdX) / denominator;
+        double u = ((cx - ax) * abY - (cy - ay) * abX) / denominator;
+        return t >= 0 && t <= 1 && u >= 0 && u <= 1 ? t : -1;
+    }
+
+    /**
+     * @return squared distance from the point P to the segment A-B
+     */
+    static double squaredDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double length = dx * dx + dy * dy;
+        double t = length == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / length));
+        double x = ax + t * dx - px;
+        double y = ay + t * dy - py;
+        return x * x + y * y;
+    }
+}
@@ -0,0 +1,266 @@
+package net.iakovlev.timeshape;
+
+import com.esri.core.geometry.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Engine, which splits the world into square tiles of a given size and builds a separate bounded
+ * {@link TimeZoneEngine} for every tile, and routes every query to the tile of its point. Bounded engines are
+ * much smaller and faster than the one for the whole world, and the tiles can be built in parallel or lazily,
+ * on the first query hitting them, so that only the regions actually queried are paid for.
+ * <p>
+ * The polygons crossing the edges of a tile are clipped to the tile, see
+ * {@link TimeZoneEngineOptions#withClippedBoundaries(boolean)}, so the results are the same as the results
+ * of the engine for the whole world.
+ * <p>
+ * Instances are thread safe.
+ */
+public final class ShardedTimeZoneEngine {
+    private final static double MIN_LAT = -90;
+    private final static double MIN_LON = -180;
+    private final static double MAX_LAT = 90;
+    private final static double MAX_LON = 180;
+    private final static int MAX_TILES = 1 << 16;
+
+    private final static Logger log = LoggerFactory.getLogger(ShardedTimeZoneEngine.class);
+
+    private final double tileSize;
+    private final int columns;
+    private final int rows;
+    private final TimeZoneEngineOptions tileOptions;
+    private final List<ZoneContainer.Zone> zones;
+    private final List<ZoneId> knownZoneIds;
+    private final AtomicReferenceArray<TimeZoneEngine> tiles;
+    private final Object[] locks;
+    private final AtomicInteger remainingTiles;
+    // compressed zones of the container, released once every tile is built
+    private volatile List<Supplier<Index.EncodedFeature>> features;
+
+    private ShardedTimeZoneEngine(double tileSize, TimeZoneEngineOptions options, ZoneContainer container) {
+        this.tileSize = tileSize;
+        this.columns = (int) Math.ceil((MAX_LON - MIN_LON) / tileSize);
+        this.rows = (int) Math.ceil((MAX_LAT - MIN_LAT) / tileSize);
+        // tiles are already built in parallel, if the options ask for it, so every tile is built on a single thread
+        this.tileOptions = options.withParallelism(1).withExecutor(null).withClippedBoundaries(true);
+        this.zones = container.zones;
+        this.features = container.features(container.zones).collect(Collectors.toList());
+        // a zone might have several features
+        Set<ZoneId> zoneIds = new LinkedHashSet<>();
+        for (ZoneContainer.Zone zone : zones) {
+            try {
+                zoneIds.add(ZoneId.of(zone.name));
+            } catch (DateTimeException ex) {
+                // the index of every tile, which has the zone, logs it
+            }
+        }
+        this.knownZoneIds = Collections.unmodifiableList(new ArrayList<>(zoneIds));
+        this.tiles = new AtomicReferenceArray<>(columns * rows);
+        this.locks = new Object[columns * rows];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        this.remainingTiles = new AtomicInteger(columns * rows);
+    }
+
+    private static void validateTileSize(double tileSize) {
+        if (!(tileSize > 0) || tileSize > MAX_LON - MIN_LON) {
+            throw new IllegalArgumentException("tile size must be positive and at most 360 degrees, got " + tileSize);
+        }
+        if (Math.ceil((MAX_LON - MIN_LON) / tileSize) * Math.ceil((MAX_LAT - MIN_LAT) / tileSize) > MAX_TILES) {
+            throw new IllegalArgumentException("tile size " + tileSize + " gives more than " + MAX_TILES + " tiles");
+        }
+    }
+
+    private static ShardedTimeZoneEngine open(double tileSize, TimeZoneEngineOptions options) {
+        log.info("Initializing with tile size {}", tileSize);
+        validateTileSize(tileSize);
+        try (InputStream resourceAsStream = TimeZoneEngine.class.getResourceAsStream(ZoneContainer.RESOURCE)) {
+            try (BufferedInputStream bufferedStream = new BufferedInputStream(resourceAsStream)) {
+                return new ShardedTimeZoneEngine(tileSize, options, ZoneContainer.open(bufferedStream));
+            }
+        } catch (NullPointerException | IOException e) {
+            log.error("Unable to read resource file", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates a new instance of {@link ShardedTimeZoneEngine} and builds all of its tiles.
+     * This is a blocking long running operation.
+     *
+     * @param tileSize size of the tiles in degrees, the tiles at the eastern and northern edges of the world
+     *                 are smaller, if it doesn't divide 360 and 180
+     * @return an initialized instance of {@link ShardedTimeZoneEngine}
+     */
+    public static ShardedTimeZoneEngine initialize(double tileSize) {
+        return initialize(tileSize, TimeZoneEngineOptions.defaults());
+    }
+
+    /**
+     * Creates a new instance of {@link ShardedTimeZoneEngine} and builds all of its tiles using given
+     * {@link TimeZoneEngineOptions}. With {@link TimeZoneEngineOptions#withParallelism(int)} or
+     * {@link TimeZoneEngineOptions#withExecutor(java.util.concurrent.Executor)}, the tiles are built in parallel.
+     * This is a blocking long running operation.
+     *
+     * @param tileSize size of the tiles in degrees, see {@link #initialize(double)}
+     * @return an initialized instance of {@link ShardedTimeZoneEngine}
+     */
+    public static ShardedTimeZoneEngine initialize(double tileSize, TimeZoneEngineOptions options) {
+        ShardedTimeZoneEngine engine = open(tileSize, options);
+        engine.buildAll(options);
+        return engine;
+    }
+
+    /**
+     * Creates a new instance of {@link ShardedTimeZoneEngine}, which builds every tile on the first query hitting it,
+     * using given {@link TimeZoneEngineOptions}. Only the compressed data is read upfront, and kept in memory until
+     * every tile is built.
+     *
+     * @param tileSize size of the tiles in degrees, see {@link #initialize(double)}
+     * @return an instance of {@link ShardedTimeZoneEngine} without any tiles built
+     */
+    public static ShardedTimeZoneEngine initializeLazily(double tileSize, TimeZoneEngineOptions options) {
+        return open(tileSize, options);
+    }
+
+    private void buildAll(TimeZoneEngineOptions options) {
+        Executor executor = options.getExecutor();
+        ExecutorService ownExecutor = null;
+        if (executor == null && options.getParallelism() > 1) {
+            ownExecutor = Executors.newFixedThreadPool(options.getParallelism(), runnable -> {
+                Thread thread = new Thread(runnable, "timeshape-tile-builder");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor = ownExecutor;
+        }
+        try {
+            if (executor == null) {
+                for (int tile = 0; tile < tiles.length(); tile++) {
+                    tile(tile);
+                }
+            } else {
+                Executor pool = executor;
+                List<CompletableFuture<TimeZoneEngine>> built = new ArrayList<>(tiles.length());
+                for (int tile = 0; tile < tiles.length(); tile++) {
+                    int t = tile;
+                    built.add(CompletableFuture.supplyAsync(() -> tile(t), pool));
+                }
+                for (CompletableFuture<TimeZoneEngine> future : built) {
+                    future.join();
+                }
+            }
+        } catch (CompletionException ex) {
+            throw ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : new RuntimeException(ex.getCause());
+        } finally {
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return engine of the tile, building it first, if it's not built yet
+     */
+    private TimeZoneEngine tile(int tile) {
+        TimeZoneEngine engine = tiles.get(tile);
+        if (engine != null) {
+            return engine;
+        }
+        synchronized (locks[tile]) {
+            engine = tiles.get(tile);
+            if (engine == null) {
+                engine = build(tile);
+                tiles.set(tile, engine);
+                if (remainingTiles.decrementAndGet() == 0) {
+                    features = null;
+                }
+            }
+            return engine;
+        }
+    }
+
+    private TimeZoneEngine build(int tile) {
+        double minLon = MIN_LON + (tile % columns) * tileSize;
+        double minLat = MIN_LAT + (tile / columns) * tileSize;
+        Envelope boundaries = new Envelope(minLon, minLat, Math.min(MAX_LON, minLon + tileSize), Math.min(MAX_LAT, minLat + tileSize));
+        List<Supplier<Index.EncodedFeature>> all = features;
+        List<Supplier<Index.EncodedFeature>> selected = new ArrayList<>();
+        for (int i = 0; i < zones.size(); i++) {
+            if (zones.get(i).intersects(boundaries)) {
+                selected.add(all.get(i));
+            }
+        }
+        log.debug("Building tile {} of {} from {} zones", tile, tiles.length(), selected.size());
+        return TimeZoneEngine.of(
+                Index.buildEncoded(selected.stream(), selected.size(), boundaries, tileOptions), tileOptions);
+    }
+
+    /**
+     * Queries the tile of the point for all the zones at the point, see {@link TimeZoneEngine#queryAll(double, double)}.
+     *
+     * @param latitude  latitude part of query
+     * @param longitude longitude part of query
+     * @return List of all zones at given geo coordinate, empty if the coordinate is out of range.
+     * The list must not be modified, it might be shared between calls.
+     */
+    public List<ZoneId> queryAll(double latitude, double longitude) {
+        if (!(latitude >= MIN_LAT && latitude <= MAX_LAT && longitude >= MIN_LON && longitude <= MAX_LON)) {
+            return Collections.emptyList();
+        }
+        int column = Math.min(columns - 1, (int) Math.floor((longitude - MIN_LON) / tileSize));
+        int row = Math.min(rows - 1, (int) Math.floor((latitude - MIN_LAT) / tileSize));
+        return tile(row * columns + column).queryAll(latitude, longitude);
+    }
+
+    /**
+     * Queries the tile of the point for a {@link java.time.ZoneId}, see {@link TimeZoneEngine#query(double, double)}.
+     *
+     * @param latitude  latitude part of query
+     * @param longitude longitude part of query
+     * @return {@code Optional<ZoneId>#of(ZoneId)} if input corresponds
+     * to some zone, or {@link Optional#empty()} otherwise.
+     */
+    public Optional<ZoneId> query(double latitude, double longitude) {
+        final List<ZoneId> result = queryAll(latitude, longitude);
+        return result.size() > 0 ? Optional.of(result.get(0)) : Optional.empty();
+    }
+
+    /**
+     * Returns all the time zones that can be looked up, each of them once, no matter how many tiles it spans.
+     *
+     * @return all the time zones that can be looked up.
+     */
+    public List<ZoneId> getKnownZoneIds() {
+        return knownZoneIds;
+    }
+
+    /**
+     * @return number of the tiles, which are built
+     */
+    int getBuiltTileCount() {
+        return tiles.length() - remainingTiles.get();
+    }
+}
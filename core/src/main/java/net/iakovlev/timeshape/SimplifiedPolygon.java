@@ -0,0 +1,143 @@
+package net.iakovlev.timeshape;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Coarse level of detail of a polygon: the polygon simplified with Douglas-Peucker algorithm, together with
+ * the largest distance of the dropped vertices from it.
+ * <p>
+ * Every ring is split into chains between the kept vertices, and every chain stays within that distance from
+ * the edge replacing it, so the full polygon and the simplified one only differ within that distance from the
+ * simplified boundary. Points farther from it are in the full polygon exactly when they are in the simplified
+ * one, and only the points in the band around the boundary need the full polygon.
+ */
+final class SimplifiedPolygon implements Serializable {
+    // added to the error, so that the rounding of the distances can't move a point out of the band
+    private static final double MARGIN = 1e-7;
+
+    private final SlabPolygon polygon;
+    private final double error;
+
+    private SimplifiedPolygon(SlabPolygon polygon, double error) {
+        this.polygon = polygon;
+        this.error = error;
+    }
+
+    /**
+     * @param ringStarts  start of every ring in {@code coordinates}, followed by the end of the last ring
+     * @param coordinates interleaved longitudes and latitudes of the vertices
+     * @param tolerance   largest allowed distance of the dropped vertices from the simplified polygon, in degrees
+     * @param arena       arena to keep the simplified polygon in, outside of the heap, or null, see {@link SlabPolygon}
+     * @return the simplified polygon, or null if no vertex can be dropped
+     */
+    static SimplifiedPolygon build(int[] ringStarts, float[] coordinates, double tolerance, DirectArena arena) {
+        int ringCount = ringStarts.length - 1;
+        boolean[] kept = new boolean[coordinates.length / 2];
+        double error = simplify(ringStarts, coordinates, tolerance, kept);
+        int keptCount = 0;
+        for (boolean k : kept) {
+            if (k) {
+                keptCount++;
+            }
+        }
+        if (keptCount == kept.length) {
+            return null;
+        }
+        int[] simplifiedStarts = new int[ringCount + 1];
+        float[] simplified = new float[keptCount * 2];
+        int position = 0;
+        for (int ring = 0; ring < ringCount; ring++) {
+            simplifiedStarts[ring] = position;
+            for (int i = ringStarts[ring]; i < ringStarts[ring + 1]; i += 2) {
+                if (kept[i / 2]) {
+                    simplified[position++] = coordinates[i];
+                    simplified[position++] = coordinates[i + 1];
+                }
+            }
+        }
+        simplifiedStarts[ringCount] = position;
+        return new SimplifiedPolygon(SlabPolygon.build(simplifiedStarts, simplified, arena), error);
+    }
+
+    /**
+     * Douglas-Peucker simplification of every ring, the first and the last vertex of a ring are always kept.
+     *
+     * @param kept receives whether every vertex is kept
+     * @return the largest distance of the dropped vertices from the edges replacing them
+     */
+    static double simplify(int[] ringStarts, float[] coordinates, double tolerance, boolean[] kept) {
+        int ringCount = ringStarts.length - 1;
+        double error = 0;
+        int[] stack = new int[16];
+        for (int ring = 0; ring < ringCount; ring++) {
+            int first = ringStarts[ring] / 2;
+            int last = ringStarts[ring + 1] / 2 - 1;
+            if (last < first) {
+                continue;
+            }
+            // the edge closing the ring is kept as is, the rest of the ring is simplified as an open chain
+            kept[first] = true;
+            kept[last] = true;
+            int size = 0;
+            stack[size++] = first;
+            stack[size++] = last;
+            while (size > 0) {
+                int to = stack[--size];
+                int from = stack[--size];
+                int farthest = -1;
+                double farthestDistance = 0;
+                for (int i = from + 1; i < to; i++) {
+                    double distance = Segments.squaredDistance(coordinates[i * 2], coordinates[i * 2 + 1],
+                            coordinates[from * 2], coordinates[from * 2 + 1], coordinates[to * 2], coordinates[to * 2 + 1]);
+                    if (distance > farthestDistance) {
+                        farthest = i;
+                        farthestDistance = distance;
+                    }
+                }
+                if (farthest < 0) {
+                    continue;
+                }
+                if (farthestDistance > tolerance * tolerance) {
+                    kept[farthest] = true;
+                    if (size + 4 > stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[size++] = from;
+                    stack[size++] = farthest;
+                    stack[size++] = farthest;
+                    stack[size++] = to;
+                } else {
+                    error = Math.max(error, Math.sqrt(farthestDistance));
+                }
+            }
+        }
+        return error;
+    }
+
+    /**
+     * Writes the error and the simplified polygon into a snapshot.
+     */
+    void writeSnapshot(Snapshot.Output out) throws IOException {
+        out.putDouble(error);
+        polygon.writeSnapshot(out);
+    }
+
+    /**
+     * Reads the polygon written by {@link #writeSnapshot(Snapshot.Output)}.
+     */
+    static SimplifiedPolygon readSnapshot(ByteBuffer in, DirectArena arena) {
+        double error = in.getDouble();
+        return new SimplifiedPolygon(SlabPolygon.readSnapshot(in, arena), error);
+    }
+
+    /**
+     * @return 1 if the full polygon contains the point, 0 if it doesn't, -1 if the point is too close to
+     * the boundary to tell, and the full polygon must be tested
+     */
+    int classify(double x, double y) {
+        return polygon.classify(x, y, error + MARGIN);
+    }
+}
@@ -0,0 +1,399 @@
+package net.iakovlev.timeshape;
+
+import com.esri.core.geometry.Polygon;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Polygon stored as a packed array of its edges, with an index of the edges by horizontal slabs.
+ * <p>
+ * The bounding box of the polygon is split into slabs of equal height, and every slab lists the edges
+ * overlapping it vertically. A horizontal ray from a point crosses only the edges of the slab the point is in,
+ * so the even-odd point in polygon test, which is the fill rule Esri geometry API uses by default, only needs
+ * to look at those edges instead of all edges of the polygon.
+ * <p>
+ * The edges and the slabs are either arrays on the heap, or a part of a direct buffer shared with the other polygons
+ * of the index, see {@link DirectArena}, so that off-heap polygons only leave a handful of small objects to the
+ * garbage collector.
+ */
+final class SlabPolygon implements Serializable {
+    private static final int EDGES_PER_SLAB = 4;
+    private static final int MAX_SLABS = 4096;
+
+    // x1, y1, x2, y2 of every edge, in the order of the rings and their vertices
+    private final FloatBuffer edges;
+    // first edge of every ring, followed by the number of edges
+    private final int[] ringStarts;
+    private final boolean offHeap;
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+    private final int slabCount;
+    private final double slabsPerDegree;
+    // position in slabEdges of the first edge of every slab, followed by the length of slabEdges
+    private final IntBuffer slabStarts;
+    // offsets in edges of the non horizontal edges of every slab
+    private final IntBuffer slabEdges;
+    // offsets in edges of the horizontal edges, which no ray crosses, but a segment can, sorted by their latitude
+    private final IntBuffer horizontalEdges;
+
+    /**
+     * @param arena arena to keep the edges and the slabs in, instead of arrays, or null to keep them on the heap
+     */
+    private SlabPolygon(float[] edges, int[] ringStarts, DirectArena arena) {
+        this.ringStarts = ringStarts;
+        this.offHeap = arena != null;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        // the start of every edge is a vertex, and every vertex starts an edge
+        for (int e = 0; e < edges.length; e += 4) {
+            minX = Math.min(minX, edges[e]);
+            minY = Math.min(minY, edges[e + 1]);
+            maxX = Math.max(maxX, edges[e]);
+            maxY = Math.max(maxY, edges[e + 1]);
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        int edgeCount = edges.length / 4;
+        this.slabCount = maxY > minY ? Math.max(1, Math.min(MAX_SLABS, edgeCount / EDGES_PER_SLAB)) : 1;
+        this.slabsPerDegree = maxY > minY ? slabCount / (maxY - minY) : 0;
+
+        // every edge goes to all slabs between the ones of its ends, computed the same way as for the queries,
+        // so that whichever slab a point is put into, it has all edges the ray from the point can cross
+        int[] slabStarts = new int[slabCount + 1];
+        for (int e = 0; e < edges.length; e += 4) {
+            if (edges[e + 1] != edges[e + 3]) {
+                int last = slabOf(Math.max(edges[e + 1], edges[e + 3]));
+                for (int slab = slabOf(Math.min(edges[e + 1], edges[e + 3])); slab <= last; slab++) {
+                    slabStarts[slab + 1]++;
+                }
+            }
+        }
+        for (int slab = 0; slab < slabCount; slab++) {
+            slabStarts[slab + 1] += slabStarts[slab];
+        }
+        int[] slabEdges = new int[slabStarts[slabCount]];
+        int[] horizontalEdges = new int[edgeCount - slabEdgeCount(edges)];
+        int[] positions = slabStarts.clone();
+        int horizontal = 0;
+        for (int e = 0; e < edges.length; e += 4) {
+            if (edges[e + 1] != edges[e + 3]) {
+                int last = slabOf(Math.max(edges[e + 1], edges[e + 3]));
+                for (int slab = slabOf(Math.min(edges[e + 1], edges[e + 3])); slab <= last; slab++) {
+                    slabEdges[positions[slab]++] = e;
+                }
+            } else {
+                horizontalEdges[horizontal++] = e;
+            }
+        }
+        sortByY(horizontalEdges, edges);
+        if (arena != null) {
+            ByteBuffer buffer = arena.allocate(
+                    (edges.length + slabStarts.length + slabEdges.length + horizontalEdges.length) * 4);
+            this.edges = slice(buffer, edges.length).asFloatBuffer().put(edges);
+            this.slabStarts = slice(buffer, slabStarts.length).asIntBuffer().put(slabStarts);
+            this.slabEdges = slice(buffer, slabEdges.length).asIntBuffer().put(slabEdges);
+            this.horizontalEdges = slice(buffer, horizontalEdges.length).asIntBuffer().put(horizontalEdges);
+            // the bulk puts moved the positions, but only the absolute positions are used afterwards
+            ((Buffer) this.edges).rewind();
+        } else {
+            this.edges = FloatBuffer.wrap(edges);
+            this.slabStarts = IntBuffer.wrap(slabStarts);
+            this.slabEdges = IntBuffer.wrap(slabEdges);
+            this.horizontalEdges = IntBuffer.wrap(horizontalEdges);
+        }
+    }
+
+    /**
+     * @return the next {@code count} ints of the buffer, which position is moved past them
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int count) {
+        ByteBuffer slice = buffer.slice().order(ByteOrder.nativeOrder());
+        ((Buffer) slice).limit(count * 4);
+        ((Buffer) buffer).position(buffer.position() + count * 4);
+        return slice;
+    }
+
+    private static void sortByY(int[] horizontalEdges, float[] edges) {
+        Integer[] sorted = new Integer[horizontalEdges.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = horizontalEdges[i];
+        }
+        Arrays.sort(sorted, (a, b) -> Float.compare(edges[a + 1], edges[b + 1]));
+        for (int i = 0; i < sorted.length; i++) {
+            horizontalEdges[i] = sorted[i];
+        }
+    }
+
+    /**
+     * @return position in horizontalEdges of the first edge with latitude at least y
+     */
+    private int firstHorizontalEdge(double y) {
+        int low = 0;
+        int high = horizontalEdges.limit();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (edges.get(horizontalEdges.get(middle) + 1) < y) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int slabEdgeCount(float[] edges) {
+        int count = 0;
+        for (int e = 0; e < edges.length; e += 4) {
+            if (edges[e + 1] != edges[e + 3]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param ringStarts  start of every ring in {@code coordinates}, followed by the end of the last ring
+     * @param coordinates interleaved longitudes and latitudes of the vertices
+     */
+    static SlabPolygon build(int[] ringStarts, float[] coordinates) {
+        return build(ringStarts, coordinates, null);
+    }
+
+    /**
+     * @param ringStarts  start of every ring in {@code coordinates}, followed by the end of the last ring
+     * @param coordinates interleaved longitudes and latitudes of the vertices
+     * @param arena       arena to keep the polygon in, outside of the Java heap, or null to keep it on the heap
+     */
+    static SlabPolygon build(int[] ringStarts, float[] coordinates, DirectArena arena) {
+        int ringCount = ringStarts.length - 1;
+        float[] edges = new float[ringStarts[ringCount] * 2];
+        int[] edgeRingStarts = new int[ringCount + 1];
+        int e = 0;
+        for (int ring = 0; ring < ringCount; ring++) {
+            edgeRingStarts[ring] = e / 4;
+            int start = ringStarts[ring];
+            int end = ringStarts[ring + 1];
+            for (int i = start; i < end; i += 2) {
+                // the last edge closes the ring
+                int next = i + 2 < end ? i + 2 : start;
+                edges[e++] = coordinates[i];
+                edges[e++] = coordinates[i + 1];
+                edges[e++] = coordinates[next];
+                edges[e++] = coordinates[next + 1];
+            }
+        }
+        edgeRingStarts[ringCount] = e / 4;
+        return new SlabPolygon(edges, edgeRingStarts, arena);
+    }
+
+    /**
+     * @return x1, y1, x2, y2 of every edge
+     */
+    float[] edges() {
+        float[] result = new float[edges.limit()];
+        FloatBuffer source = edges.duplicate();
+        ((Buffer) source).rewind();
+        source.get(result);
+        return result;
+    }
+
+    private int slabOf(double y) {
+        int slab = (int) ((y - minY) * slabsPerDegree);
+        return slab < 0 ? 0 : Math.min(slab, slabCount - 1);
+    }
+
+    boolean contains(double x, double y) {
+        if (!(x >= minX && x <= maxX && y >= minY && y <= maxY)) {
+            return false;
+        }
+        int slab = slabOf(y);
+        boolean inside = false;
+        for (int i = slabStarts.get(slab), last = slabStarts.get(slab + 1); i < last; i++) {
+            int e = slabEdges.get(i);
+            double x1 = edges.get(e);
+            double y1 = edges.get(e + 1);
+            double x2 = edges.get(e + 2);
+            double y2 = edges.get(e + 3);
+            if ((y1 > y) != (y2 > y) && x < (x2 - x1) * (y - y1) / (y2 - y1) + x1) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Same as {@link #contains(double, double)}, unless the point is closer than {@code margin} to an edge.
+     *
+     * @return 1 if the polygon contains the point, 0 if it doesn't, -1 if the point is within the margin
+     * of the boundary
+     */
+    int classify(double x, double y, double margin) {
+        if (!(x >= minX - margin && x <= maxX + margin && y >= minY - margin && y <= maxY + margin)) {
+            return 0;
+        }
+        double squaredMargin = margin * margin;
+        for (int slab = slabOf(y - margin), lastSlab = slabOf(y + margin); slab <= lastSlab; slab++) {
+            for (int i = slabStarts.get(slab), last = slabStarts.get(slab + 1); i < last; i++) {
+                if (isWithin(slabEdges.get(i), x, y, margin, squaredMargin)) {
+                    return -1;
+                }
+            }
+        }
+        for (int i = firstHorizontalEdge(y - margin); i < horizontalEdges.limit(); i++) {
+            int e = horizontalEdges.get(i);
+            if (edges.get(e + 1) > y + margin) {
+                break;
+            }
+            if (isWithin(e, x, y, margin, squaredMargin)) {
+                return -1;
+            }
+        }
+        return contains(x, y) ? 1 : 0;
+    }
+
+    private boolean isWithin(int e, double x, double y, double margin, double squaredMargin) {
+        double x1 = edges.get(e);
+        double y1 = edges.get(e + 1);
+        double x2 = edges.get(e + 2);
+        double y2 = edges.get(e + 3);
+        return Math.min(x1, x2) <= x + margin && Math.max(x1, x2) >= x - margin
+                && Math.min(y1, y2) <= y + margin && Math.max(y1, y2) >= y - margin
+                && Segments.squaredDistance(x, y, x1, y1, x2, y2) <= squaredMargin;
+    }
+
+    /**
+     * Passes to the consumer the positions of all intersections of the segment A-B with the edges of the polygon,
+     * as fractions of A-B from A. Only the edges in the slabs spanned by the segment are looked at.
+     */
+    void findCrossings(double ax, double ay, double bx, double by, DoubleConsumer consumer) {
+        if (Math.max(ax, bx) < minX || Math.min(ax, bx) > maxX || Math.max(ay, by) < minY || Math.min(ay, by) > maxY) {
+            return;
+        }
+        int firstSlab = slabOf(Math.min(ay, by));
+        int lastSlab = slabOf(Math.max(ay, by));
+        for (int slab = firstSlab; slab <= lastSlab; slab++) {
+            for (int i = slabStarts.get(slab), last = slabStarts.get(slab + 1); i < last; i++) {
+                int e = slabEdges.get(i);
+                // an edge spanning several slabs is only tested in the first of them the segment spans too
+                if (slab == firstSlab || slab == slabOf(Math.min(edges.get(e + 1), edges.get(e + 3)))) {
+                    crossing(e, ax, ay, bx, by, consumer);
+                }
+            }
+        }
+        for (int i = 0; i < horizontalEdges.limit(); i++) {
+            int e = horizontalEdges.get(i);
+            crossing(e, ax, ay, bx, by, consumer);
+        }
+    }
+
+    private void crossing(int e, double ax, double ay, double bx, double by, DoubleConsumer consumer) {
+        double t = Segments.crossing(ax, ay, bx, by, edges.get(e), edges.get(e + 1), edges.get(e + 2), edges.get(e + 3));
+        if (t >= 0) {
+            consumer.accept(t);
+        }
+    }
+
+    /**
+     * @return whether any edge of the polygon intersects the box, only the edges in the slabs spanned by the box,
+     * and the horizontal edges, are looked at
+     */
+    boolean hasEdgeWithin(double minX, double minY, double maxX, double maxY) {
+        if (maxX < this.minX || minX > this.maxX || maxY < this.minY || minY > this.maxY) {
+            return false;
+        }
+        for (int slab = slabOf(minY), lastSlab = slabOf(maxY); slab <= lastSlab; slab++) {
+            for (int i = slabStarts.get(slab), last = slabStarts.get(slab + 1); i < last; i++) {
+                if (edgeIntersectsBox(slabEdges.get(i), minX, minY, maxX, maxY)) {
+                    return true;
+                }
+            }
+        }
+        for (int i = firstHorizontalEdge(minY); i < horizontalEdges.limit(); i++) {
+            int e = horizontalEdges.get(i);
+            if (edges.get(e + 1) > maxY) {
+                break;
+            }
+            if (edgeIntersectsBox(e, minX, minY, maxX, maxY)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean edgeIntersectsBox(int e, double minX, double minY, double maxX, double maxY) {
+        return Segments.intersectsBox(edges.get(e), edges.get(e + 1), edges.get(e + 2), edges.get(e + 3), minX, minY, maxX, maxY);
+    }
+
+    /**
+     * @return the same polygon as Esri geometry
+     */
+    Polygon toPolygon() {
+        Polygon polygon = new Polygon();
+        for (int ring = 0; ring < ringStarts.length - 1; ring++) {
+            int first = ringStarts[ring] * 4;
+            polygon.startPath(edges.get(first), edges.get(first + 1));
+            for (int e = first + 4; e < ringStarts[ring + 1] * 4; e += 4) {
+                polygon.lineTo(edges.get(e), edges.get(e + 1));
+            }
+        }
+        return polygon;
+    }
+
+    /**
+     * Writes the edges of the polygon, the slabs are computed again when it's read, which takes a single pass
+     * over the edges, and keeps the snapshot several times smaller.
+     */
+    void writeSnapshot(Snapshot.Output out) throws IOException {
+        out.putFloats(edges());
+        out.putInts(ringStarts);
+    }
+
+    /**
+     * Reads the polygon written by {@link #writeSnapshot(Snapshot.Output)}.
+     *
+     * @param arena arena to keep the polygon in, outside of the Java heap, or null to keep it on the heap
+     */
+    static SlabPolygon readSnapshot(ByteBuffer in, DirectArena arena) {
+        float[] edges = Snapshot.getFloats(in);
+        int[] ringStarts = Snapshot.getInts(in);
+        return new SlabPolygon(edges, ringStarts, arena);
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm(edges(), ringStarts, offHeap);
+    }
+
+    /**
+     * Buffers can't be serialized, so only the edges are, and the slabs are computed again on deserialization.
+     */
+    private static final class SerializedForm implements Serializable {
+        private final float[] edges;
+        private final int[] ringStarts;
+        private final boolean offHeap;
+
+        SerializedForm(float[] edges, int[] ringStarts, boolean offHeap) {
+            this.edges = edges;
+            this.ringStarts = ringStarts;
+            this.offHeap = offHeap;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return new SlabPolygon(edges, ringStarts, offHeap ? DirectArena.deserializing() : null);
+        }
+    }
+}
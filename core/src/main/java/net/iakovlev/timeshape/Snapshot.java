@@ -0,0 +1,302 @@
+package net.iakovlev.timeshape;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a {@link TimeZoneEngine}, see {@link TimeZoneEngine#writeSnapshot(OutputStream)}.
+ * <p>
+ * The snapshot starts with a header of {@link #MAGIC} and {@link #VERSION}, as little endian ints. The payload
+ * follows in chunks, each preceded by its length as a little endian int, and ends with an empty chunk and the CRC32
+ * of the payload, so that it's written without being buffered as a whole. The payload is the configuration of the
+ * result cache, followed by the kind of the index and the index itself, as written by
+ * {@link ZoneIndex#writeSnapshot(Output)}: a packed index file as is, or the coordinates and the acceleration
+ * structures of an in-memory index as flat arrays, which are read back with bulk copies instead of being built again.
+ */
+final class Snapshot {
+    static final int MAGIC = 0x4E535354; // "TSSN" in little endian
+    static final int VERSION = 3;
+    static final int INDEX = 1;
+    static final int PACKED_INDEX = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int CHUNK_SIZE = 1 << 16;
+    // the payload is read into an array
+    private static final int MAX_PAYLOAD_SIZE = Integer.MAX_VALUE - 8;
+
+    final ZoneIndex index;
+    final ResultCache cache;
+
+    private Snapshot(ZoneIndex index, ResultCache cache) {
+        this.index = index;
+        this.cache = cache;
+    }
+
+    static void write(ZoneIndex index, ResultCache cache, OutputStream out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION);
+        out.write(header.array());
+        Output payload = new Output(out);
+        payload.putDouble(cache != null ? cache.getPrecision() : 0);
+        payload.putInt(cache != null ? cache.getCapacity() : 0);
+        index.writeSnapshot(payload);
+        payload.finish();
+    }
+
+    static Snapshot read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] headerBytes = new byte[HEADER_SIZE];
+        data.readFully(headerBytes);
+        ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a snapshot");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version " + version + ", expected " + VERSION);
+        }
+        ByteBuffer payload;
+        try {
+            payload = readPayload(data, headerBytes);
+        } catch (EOFException ex) {
+            throw new IllegalArgumentException("Corrupted snapshot: truncated", ex);
+        }
+        double cachePrecision = payload.getDouble();
+        int cacheCapacity = payload.getInt();
+        int kind = payload.getInt();
+        ZoneIndex index;
+        if (kind == INDEX) {
+            index = Index.readSnapshot(payload);
+        } else if (kind == PACKED_INDEX) {
+            index = PackedIndex.readSnapshot(payload);
+        } else {
+            throw new IllegalArgumentException("Unknown kind of index " + kind + " in snapshot");
+        }
+        return new Snapshot(index, cacheCapacity > 0 ? new ResultCache(cachePrecision, cacheCapacity) : null);
+    }
+
+    /**
+     * Reads the chunks of the payload into an array, and checks their checksum.
+     */
+    private static ByteBuffer readPayload(DataInputStream data, byte[] scratch) throws IOException {
+        byte[] payloadBytes = new byte[CHUNK_SIZE];
+        int length = 0;
+        CRC32 crc = new CRC32();
+        for (int chunk = readInt(data, scratch); chunk != 0; chunk = readInt(data, scratch)) {
+            if (chunk < 0 || chunk > CHUNK_SIZE) {
+                throw new IllegalArgumentException("Corrupted snapshot: chunk length " + chunk);
+            }
+            if (chunk > MAX_PAYLOAD_SIZE - length) {
+                throw new IllegalArgumentException("Snapshot payload is larger than " + MAX_PAYLOAD_SIZE + " bytes");
+            }
+            if (length + chunk > payloadBytes.length) {
+                payloadBytes = Arrays.copyOf(payloadBytes, (int) Math.min(MAX_PAYLOAD_SIZE, payloadBytes.length * 2L));
+            }
+            data.readFully(payloadBytes, length, chunk);
+            crc.update(payloadBytes, length, chunk);
+            length += chunk;
+        }
+        if ((int) crc.getValue() != readInt(data, scratch)) {
+            throw new IllegalArgumentException("Corrupted snapshot: checksum mismatch");
+        }
+        return ByteBuffer.wrap(payloadBytes, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads a little endian int, using {@code scratch} of at least 4 bytes.
+     */
+    private static int readInt(DataInputStream in, byte[] scratch) throws IOException {
+        in.readFully(scratch, 0, 4);
+        return ByteBuffer.wrap(scratch, 0, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    /**
+     * Little endian writer of the payload, which streams it in chunks of at most {@link #CHUNK_SIZE} bytes,
+     * each preceded by its length, and updates the checksum as the chunks are written. Arrays larger than
+     * a chunk are split, so the payload is never held in memory as a whole.
+     */
+    static final class Output {
+        private final OutputStream out;
+        private final CRC32 crc = new CRC32();
+        // the length of the chunk, followed by the chunk
+        private final byte[] bytes = new byte[4 + CHUNK_SIZE];
+        private final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        private Output(OutputStream out) {
+            this.out = out;
+            ((Buffer) buffer).position(4);
+        }
+
+        /**
+         * Writes the chunk buffered so far, if there is one.
+         */
+        private void flush() throws IOException {
+            int length = buffer.position() - 4;
+            if (length > 0) {
+                buffer.putInt(0, length);
+                crc.update(bytes, 4, length);
+                out.write(bytes, 0, 4 + length);
+                ((Buffer) buffer).position(4);
+            }
+        }
+
+        /**
+         * Writes the last chunk, the empty chunk which ends the payload, and the checksum.
+         */
+        private void finish() throws IOException {
+            flush();
+            ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt(0).putInt((int) crc.getValue());
+            out.write(trailer.array());
+        }
+
+        /**
+         * Makes room for at least one element of {@code size} bytes.
+         *
+         * @return the number of such elements the chunk has room for
+         */
+        private int room(int size) throws IOException {
+            if (buffer.remaining() < size) {
+                flush();
+            }
+            return buffer.remaining() / size;
+        }
+
+        private void skip(int length) {
+            ((Buffer) buffer).position(buffer.position() + length);
+        }
+
+        void putInt(int value) throws IOException {
+            room(4);
+            buffer.putInt(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            room(8);
+            buffer.putDouble(value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            putInt(encoded.length);
+            putBytes(encoded);
+        }
+
+        void putBytes(byte[] values) throws IOException {
+            for (int i = 0; i < values.length; ) {
+                int count = Math.min(values.length - i, room(1));
+                buffer.put(values, i, count);
+                i += count;
+            }
+        }
+
+        /**
+         * Writes the number of remaining bytes of the buffer, followed by the bytes.
+         */
+        void putBuffer(ByteBuffer values) throws IOException {
+            ByteBuffer source = values.duplicate();
+            putInt(source.remaining());
+            while (source.hasRemaining()) {
+                int count = Math.min(source.remaining(), room(1));
+                ByteBuffer part = source.slice();
+                ((Buffer) part).limit(count);
+                buffer.put(part);
+                ((Buffer) source).position(source.position() + count);
+            }
+        }
+
+        /**
+         * Writes the length of the array, followed by its elements.
+         */
+        void putInts(int[] values) throws IOException {
+            putInt(values.length);
+            for (int i = 0; i < values.length; ) {
+                int count = Math.min(values.length - i, room(4));
+                buffer.asIntBuffer().put(values, i, count);
+                skip(count * 4);
+                i += count;
+            }
+        }
+
+        /**
+         * Writes the length of the array, followed by its elements.
+         */
+        void putFloats(float[] values) throws IOException {
+            putInt(values.length);
+            for (int i = 0; i < values.length; ) {
+                int count = Math.min(values.length - i, room(4));
+                buffer.asFloatBuffer().put(values, i, count);
+                skip(count * 4);
+                i += count;
+            }
+        }
+
+        /**
+         * Writes the length of the array, followed by its elements.
+         */
+        void putShorts(short[] values) throws IOException {
+            putInt(values.length);
+            for (int i = 0; i < values.length; ) {
+                int count = Math.min(values.length - i, room(2));
+                buffer.asShortBuffer().put(values, i, count);
+                skip(count * 2);
+                i += count;
+            }
+        }
+    }
+
+    static String getString(ByteBuffer in) {
+        byte[] encoded = new byte[in.getInt()];
+        in.get(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the bytes written by {@link Output#putBuffer(ByteBuffer)}, without copying them.
+     */
+    static ByteBuffer getBuffer(ByteBuffer in) {
+        int length = in.getInt();
+        ByteBuffer result = in.slice();
+        ((Buffer) result).limit(length);
+        ((Buffer) in).position(in.position() + length);
+        return result;
+    }
+
+    /**
+     * Reads an array written by {@link Output#putInts(int[])}.
+     */
+    static int[] getInts(ByteBuffer in) {
+        int[] values = new int[in.getInt()];
+        in.asIntBuffer().get(values);
+        ((Buffer) in).position(in.position() + values.length * 4);
+        return values;
+    }
+
+    /**
+     * Reads an array written by {@link Output#putFloats(float[])}.
+     */
+    static float[] getFloats(ByteBuffer in) {
+        float[] values = new float[in.getInt()];
+        in.asFloatBuffer().get(values);
+        ((Buffer) in).position(in.position() + values.length * 4);
+        return values;
+    }
+
+    /**
+     * Reads an array written by {@link Output#putShorts(short[])}.
+     */
+    static short[] getShorts(ByteBuffer in) {
+        short[] values = new short[in.getInt()];
+        in.asShortBuffer().get(values);
+        ((Buffer) in).position(in.position() + values.length * 2);
+        return values;
+    }
+}
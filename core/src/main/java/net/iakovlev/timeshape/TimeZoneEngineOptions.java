@@ -0,0 +1,353 @@
+package net.iakovlev.timeshape;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Optional settings for {@link TimeZoneEngine#initialize(TimeZoneEngineOptions)} and its overloads.
+ * <p>
+ * Instances are immutable: every {@code with*} method returns a modified copy, so a single instance
+ * can safely be shared and reused to initialize several engines.
+ * <p>
+ * Example invocation:
+ * {{{
+ * TimeZoneEngine engine = TimeZoneEngine.initialize(
+ *         TimeZoneEngineOptions.defaults()
+ *                 .withAcceleratedGeometry(true)
+ *                 .withLookupGrid(0.1));
+ * }}}
+ */
+public final class TimeZoneEngineOptions {
+
+    /**
+     * Memory budget of the lookup grid, used when it's not given explicitly.
+     */
+    public static final long DEFAULT_LOOKUP_GRID_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private boolean accelerateGeometry = false;
+    private double lookupGridResolution = 0;
+    private long lookupGridMemoryBudget = DEFAULT_LOOKUP_GRID_MEMORY_BUDGET;
+    private boolean lazyGeometry = false;
+    private int maxMaterializedGeometries = 0;
+    private boolean packedGeometry = false;
+    private boolean offHeapGeometry = false;
+    private double levelOfDetailTolerance = 0;
+    private double resultCachePrecision = 0;
+    private int resultCacheCapacity = 0;
+    private int parallelism = 1;
+    private Executor executor = null;
+    private boolean clipToBoundaries = false;
+
+    private TimeZoneEngineOptions() {
+    }
+
+    private TimeZoneEngineOptions(TimeZoneEngineOptions other) {
+        this.accelerateGeometry = other.accelerateGeometry;
+        this.lookupGridResolution = other.lookupGridResolution;
+        this.lookupGridMemoryBudget = other.lookupGridMemoryBudget;
+        this.lazyGeometry = other.lazyGeometry;
+        this.maxMaterializedGeometries = other.maxMaterializedGeometries;
+        this.packedGeometry = other.packedGeometry;
+        this.offHeapGeometry = other.offHeapGeometry;
+        this.levelOfDetailTolerance = other.levelOfDetailTolerance;
+        this.resultCachePrecision = other.resultCachePrecision;
+        this.resultCacheCapacity = other.resultCacheCapacity;
+        this.parallelism = other.parallelism;
+        this.executor = other.executor;
+        this.clipToBoundaries = other.clipToBoundaries;
+    }
+
+    /**
+     * Returns the options used by {@link TimeZoneEngine#initialize()}.
+     *
+     * @return options with all optional features turned off
+     */
+    public static TimeZoneEngineOptions defaults() {
+        return new TimeZoneEngineOptions();
+    }
+
+    /**
+     * Builds a bitmap index for each polygon, see {@link TimeZoneEngine#initialize(boolean)}.
+     *
+     * @param accelerateGeometry whether to accelerate the polygons
+     * @return modified copy of these options
+     */
+    public TimeZoneEngineOptions withAcceleratedGeometry(boolean accelerateGeometry) {
+        TimeZoneEngineOptions copy = new TimeZoneEngineOptions(this);
+        copy.accelerateGeometry = accelerateGeometry;
+        return copy;
+    }
+
+    /**
+     * Same as {@link #withLookupGrid(double, long)} with {@link #DEFAULT_LOOKUP_GRID_MEMORY_BUDGET}.
+     *
+     * @param resolution size of a grid cell in degrees
+     * @return modified copy of these options
+     */
+    public TimeZoneEngineOptions withLookupGrid(double resolution) {
+        return withLookupGrid(resolution, DEFAULT_LOOKUP_GRID_MEMORY_BUDGET);
+    }
+
+    /**
+     * Enables the lookup grid: a fixed resolution raster over the bounding box of the engine, where
+     * every cell not crossed by any zone boundary stores the zones covering it. Queries falling into
+     * such cells are answered with an array read, the rest falls back to the polygon test.
+     * <p>
+     * The grid takes 2 bytes per cell. If the requested resolution doesn't fit into the memory budget, or
+     * the grid would have more cells than a Java array can hold, the resolution is coarsened until it does.
+     *
+     * @param resolution   size of a grid cell in degrees, must be positive
+     * @param memoryBudget maximum size of the grid in bytes, must be positive
+     * @return modified copy of these options
+     */
+    public TimeZoneEngineOptions withLookupGrid(double resolution, long memoryBudget) {
+        if (!(resolution > 0)) {
+            throw new IllegalArgumentException("lookup grid resolution must be positive, got " + resolution);
+        }
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("lookup grid memory budget must be positive, got " + memoryBudget);
+        }
+        TimeZoneEngineOptions copy = new TimeZoneEngineOptions(this);
+        copy.lookupGridResolution = resolution;
+        copy.lookupGridMemoryBudget = memoryBudget;
+        return copy;
+    }
+
+    /**
+     * Stores the polygons as packed arrays of edges, indexed by horizontal slabs, instead of Esri geometries,
+     * and tests the points with a dedicated point in polygon kernel. Only the edges in the slab of the point
+     * are looked at, and the test doesn't allocate. The results are the same as with Esri geometries, except
+     * for the points lying on the edges of the polygons. {@link #withAcceleratedGeometry(boolean)} has no
+     * effect on packed geometry.
+     *
+     * @param packedGeometry whether to use packed geometry
+     * @return modified copy of these options
+     */
+    public TimeZoneEngineOptions withPackedGeometry(boolean packedGeometry) {
+        TimeZoneEngineOptions copy = new TimeZoneEngineOptions(this);
+        copy.packedGeometry = packedGeometry;
+        return copy;
+    }
+
+    /**
+     * Keeps the packed geometry (see {@link #withPackedGeometry(boolean)}, which this option implies) in direct
+     * buffers, outside of the Java heap. The edges of every polygon and its slab index are packed together into
+     * a part of a direct buffer of a few megabytes, shared with other polygons of the engine, but never with the
+     * polygons of other engines, which the queries read in place.
+     * The heap then holds a few small objects per polygon: the polygon itself and its views of the shared buffer,
+     * instead of a large graph of geometry objects the garbage collector has to trace, and the number of direct
+     * buffers grows with the amount of geometry rather than with the number of polygons. The results are the same
+     * as with packed geometry.
+     * <p>
+     * The memory of the buffers is limited by {@code -XX:MaxDirectMemorySize}, and a buffer is released when none of
+     * the polygons in it is reachable anymore. The simplified polygons of {@link #withLevelOfDetail(double)} are kept
+     * off heap as well, but with {@link #withLazyGeometry(boolean)} or level of detail, the source coordinates of
+     * every polygon stay on the heap, as arrays of floats. To keep the geometry outside of the heap
+     * without building it at all, see
+     * {@link TimeZoneEngine#initializeMapped(java.nio.file.Path)}.
+     *
+     * @param offHeapGeometry whether to keep the packed geometry off heap
+     * @return modified copy of these options
+     */
+    public TimeZoneEngineOptions withOffHeapGeometry(boolean offHeapGeometry) {
+        TimeZoneEngineOptions copy = new TimeZoneEngineOptions(this);
+        copy.offHeapGeometry = offHeapGeometry;
+        return copy;
+    }
+
+    /**
+     * Enables a coarse level of detail of the polygons: every polygon is simplified with Douglas-Peucker algorithm,
+     * so that no dropped vertex is farther than {@code tolerance} from the simplified polygon, and the largest such
+     * distance is kept as the error of the polygon. A point farther than the error from the simplified boundary is
+     * tested against the simplified polygon only, and the full polygon is tested for the points in the band around
+     * the boundary, so the results are the same as without simplification.
+     * <p>
+     * The full polygons are kept as compact arrays of coordinates, like with {@link #withLazyGeometry(boolean)},
+     * and are only materialized the first time a point falls into their band, which reduces both the heap taken
+     * by the polygons and the average cost of a query. Larger tolerance gives simpler polygons but wider bands.
+     *
+     * @param tolerance largest distance of a dropped vertex from the simplified polygon, in degrees, must be positive
+     * @return modified copy of these options
+     */
+    public TimeZoneEngineOptions withLevelOfDetail(double tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("level of detail tolerance must be positive, got " + tolerance);
+        }
+        TimeZoneEngineOptions copy = new TimeZoneEngineOptions(this);
+        copy.levelOfDetailTolerance = tolerance;
+        return copy;
+    }
+
+    /**
+     * Same as {@link #withLazyGeometry(boolean, int)} without a limit of materialized geometries.
+     *
+     * @param lazyGeometry whether to materialize the polygons lazily
+     * @return modified copy of these options
+     */
+    public TimeZoneEngineOptions withLazyGeometry(boolean lazyGeometry) {
+        return withLazyGeometry(lazyGeometry, 0);
+    }
+
+    /**
+     * Enables lazy geometry: at initialization only the bounding boxes of the polygons are indexed, and
+     * the coordinates are kept in a compact array. A polygon is materialized (and accelerated, if
+     * {@link #withAcceleratedGeometry(boolean)} is set) the first time a query hits its bounding box.
+     * This reduces initialization time and the heap taken by the zones which are never queried.
+     * <p>
+     * With a positive {@code maxMaterializedGeometries}, polygons which weren't used recently, chosen with the clock
+     * (second chance) algorithm, are dropped once more of them are materialized, and are materialized again
+     * when needed.
+     * <p>
+     * The lookup grid, if enabled, is built from the source coordinates of the polygons, without materializing them.
+     *
+     * @param lazyGeometry              whether to materialize the polygons lazily
+     * @param maxMaterializedGeometries maximum number of polygons kept materialized, or 0 for no limit
+     * @return modified copy of these options
+     */
+    public TimeZoneEngineOptions withLazyGeometry(boolean lazyGeometry, int maxMaterializedGeometries) {
+        if (maxMaterializedGeometries < 0) {
+            throw new IllegalArgumentException("maximum number of materialized geometries must not be negative, got " + maxMaterializedGeometries);
+        }
+        TimeZoneEngineOptions copy = new TimeZoneEngineOptions(this);
+        copy.lazyGeometry = lazyGeometry;
+        copy.maxMaterializedGeometries = maxMaterializedGeometries;
+        return copy;
+    }
+
+    /**
+     * Enables the cache of results of {@link TimeZoneEngine#query(double, double)} and
+     * {@link TimeZoneEngine#queryAll(double, double)}. The coordinates are quantized into square cells of the
+     * given size, and the result is cached for the whole cell, but only if no zone boundary passes through it.
+     * So the results are always the same as without the cache, and the queries near the borders are never cached.
+     * The least recently used cells are evicted once there are more than {@code capacity} of them.
+     * See {@link TimeZoneEngine#getResultCacheStats()} for the counters of the cache.
+     *
+     * @param precision size of a cell in degrees, at least 1e-7, e.g. 1e-4 is about 11 meters
+     * @param capacity  maximum number of cached cells, must be positive
+     * @return modified copy of these options
+     */
+    public TimeZoneEngineOptions withResultCache(double precision, int capacity) {
+        if (!(precision >= 1e-7)) {
+            throw new IllegalArgumentException("result cache precision must be at least 1e-7, got " + precision);
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("result cache capacity must be positive, got " + capacity);
+        }
+        TimeZoneEngineOptions copy = new TimeZoneEngineOptions(this);
+        copy.resultCachePrecision = precision;
+        copy.resultCacheCapacity = capacity;
+        return copy;
+    }
+
+    /**
+     * Builds the index on the given number of threads: the data is still read sequentially, but decoding
+     * the features, building the polygons and accelerating them runs in a thread pool, which is created for
+     * the initialization and shut down afterwards. The resulting index is the same as with a single thread.
+     *
+     * @param parallelism number of threads, must be positive, 1 builds on the calling thread
+     * @return modified copy of these options
+     */
+    public TimeZoneEngineOptions withParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive, got " + parallelism);
+        }
+        TimeZoneEngineOptions copy = new TimeZoneEngineOptions(this);
+        copy.parallelism = parallelism;
+        return copy;
+    }
+
+    /**
+     * Same as {@link #withParallelism(int)}, but runs the work on a given executor, which is not shut down.
+     * Takes precedence over {@link #withParallelism(int)}.
+     *
+     * @param executor executor to build the index on, or null to build on the calling thread
+     * @return modified copy of these options
+     */
+    public TimeZoneEngineOptions withExecutor(Executor executor) {
+        TimeZoneEngineOptions copy = new TimeZoneEngineOptions(this);
+        copy.executor = executor;
+        return copy;
+    }
+
+    /**
+     * Makes a bounded engine, see {@link TimeZoneEngine#initialize(double, double, double, double, TimeZoneEngineOptions)},
+     * clip the polygons crossing its boundaries and index the parts within them, instead of leaving such polygons
+     * out. The results are then the same as of the engine for the whole world for every point within the
+     * boundaries, and the geometry is proportional to the area of the boundaries rather than to the size of
+     * the zones. The polygons are clipped to the boundaries expanded by a small margin, and the points outside of
+     * the boundaries may have no zones, even if they have in the whole world.
+     * <p>
+     * Clipped polygons don't use the precomputed rasters of accelerated geometry, and are accelerated by Esri instead.
+     *
+     * @param clipToBoundaries whether to clip the polygons crossing the boundaries
+     * @return modified copy of these options
+     */
+    public TimeZoneEngineOptions withClippedBoundaries(boolean clipToBoundaries) {
+        TimeZoneEngineOptions copy = new TimeZoneEngineOptions(this);
+        copy.clipToBoundaries = clipToBoundaries;
+        return copy;
+    }
+
+    boolean isAccelerateGeometry() {
+        return accelerateGeometry;
+    }
+
+    boolean isLookupGridEnabled() {
+        return lookupGridResolution > 0;
+    }
+
+    double getLookupGridResolution() {
+        return lookupGridResolution;
+    }
+
+    long getLookupGridMemoryBudget() {
+        return lookupGridMemoryBudget;
+    }
+
+    boolean isLazyGeometry() {
+        return lazyGeometry;
+    }
+
+    int getMaxMaterializedGeometries() {
+        return lazyGeometry ? maxMaterializedGeometries : 0;
+    }
+
+    boolean isPackedGeometry() {
+        return packedGeometry || offHeapGeometry;
+    }
+
+    boolean isOffHeapGeometry() {
+        return offHeapGeometry;
+    }
+
+    boolean isLevelOfDetailEnabled() {
+        return levelOfDetailTolerance > 0;
+    }
+
+    double getLevelOfDetailTolerance() {
+        return levelOfDetailTolerance;
+    }
+
+    boolean isResultCacheEnabled() {
+        return resultCacheCapacity > 0;
+    }
+
+    double getResultCachePrecision() {
+        return resultCachePrecision;
+    }
+
+    int getResultCacheCapacity() {
+        return resultCacheCapacity;
+    }
+
+    int getParallelism() {
+        return parallelism;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    boolean isClipToBoundaries() {
+        return clipToBoundaries;
+    }
+}
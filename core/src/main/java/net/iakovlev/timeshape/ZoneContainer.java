@@ -0,0 +1,146 @@
+package net.iakovlev.timeshape;
+
+import com.esri.core.geometry.Envelope;
+import com.github.luben.zstd.Zstd;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Zone container, the data file bundled into the JAR, written by {@code ZoneContainerWriter} in the builder.
+ * It starts with a table of the zones with their bounding boxes, followed by every zone as a separate ZStandard
+ * frame, so that only the zones intersecting the boundaries of the engine are read and decompressed, and the rest
+ * of the frames are skipped. The layout is described in doc/Architecture.md.
+ */
+final class ZoneContainer {
+    static final String RESOURCE = "/data.tszc";
+    private static final int MAGIC = 0x435A5354; // "TSZC" in little endian
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    static final class Zone {
+        final String name;
+        final float minX;
+        final float minY;
+        final float maxX;
+        final float maxY;
+        // position of the frame of the zone, counted from the end of the table
+        final int offset;
+        final int compressedLength;
+        final int featureLength;
+        final int rastersLength;
+
+        private Zone(ByteBuffer table) {
+            this.name = Snapshot.getString(table);
+            this.minX = table.getFloat();
+            this.minY = table.getFloat();
+            this.maxX = table.getFloat();
+            this.maxY = table.getFloat();
+            this.offset = table.getInt();
+            this.compressedLength = table.getInt();
+            this.featureLength = table.getInt();
+            this.rastersLength = table.getInt();
+        }
+
+        boolean intersects(Envelope boundaries) {
+            return minX <= boundaries.getXMax() && maxX >= boundaries.getXMin()
+                    && minY <= boundaries.getYMax() && maxY >= boundaries.getYMin();
+        }
+    }
+
+    private final InputStream in;
+    final List<Zone> zones;
+    // position in the frames the stream is at
+    private long position;
+
+    private ZoneContainer(InputStream in, List<Zone> zones) {
+        this.in = in;
+        this.zones = zones;
+    }
+
+    /**
+     * Reads the table of the zones, the stream is left at the first frame.
+     *
+     * @throws IllegalArgumentException if the stream is not a zone container or is of an unsupported version
+     */
+    static ZoneContainer open(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] headerBytes = new byte[HEADER_SIZE];
+        data.readFully(headerBytes);
+        ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a zone container");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported zone container version " + version + ", expected " + VERSION);
+        }
+        int count = header.getInt();
+        byte[] tableBytes = new byte[header.getInt()];
+        data.readFully(tableBytes);
+        ByteBuffer table = ByteBuffer.wrap(tableBytes).order(ByteOrder.LITTLE_ENDIAN);
+        List<Zone> zones = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            zones.add(new Zone(table));
+        }
+        return new ZoneContainer(in, zones);
+    }
+
+    /**
+     * @return the zones, which bounding boxes intersect the boundaries, in the order of the container
+     */
+    List<Zone> intersecting(Envelope boundaries) {
+        List<Zone> result = new ArrayList<>();
+        for (Zone zone : zones) {
+            if (zone.intersects(boundaries)) {
+                result.add(zone);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the frames of given zones, which must be in the order of the container, while the stream is consumed.
+     * The frames are only decompressed when the suppliers are called, so that with parallel initialization
+     * this is done on the worker threads.
+     */
+    Stream<Supplier<Index.EncodedFeature>> features(List<Zone> selected) {
+        return selected.stream().map(zone -> {
+            byte[] frame = readFrame(zone);
+            return () -> decompress(zone, frame);
+        });
+    }
+
+    private byte[] readFrame(Zone zone) {
+        try {
+            long skipped = IOUtils.skip(in, zone.offset - position);
+            if (skipped != zone.offset - position) {
+                throw new IOException("Unexpected end of zone container while skipping to zone " + zone.name);
+            }
+            byte[] frame = new byte[zone.compressedLength];
+            if (IOUtils.readFully(in, frame) != frame.length) {
+                throw new IOException("Unexpected end of zone container while reading zone " + zone.name);
+            }
+            position = (long) zone.offset + zone.compressedLength;
+            return frame;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Index.EncodedFeature decompress(Zone zone, byte[] frame) {
+        byte[] decompressed = Zstd.decompress(frame, zone.featureLength + zone.rastersLength);
+        return new Index.EncodedFeature(
+                Arrays.copyOfRange(decompressed, 0, zone.featureLength),
+                zone.rastersLength > 0 ? Arrays.copyOfRange(decompressed, zone.featureLength, decompressed.length) : null);
+    }
+}
@@ -0,0 +1,261 @@
+package net.iakovlev.timeshape;
+
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.Point2D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fixed resolution raster over the extent of an {@link Index}. Every cell which isn't touched by
+ * any polygon edge stores the id of the set of zones covering it, so that queries falling into it
+ * don't need to test any polygon. Cells touched by edges are marked as {@link #BOUNDARY}.
+ */
+final class ZoneGrid implements Serializable {
+    private static final short BOUNDARY = -1;
+    private static final short UNASSIGNED = -2;
+    // Cells are marked as boundary if an edge passes closer than that to them, to stay on the safe side
+    // of floating point rounding and of the tolerance used by OperatorIntersects.
+    private static final double EDGE_MARGIN_DEGREES = 1e-7;
+    // largest length of an array some JVMs can allocate
+    private static final long MAX_CELLS = Integer.MAX_VALUE - 8;
+
+    private static final Logger log = LoggerFactory.getLogger(ZoneGrid.class);
+
+    private final double minLon;
+    private final double minLat;
+    private final double inverseResolution;
+    private final int columns;
+    private final int rows;
+    private final short[] cells;
+    private final List<List<ZoneId>> zoneSets;
+
+    private ZoneGrid(double minLon, double minLat, double inverseResolution, int columns, int rows,
+                     short[] cells, List<List<ZoneId>> zoneSets) {
+        this.minLon = minLon;
+        this.minLat = minLat;
+        this.inverseResolution = inverseResolution;
+        this.columns = columns;
+        this.rows = rows;
+        this.cells = cells;
+        this.zoneSets = zoneSets;
+    }
+
+    /**
+     * Looks up the zones for given coordinates.
+     *
+     * @return unmodifiable list of zones, or {@code null} if the point is outside of the grid or
+     * in a cell touched by a zone boundary, and must be resolved with polygon test.
+     */
+    List<ZoneId> lookup(double latitude, double longitude) {
+        int zoneSet = lookupZoneSet(latitude, longitude);
+        return zoneSet < 0 ? null : zoneSets.get(zoneSet);
+    }
+
+    /**
+     * Same as {@link #lookup(double, double)}, but returns the id of the set of zones, which can be
+     * resolved with {@link #getZoneSets()}, or a negative number.
+     */
+    int lookupZoneSet(double latitude, double longitude) {
+        double x = (longitude - minLon) * inverseResolution;
+        double y = (latitude - minLat) * inverseResolution;
+        if (!(x >= 0 && y >= 0 && x < columns && y < rows)) {
+            return BOUNDARY;
+        }
+        return cells[(int) y * columns + (int) x];
+    }
+
+    List<List<ZoneId>> getZoneSets() {
+        return zoneSets;
+    }
+
+    /**
+     * Builds the grid for the given polygons.
+     *
+     * @param extent       area covered by the grid
+     * @param resolution   requested size of the cell in degrees
+     * @param memoryBudget maximum size of the cells array in bytes
+     * @param index        index containing {@code polygons}, used to resolve the cells not touched by edges
+     * @param polygons     all polygons of the {@code index}
+     */
+    static ZoneGrid build(Envelope2D extent, double resolution, long memoryBudget, Index index, List<MultiPath> polygons) {
+        double width = extent.getWidth();
+        double height = extent.getHeight();
+        double effectiveResolution = effectiveResolution(width, height, resolution, memoryBudget);
+        if (effectiveResolution != resolution) {
+            log.warn("Lookup grid with resolution {} doesn't fit into memory budget of {} bytes, using resolution {} instead",
+                    resolution, memoryBudget, effectiveResolution);
+        }
+        int columns = (int) Math.max(1, Math.ceil(width / effectiveResolution));
+        int rows = (int) Math.max(1, Math.ceil(height / effectiveResolution));
+        short[] cells = new short[columns * rows];
+        Arrays.fill(cells, UNASSIGNED);
+
+        double margin = EDGE_MARGIN_DEGREES / effectiveResolution;
+        Point2D a = new Point2D();
+        Point2D b = new Point2D();
+        for (MultiPath polygon : polygons) {
+            for (int path = 0; path < polygon.getPathCount(); path++) {
+                int start = polygon.getPathStart(path);
+                int end = polygon.getPathEnd(path);
+                for (int i = start; i < end; i++) {
+                    polygon.getXY(i, a);
+                    // the last segment closes the ring
+                    polygon.getXY(i + 1 < end ? i + 1 : start, b);
+                    markSegment(cells, columns, rows, margin,
+                            (a.x - extent.xmin) / effectiveResolution, (a.y - extent.ymin) / effectiveResolution,
+                            (b.x - extent.xmin) / effectiveResolution, (b.y - extent.ymin) / effectiveResolution);
+                }
+            }
+        }
+
+        // Two adjacent cells which are not touched by any edge are covered by the same set of zones,
+        // so only the first cell of every horizontal run, which doesn't continue a run from the row below,
+        // needs to be resolved with the polygon test.
+        Map<List<ZoneId>, Short> zoneSetIds = new HashMap<>();
+        List<List<ZoneId>> zoneSets = new ArrayList<>();
+        int boundaryCells = 0;
+        for (int row = 0; row < rows; row++) {
+            int column = 0;
+            while (column < columns) {
+                if (cells[row * columns + column] == BOUNDARY) {
+                    boundaryCells++;
+                    column++;
+                    continue;
+                }
+                int runEnd = column;
+                short zoneSet = UNASSIGNED;
+                while (runEnd < columns && cells[row * columns + runEnd] != BOUNDARY) {
+                    if (zoneSet == UNASSIGNED && row > 0 && cells[(row - 1) * columns + runEnd] != BOUNDARY) {
+                        zoneSet = cells[(row - 1) * columns + runEnd];
+                    }
+                    runEnd++;
+                }
+                if (zoneSet == UNASSIGNED) {
+                    double latitude = extent.ymin + (row + 0.5) * effectiveResolution;
+                    double longitude = extent.xmin + (column + 0.5) * effectiveResolution;
+                    List<ZoneId> zones = index.queryPolygons(latitude, longitude);
+                    Short id = zoneSetIds.get(zones);
+                    if (id == null) {
+                        if (zoneSets.size() > Short.MAX_VALUE) {
+                            throw new IllegalStateException("Too many distinct zone sets for the lookup grid");
+                        }
+                        id = (short) zoneSets.size();
+                        zoneSetIds.put(zones, id);
+                        zoneSets.add(Collections.unmodifiableList(zones));
+                    }
+                    zoneSet = id;
+                }
+                Arrays.fill(cells, row * columns + column, row * columns + runEnd, zoneSet);
+                column = runEnd;
+            }
+        }
+        log.info("Built lookup grid of {}x{} cells with resolution {}, {}% of cells are on zone boundaries",
+                columns, rows, effectiveResolution, 100L * boundaryCells / cells.length);
+        return new ZoneGrid(extent.xmin, extent.ymin, 1 / effectiveResolution, columns, rows, cells, zoneSets);
+    }
+
+    /**
+     * Writes the grid into a snapshot, with the zones of the zone sets as positions in {@code zoneTable}.
+     */
+    void writeSnapshot(Snapshot.Output out, List<ZoneId> zoneTable) throws IOException {
+        out.putDouble(minLon);
+        out.putDouble(minLat);
+        out.putDouble(inverseResolution);
+        out.putInt(columns);
+        out.putInt(rows);
+        out.putShorts(cells);
+        out.putInt(zoneSets.size());
+        for (List<ZoneId> zones : zoneSets) {
+            out.putInts(zones.stream().mapToInt(zoneTable::indexOf).toArray());
+        }
+    }
+
+    /**
+     * Reads the grid written by {@link #writeSnapshot(Snapshot.Output, List)}.
+     */
+    static ZoneGrid readSnapshot(ByteBuffer in, List<ZoneId> zoneTable) {
+        double minLon = in.getDouble();
+        double minLat = in.getDouble();
+        double inverseResolution = in.getDouble();
+        int columns = in.getInt();
+        int rows = in.getInt();
+        short[] cells = Snapshot.getShorts(in);
+        int zoneSetCount = in.getInt();
+        List<List<ZoneId>> zoneSets = new ArrayList<>(zoneSetCount);
+        for (int i = 0; i < zoneSetCount; i++) {
+            List<ZoneId> zones = new ArrayList<>();
+            for (int ordinal : Snapshot.getInts(in)) {
+                zones.add(zoneTable.get(ordinal));
+            }
+            zoneSets.add(Collections.unmodifiableList(zones));
+        }
+        return new ZoneGrid(minLon, minLat, inverseResolution, columns, rows, cells, zoneSets);
+    }
+
+    /**
+     * @return the resolution, coarsened until the cells fit into the memory budget and into a single array
+     */
+    static double effectiveResolution(double width, double height, double resolution, long memoryBudget) {
+        double effectiveResolution = resolution;
+        long cellCount = cellCount(width, height, effectiveResolution);
+        while (cellCount * Short.BYTES > memoryBudget || cellCount > MAX_CELLS) {
+            effectiveResolution *= 2;
+            cellCount = cellCount(width, height, effectiveResolution);
+        }
+        return effectiveResolution;
+    }
+
+    private static long cellCount(double width, double height, double resolution) {
+        return (long) Math.max(1, Math.ceil(width / resolution)) * (long) Math.max(1, Math.ceil(height / resolution));
+    }
+
+    /**
+     * Marks all the cells touched by the segment as boundary. Coordinates are in cell units.
+     */
+    private static void markSegment(short[] cells, int columns, int rows, double margin,
+                                    double ax, double ay, double bx, double by) {
+        if (ax > bx) {
+            double t = ax;
+            ax = bx;
+            bx = t;
+            t = ay;
+            ay = by;
+            by = t;
+        }
+        int firstColumn = clamp((int) Math.floor(ax - margin), columns);
+        int lastColumn = clamp((int) Math.floor(bx + margin), columns);
+        for (int column = firstColumn; column <= lastColumn; column++) {
+            double yFrom;
+            double yTo;
+            if (bx == ax) {
+                yFrom = ay;
+                yTo = by;
+            } else {
+                double slope = (by - ay) / (bx - ax);
+                yFrom = ay + (Math.max(ax, column - margin) - ax) * slope;
+                yTo = ay + (Math.min(bx, column + 1 + margin) - ax) * slope;
+            }
+            int firstRow = clamp((int) Math.floor(Math.min(yFrom, yTo) - margin), rows);
+            int lastRow = clamp((int) Math.floor(Math.max(yFrom, yTo) + margin), rows);
+            for (int row = firstRow; row <= lastRow; row++) {
+                cells[row * columns + column] = BOUNDARY;
+            }
+        }
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
+    }
+}
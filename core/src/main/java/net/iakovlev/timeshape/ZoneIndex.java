@@ -0,0 +1,153 @@
+package net.iakovlev.timeshape;
+
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Spatial index of time zone geometries, which {@link TimeZoneEngine} delegates its queries to.
+ */
+interface ZoneIndex {
+
+    /**
+     * @return zones containing the point, in order of their geometries in the source data
+     */
+    List<ZoneId> query(double latitude, double longitude);
+
+    List<SameZoneSpan> queryPolyline(double[] line);
+
+    /**
+     * Resolves points {@code from} (inclusive) to {@code to} (exclusive) of {@code latLon} into positions in
+     * {@link #getZoneTable()} of the first matching zone, or -1 if there's none, and stores them into {@code ordinals}.
+     */
+    default void queryBatch(double[] latLon, int from, int to, int[] ordinals) {
+        Cursor cursor = cursor();
+        for (int i = from; i < to; i++) {
+            ordinals[i] = cursor.queryOrdinal(latLon[i * 2], latLon[i * 2 + 1]);
+        }
+    }
+
+    /**
+     * Same as {@link #queryBatch(double[], int, int, int[])}, but goes through the points in the given order,
+     * using {@link Cursor#queryOrdinalWithAffinity(double, double)}.
+     *
+     * @param order indices of the points, the ones in range from {@code from} to {@code to} are queried
+     */
+    default void queryBatch(double[] latLon, int[] order, int from, int to, int[] ordinals) {
+        Cursor cursor = cursor();
+        for (int i = from; i < to; i++) {
+            int point = order[i];
+            ordinals[point] = cursor.queryOrdinalWithAffinity(latLon[point * 2], latLon[point * 2 + 1]);
+        }
+    }
+
+    /**
+     * @return whether any edge of any polygon of the index intersects the box, i.e. whether the points
+     * of the box may belong to different sets of zones
+     */
+    boolean hasBoundaryWithin(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude);
+
+    /**
+     * @return distance in meters from the point to the nearest edge of any polygon of the index, i.e. how far
+     * the point can move without changing its set of zones, see {@link EdgeIndex#distanceToBoundary}
+     */
+    double distanceToBoundary(double latitude, double longitude);
+
+    /**
+     * @return new cursor over this index, to be used by a single thread at a time
+     */
+    Cursor cursor();
+
+    /**
+     * @return distinct zones of the index, in order of their first appearance in the source data
+     */
+    List<ZoneId> getZoneTable();
+
+    /**
+     * @return zone of every geometry in the index, the list is computed once and can't be modified
+     */
+    List<ZoneId> getKnownZoneIds();
+
+    /**
+     * @return metadata of every zone of {@link #getZoneTable()}, with copies of all the polygons of the index,
+     * which are gathered on every call
+     */
+    List<ZoneMetadata> getZoneMetadata();
+
+    /**
+     * Writes the kind of the index, as one of the kinds of {@link Snapshot}, followed by the index itself.
+     */
+    void writeSnapshot(Snapshot.Output out) throws IOException;
+
+    /**
+     * Reusable state for querying single points, which doesn't allocate per query.
+     */
+    interface Cursor {
+
+        /**
+         * @return position in {@link #getZoneTable()} of the first zone containing the point, or -1 if there's none
+         */
+        int queryOrdinal(double latitude, double longitude);
+
+        /**
+         * Same as {@link #queryOrdinal(double, double)}, but first tests the geometry found by the previous call.
+         * If it still contains the point, only the geometries preceding it in the source order, which bounding boxes
+         * contain the point, need to be tested, and the spatial index isn't walked at all, which makes querying
+         * nearby points one after another faster.
+         */
+        int queryOrdinalWithAffinity(double latitude, double longitude);
+
+        /**
+         * Same as {@link #queryOrdinalWithAffinity(double, double)}, but without the lookup grid, and with the
+         * geometry to test first passed explicitly.
+         *
+         * @param hint id of the geometry to test first, or -1
+         * @return id of the first geometry in the source order, which contains the point, or -1 if there's none
+         */
+        int firstGeometry(double latitude, double longitude, int hint);
+
+        /**
+         * @return position of the zone of the geometry in {@link #getZoneTable()}
+         */
+        int ordinalOf(int geometry);
+
+        /**
+         * @param geometries sorted ids of geometries, which all contain the point
+         * @param count      number of the geometries
+         * @return whether the geometries are all geometries containing the point
+         */
+        boolean noOtherContains(int[] geometries, int count, double latitude, double longitude);
+
+        /**
+         * Passes the ids of all geometries containing the point to {@code consumer}, in no particular order.
+         */
+        void findGeometries(double latitude, double longitude, IntConsumer consumer);
+
+        /**
+         * Passes the ids of all geometries, which bounding boxes intersect the box, to {@code consumer}.
+         * The consumer must not use the cursor.
+         */
+        void findCandidates(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+                            IntConsumer consumer);
+
+        /**
+         * Passes the positions of all intersections of the segment from point 1 to point 2 with the boundary of
+         * the geometry to {@code consumer}, as fractions of the segment from point 1, in no particular order.
+         */
+        void findCrossings(int geometry, double latitude1, double longitude1, double latitude2, double longitude2,
+                           DoubleConsumer consumer);
+
+        /**
+         * @return whether the geometry with the id, as passed by {@link #findGeometries} or {@link #findCandidates},
+         * contains the point
+         */
+        boolean contains(int geometry, double latitude, double longitude);
+
+        /**
+         * @return zone of the geometry with the id, as passed by {@link #findGeometries} or {@link #findCandidates}
+         */
+        ZoneId zoneOf(int geometry);
+    }
+}
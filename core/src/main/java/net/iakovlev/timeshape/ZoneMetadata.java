@@ -0,0 +1,335 @@
+package net.iakovlev.timeshape;
+
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.Point2D;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bounding box, size and geometry of all the polygons of a zone in an engine, see
+ * {@link TimeZoneEngine#getZoneMetadata()}. Clients can use it to decide on their side, which points need
+ * a query at all, e.g. skip the ones outside of the bounding boxes of the zones they care about, or render
+ * the zones with the geometry simplified to the resolution they need.
+ * <p>
+ * Coordinates are in degrees, and the area is planar, in square degrees, which is enough to compare zones and
+ * to estimate the cost of their geometry, but isn't the area on the surface of the Earth.
+ */
+public final class ZoneMetadata {
+    private static final byte WKB_LITTLE_ENDIAN = 1;
+    private static final int WKB_POLYGON = 3;
+    private static final int WKB_MULTI_POLYGON = 6;
+
+    private final ZoneId zoneId;
+    // start of every ring in the coordinates of every polygon, followed by the end of the last ring
+    private final List<int[]> ringStarts;
+    // interleaved longitudes and latitudes of the vertices of every polygon, every ring repeats its first vertex
+    private final List<float[]> coordinates;
+    private final double simplificationError;
+    private final int vertexCount;
+    private final double area;
+    private final double minLatitude;
+    private final double minLongitude;
+    private final double maxLatitude;
+    private final double maxLongitude;
+
+    private ZoneMetadata(ZoneId zoneId, List<int[]> ringStarts, List<float[]> coordinates, double simplificationError) {
+        this.zoneId = zoneId;
+        this.ringStarts = ringStarts;
+        this.coordinates = coordinates;
+        this.simplificationError = simplificationError;
+        int vertexCount = 0;
+        double area = 0;
+        double minLatitude = Double.POSITIVE_INFINITY;
+        double minLongitude = Double.POSITIVE_INFINITY;
+        double maxLatitude = Double.NEGATIVE_INFINITY;
+        double maxLongitude = Double.NEGATIVE_INFINITY;
+        for (int polygon = 0; polygon < ringStarts.size(); polygon++) {
+            int[] starts = ringStarts.get(polygon);
+            float[] polygonCoordinates = coordinates.get(polygon);
+            for (int ring = 0; ring < starts.length - 1; ring++) {
+                // the closing vertex is the first one again
+                vertexCount += (starts[ring + 1] - starts[ring]) / 2 - 1;
+                double ringArea = Math.abs(signedArea(polygonCoordinates, starts[ring], starts[ring + 1]));
+                // the first ring is the exterior one, the rest are holes in it
+                area += ring == 0 ? ringArea : -ringArea;
+            }
+            for (int i = 0; i < polygonCoordinates.length; i += 2) {
+                minLongitude = Math.min(minLongitude, polygonCoordinates[i]);
+                maxLongitude = Math.max(maxLongitude, polygonCoordinates[i]);
+                minLatitude = Math.min(minLatitude, polygonCoordinates[i + 1]);
+                maxLatitude = Math.max(maxLatitude, polygonCoordinates[i + 1]);
+            }
+        }
+        this.vertexCount = vertexCount;
+        this.area = area;
+        boolean empty = ringStarts.isEmpty();
+        this.minLatitude = empty ? Double.NaN : minLatitude;
+        this.minLongitude = empty ? Double.NaN : minLongitude;
+        this.maxLatitude = empty ? Double.NaN : maxLatitude;
+        this.maxLongitude = empty ? Double.NaN : maxLongitude;
+    }
+
+    private static double signedArea(float[] coordinates, int start, int end) {
+        double sum = 0;
+        for (int i = start; i + 2 < end; i += 2) {
+            sum += (double) coordinates[i] * coordinates[i + 3] - (double) coordinates[i + 2] * coordinates[i + 1];
+        }
+        return sum / 2;
+    }
+
+    /**
+     * @return the zone
+     */
+    public ZoneId getZoneId() {
+        return zoneId;
+    }
+
+    /**
+     * @return southern edge of the bounding box of all the polygons of the zone, or NaN if it has no polygons
+     */
+    public double getMinLatitude() {
+        return minLatitude;
+    }
+
+    /**
+     * @return western edge of the bounding box of all the polygons of the zone, or NaN if it has no polygons
+     */
+    public double getMinLongitude() {
+        return minLongitude;
+    }
+
+    /**
+     * @return northern edge of the bounding box of all the polygons of the zone, or NaN if it has no polygons
+     */
+    public double getMaxLatitude() {
+        return maxLatitude;
+    }
+
+    /**
+     * @return eastern edge of the bounding box of all the polygons of the zone, or NaN if it has no polygons
+     */
+    public double getMaxLongitude() {
+        return maxLongitude;
+    }
+
+    /**
+     * @return whether the point is within the bounding box of the zone, i.e. whether the zone may contain it
+     */
+    public boolean mayContain(double latitude, double longitude) {
+        return latitude >= minLatitude && latitude <= maxLatitude && longitude >= minLongitude && longitude <= maxLongitude;
+    }
+
+    /**
+     * @return number of the polygons of the zone
+     */
+    public int getPolygonCount() {
+        return ringStarts.size();
+    }
+
+    /**
+     * @return number of the vertices of all the rings of all the polygons, not counting the vertices closing the rings
+     */
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * @return planar area of the zone in square degrees: the areas of the exterior rings of its polygons minus
+     * the areas of their holes
+     */
+    public double getArea() {
+        return area;
+    }
+
+    /**
+     * @return largest distance in degrees of the original boundary of the zone from this geometry, 0 unless it was
+     * returned by {@link #simplify(double)}
+     */
+    public double getSimplificationError() {
+        return simplificationError;
+    }
+
+    /**
+     * Returns the rings of a polygon of the zone, the exterior one first, followed by its holes. Every ring is
+     * an array of interleaved longitudes and latitudes of its vertices, and ends with its first vertex again.
+     *
+     * @param polygon index of the polygon, from 0 to {@link #getPolygonCount()} exclusive
+     * @return copy of the rings of the polygon
+     */
+    public float[][] getPolygon(int polygon) {
+        int[] starts = ringStarts.get(polygon);
+        float[] polygonCoordinates = coordinates.get(polygon);
+        float[][] rings = new float[starts.length - 1][];
+        for (int ring = 0; ring < rings.length; ring++) {
+            rings[ring] = Arrays.copyOfRange(polygonCoordinates, starts[ring], starts[ring + 1]);
+        }
+        return rings;
+    }
+
+    /**
+     * @return the zone as a little endian Well-Known Binary MultiPolygon, with longitudes as x and latitudes as y
+     */
+    public byte[] toWkb() {
+        int size = 1 + 4 + 4;
+        for (int polygon = 0; polygon < ringStarts.size(); polygon++) {
+            int[] starts = ringStarts.get(polygon);
+            size += 1 + 4 + 4 + (starts.length - 1) * 4 + starts[starts.length - 1] * 8;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(WKB_LITTLE_ENDIAN).putInt(WKB_MULTI_POLYGON).putInt(ringStarts.size());
+        for (int polygon = 0; polygon < ringStarts.size(); polygon++) {
+            int[] starts = ringStarts.get(polygon);
+            float[] polygonCoordinates = coordinates.get(polygon);
+            out.put(WKB_LITTLE_ENDIAN).putInt(WKB_POLYGON).putInt(starts.length - 1);
+            for (int ring = 0; ring < starts.length - 1; ring++) {
+                out.putInt((starts[ring + 1] - starts[ring]) / 2);
+                for (int i = starts[ring]; i < starts[ring + 1]; i++) {
+                    out.putDouble(polygonCoordinates[i]);
+                }
+            }
+        }
+        return out.array();
+    }
+
+    /**
+     * Simplifies every ring of the zone with Douglas-Peucker algorithm. Rings reduced to a line are dropped, and
+     * so are the polygons, which exterior ring is dropped.
+     *
+     * @param tolerance largest allowed distance in degrees of the dropped vertices from the simplified geometry
+     * @return the simplified zone, with the error of the simplification in {@link #getSimplificationError()}
+     */
+    public ZoneMetadata simplify(double tolerance) {
+        if (!(tolerance >= 0)) {
+            throw new IllegalArgumentException("tolerance must not be negative, got " + tolerance);
+        }
+        List<int[]> simplifiedStarts = new ArrayList<>(ringStarts.size());
+        List<float[]> simplifiedCoordinates = new ArrayList<>(ringStarts.size());
+        double error = 0;
+        for (int polygon = 0; polygon < ringStarts.size(); polygon++) {
+            int[] starts = ringStarts.get(polygon);
+            float[] polygonCoordinates = coordinates.get(polygon);
+            boolean[] kept = new boolean[polygonCoordinates.length / 2];
+            error = Math.max(error, SimplifiedPolygon.simplify(starts, polygonCoordinates, tolerance, kept));
+            int[] resultStarts = new int[starts.length];
+            float[] result = new float[polygonCoordinates.length];
+            int ringCount = 0;
+            int position = 0;
+            for (int ring = 0; ring < starts.length - 1; ring++) {
+                int ringStart = position;
+                for (int i = starts[ring]; i < starts[ring + 1]; i += 2) {
+                    if (kept[i / 2]) {
+                        result[position++] = polygonCoordinates[i];
+                        result[position++] = polygonCoordinates[i + 1];
+                    }
+                }
+                // a ring needs at least three distinct vertices, and the closing one, to have any area
+                if (position - ringStart < 8) {
+                    if (ring == 0) {
+                        break;
+                    }
+                    position = ringStart;
+                    continue;
+                }
+                resultStarts[ringCount++] = ringStart;
+            }
+            if (ringCount > 0) {
+                resultStarts[ringCount] = position;
+                simplifiedStarts.add(Arrays.copyOf(resultStarts, ringCount + 1));
+                simplifiedCoordinates.add(Arrays.copyOf(result, position));
+            }
+        }
+        // the error of simplifying an already simplified geometry adds up
+        return new ZoneMetadata(zoneId, simplifiedStarts, simplifiedCoordinates, simplificationError + error);
+    }
+
+    @Override
+    public String toString() {
+        return "ZoneMetadata{zoneId=" + zoneId + ", polygons=" + ringStarts.size() + ", vertices=" + vertexCount
+                + ", area=" + area + ", box=[" + minLatitude + ", " + minLongitude + ", " + maxLatitude + ", "
+                + maxLongitude + "]}";
+    }
+
+    /**
+     * Groups the polygons of an index by their zones, in order of {@link ZoneIndex#getZoneTable()}.
+     * The rings of the added polygons are copied, and closed, if they don't repeat their first vertex.
+     */
+    static final class Collector {
+        private final List<ZoneId> zoneTable;
+        private final List<List<int[]>> ringStarts;
+        private final List<List<float[]>> coordinates;
+
+        Collector(List<ZoneId> zoneTable) {
+            this.zoneTable = zoneTable;
+            this.ringStarts = new ArrayList<>(zoneTable.size());
+            this.coordinates = new ArrayList<>(zoneTable.size());
+            for (int i = 0; i < zoneTable.size(); i++) {
+                ringStarts.add(new ArrayList<>(1));
+                coordinates.add(new ArrayList<>(1));
+            }
+        }
+
+        /**
+         * @param ordinal     position of the zone of the polygon in the zone table
+         * @param ringStarts  start of every ring in {@code coordinates}, followed by the end of the last ring
+         * @param coordinates interleaved longitudes and latitudes of the vertices
+         */
+        void add(int ordinal, int[] ringStarts, float[] coordinates) {
+            int[] starts = new int[ringStarts.length];
+            float[] closed = new float[coordinates.length + (ringStarts.length - 1) * 2];
+            int ringCount = 0;
+            int position = 0;
+            for (int ring = 0; ring < ringStarts.length - 1; ring++) {
+                int start = ringStarts[ring];
+                int end = ringStarts[ring + 1];
+                if (end == start) {
+                    continue;
+                }
+                starts[ringCount++] = position;
+                System.arraycopy(coordinates, start, closed, position, end - start);
+                position += end - start;
+                if (coordinates[start] != coordinates[end - 2] || coordinates[start + 1] != coordinates[end - 1]) {
+                    closed[position++] = coordinates[start];
+                    closed[position++] = coordinates[start + 1];
+                }
+            }
+            starts[ringCount] = position;
+            this.ringStarts.get(ordinal).add(ringCount + 1 == starts.length ? starts : Arrays.copyOf(starts, ringCount + 1));
+            this.coordinates.get(ordinal).add(position == closed.length ? closed : Arrays.copyOf(closed, position));
+        }
+
+        /**
+         * Same as {@link #add(int, int[], float[])} for an Esri polygon.
+         */
+        void add(int ordinal, MultiPath polygon) {
+            int[] ringStarts = new int[polygon.getPathCount() + 1];
+            for (int ring = 0; ring < polygon.getPathCount(); ring++) {
+                ringStarts[ring + 1] = ringStarts[ring] + polygon.getPathSize(ring) * 2;
+            }
+            float[] coordinates = new float[ringStarts[ringStarts.length - 1]];
+            Point2D vertex = new Point2D();
+            for (int i = 0; i < coordinates.length; i += 2) {
+                polygon.getXY(i / 2, vertex);
+                coordinates[i] = (float) vertex.x;
+                coordinates[i + 1] = (float) vertex.y;
+            }
+            add(ordinal, ringStarts, coordinates);
+        }
+
+        /**
+         * @return metadata of every zone of the zone table
+         */
+        List<ZoneMetadata> build() {
+            List<ZoneMetadata> result = new ArrayList<>(zoneTable.size());
+            for (int i = 0; i < zoneTable.size(); i++) {
+                result.add(new ZoneMetadata(zoneTable.get(i), ringStarts.get(i), coordinates.get(i), 0));
+            }
+            return Collections.unmodifiableList(result);
+        }
+    }
+}
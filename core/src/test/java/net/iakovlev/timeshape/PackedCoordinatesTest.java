@@ -0,0 +1,49 @@
+package net.iakovlev.timeshape;
+
+import net.iakovlev.timeshape.proto.Geojson;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(JUnit4.class)
+public class PackedCoordinatesTest {
+    private static final float[] COORDINATES = {
+            13.4012f, 52.5203f, 13.4013f, 52.5199f, -0.0f, 0.0f, 0.0f, -1e-30f,
+            -179.99998f, 89.99999f, 180.0f, -90.0f, Float.MIN_VALUE, -Float.MIN_VALUE, 13.4012f, 52.5203f};
+
+    @Test
+    public void testPacked() {
+        Geojson.LineString.Builder ring = Geojson.LineString.newBuilder();
+        int lon = 0;
+        int lat = 0;
+        for (int i = 0; i < COORDINATES.length; i += 2) {
+            ring.addPackedCoordinates(Float.floatToIntBits(COORDINATES[i]) - lon);
+            ring.addPackedCoordinates(Float.floatToIntBits(COORDINATES[i + 1]) - lat);
+            lon = Float.floatToIntBits(COORDINATES[i]);
+            lat = Float.floatToIntBits(COORDINATES[i + 1]);
+        }
+        assertDecoded(ring.build());
+    }
+
+    @Test
+    public void testPositions() {
+        Geojson.LineString.Builder ring = Geojson.LineString.newBuilder();
+        for (int i = 0; i < COORDINATES.length; i += 2) {
+            ring.addCoordinates(Geojson.Position.newBuilder().setLon(COORDINATES[i]).setLat(COORDINATES[i + 1]));
+        }
+        assertDecoded(ring.build());
+    }
+
+    private static void assertDecoded(Geojson.LineString ring) {
+        assertEquals(COORDINATES.length / 2, PackedCoordinates.vertexCount(ring));
+        float[] decoded = new float[COORDINATES.length + 2];
+        assertEquals(COORDINATES.length + 2, PackedCoordinates.decode(ring, decoded, 2));
+        // compares the bits, so that -0.0 and 0.0 differ
+        assertTrue(Arrays.equals(COORDINATES, Arrays.copyOfRange(decoded, 2, decoded.length)));
+    }
+}
@@ -0,0 +1,67 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+@RunWith(JUnit4.class)
+public class PackedEdgeGridTest {
+    private static ZoneIndex.Cursor cursor = map().cursor();
+
+    private static PackedIndex map() {
+        try {
+            return PackedIndex.map(Paths.get("target/data.tsidx"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void assertSameAsPolygonTest(double latitude, double longitude) {
+        List<Integer> expected = new ArrayList<>();
+        cursor.findCandidates(latitude, longitude, latitude, longitude, polygon -> {
+            if (cursor.contains(polygon, latitude, longitude)) {
+                expected.add(polygon);
+            }
+        });
+        expected.sort(null);
+        List<Integer> actual = new ArrayList<>();
+        cursor.findGeometries(latitude, longitude, actual::add);
+        // only the polygons found in the grid are in ascending order
+        actual.sort(null);
+        assertEquals(latitude + ", " + longitude, expected, actual);
+        assertEquals(expected.isEmpty() ? -1 : (int) expected.get(0), cursor.firstGeometry(latitude, longitude, -1));
+    }
+
+    @Test
+    public void testRandomPoints() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            assertSameAsPolygonTest(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+        }
+    }
+
+    @Test
+    public void testCellBorders() {
+        Random random = new Random(2);
+        for (int i = 0; i < 20000; i++) {
+            double latitude = Math.floor(random.nextDouble() * 720) / 4 - 90;
+            double longitude = Math.floor(random.nextDouble() * 1440) / 4 - 180;
+            assertSameAsPolygonTest(latitude, longitude);
+            assertSameAsPolygonTest(latitude, longitude + random.nextDouble() / 4);
+            assertSameAsPolygonTest(latitude + random.nextDouble() / 4, longitude);
+            assertSameAsPolygonTest(Math.nextDown(latitude), longitude);
+            assertSameAsPolygonTest(latitude, Math.nextDown(longitude));
+        }
+        assertSameAsPolygonTest(90, 180);
+        assertSameAsPolygonTest(-90, -180);
+    }
+}
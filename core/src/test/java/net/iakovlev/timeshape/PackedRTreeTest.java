@@ -0,0 +1,52 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+@RunWith(JUnit4.class)
+public class PackedRTreeTest {
+
+    @Test
+    public void testSameAsBruteForce() {
+        Random random = new Random(3);
+        for (int itemCount : new int[]{0, 1, 15, 16, 17, 1000}) {
+            float[] boxes = new float[itemCount * 4];
+            for (int i = 0; i < itemCount; i++) {
+                float x = random.nextFloat() * 360 - 180;
+                float y = random.nextFloat() * 180 - 90;
+                boxes[i * 4] = x;
+                boxes[i * 4 + 1] = y;
+                boxes[i * 4 + 2] = x + random.nextFloat() * 20;
+                boxes[i * 4 + 3] = y + random.nextFloat() * 10;
+            }
+            PackedRTree.Cursor cursor = PackedRTree.pack(boxes, 16).cursor();
+            for (int query = 0; query < 200; query++) {
+                double minX = random.nextDouble() * 360 - 180;
+                double minY = random.nextDouble() * 180 - 90;
+                double maxX = minX + (query % 2 == 0 ? 0 : random.nextDouble() * 30);
+                double maxY = minY + (query % 2 == 0 ? 0 : random.nextDouble() * 30);
+                List<Integer> expected = new ArrayList<>();
+                for (int i = 0; i < itemCount; i++) {
+                    if (boxes[i * 4] <= maxX && boxes[i * 4 + 1] <= maxY && boxes[i * 4 + 2] >= minX && boxes[i * 4 + 3] >= minY) {
+                        expected.add(i);
+                    }
+                }
+                List<Integer> actual = new ArrayList<>();
+                cursor.reset(minX, minY, maxX, maxY);
+                for (int item = cursor.next(); item >= 0; item = cursor.next()) {
+                    actual.add(item);
+                }
+                Collections.sort(actual);
+                assertEquals(expected, actual);
+            }
+        }
+    }
+}
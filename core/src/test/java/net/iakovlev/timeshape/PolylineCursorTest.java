@@ -0,0 +1,86 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+@RunWith(JUnit4.class)
+public class PolylineCursorTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+
+    private static double[] randomWalk(Random random, int points) {
+        double[] track = new double[points * 2];
+        double latitude = random.nextDouble() * 120 - 60;
+        double longitude = random.nextDouble() * 340 - 170;
+        for (int i = 0; i < points; i++) {
+            latitude = Math.max(-89, Math.min(89, latitude + random.nextGaussian()));
+            longitude = Math.max(-179, Math.min(179, longitude + random.nextGaussian()));
+            track[i * 2] = latitude;
+            track[i * 2 + 1] = longitude;
+        }
+        return track;
+    }
+
+    private static void assertSameAsQueryPolyline(TimeZoneEngine engine) {
+        Random random = new Random(7);
+        List<SameZoneSpan> spans = new ArrayList<>();
+        PolylineCursor cursor = engine.newPolylineCursor(spans::add);
+        for (int i = 0; i < 20; i++) {
+            double[] track = randomWalk(random, 1 + random.nextInt(300));
+            List<SameZoneSpan> expected = engine.queryPolyline(track);
+
+            for (int p = 0; p < track.length; p += 2) {
+                cursor.add(track[p], track[p + 1]);
+            }
+            cursor.finish();
+            assertEquals(expected, spans);
+            spans.clear();
+
+            for (int from = 0; from < track.length; ) {
+                int to = Math.min(track.length, from + 2 * (1 + random.nextInt(50)));
+                cursor.add(Arrays.copyOfRange(track, from, to));
+                from = to;
+            }
+            cursor.finish();
+            assertEquals(expected, spans);
+            spans.clear();
+        }
+    }
+
+    @Test
+    public void testSameAsQueryPolyline() {
+        assertSameAsQueryPolyline(engine);
+    }
+
+    @Test
+    public void testPackedGeometry() {
+        assertSameAsQueryPolyline(TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withPackedGeometry(true)));
+    }
+
+    @Test
+    public void testMapped() {
+        assertSameAsQueryPolyline(TimeZoneEngine.initializeMapped(Paths.get("target/data.tsidx")));
+    }
+
+    @Test
+    public void testEmptyPolyline() {
+        List<SameZoneSpan> spans = new ArrayList<>();
+        PolylineCursor cursor = engine.newPolylineCursor(spans::add);
+        cursor.finish();
+        assertEquals(0, spans.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOddNumberOfCoordinates() {
+        engine.newPolylineCursor(span -> {
+        }).add(new double[]{1, 2, 3});
+    }
+}
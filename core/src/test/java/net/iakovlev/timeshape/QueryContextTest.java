@@ -0,0 +1,149 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(JUnit4.class)
+public class QueryContextTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+
+    private static void assertSameAsQuery(TimeZoneEngine engine) {
+        QueryContext context = engine.newQueryContext();
+        Random random = new Random(11);
+        for (int i = 0; i < 5000; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            assertEquals(engine.query(latitude, longitude).orElse(null), context.queryZoneId(latitude, longitude));
+            int ordinal = context.queryOrdinal(latitude, longitude);
+            assertEquals(engine.query(latitude, longitude).orElse(null),
+                    ordinal == BatchQueryResult.NO_ZONE ? null : context.getZoneIds().get(ordinal));
+        }
+    }
+
+    /**
+     * Walks slowly, so that most of the points are in the geometries of the previous ones.
+     */
+    private static QueryContext assertAffinitySameAsQuery(TimeZoneEngine engine) {
+        QueryContext context = engine.newQueryContext(true);
+        Random random = new Random(13);
+        double latitude = 45;
+        double longitude = 10;
+        for (int i = 0; i < 5000; i++) {
+            latitude = Math.max(-89, Math.min(89, latitude + random.nextGaussian() * 0.2));
+            longitude = Math.max(-179, Math.min(179, longitude + random.nextGaussian() * 0.2));
+            if (i % 2 == 0) {
+                assertEquals(engine.query(latitude, longitude).orElse(null), context.queryZoneId(latitude, longitude));
+            } else {
+                assertEquals(engine.queryAll(latitude, longitude), context.queryAll(latitude, longitude));
+            }
+        }
+        assertEquals(5000, context.getQueryCount());
+        return context;
+    }
+
+    @Test
+    public void testAffinity() {
+        QueryContext context = assertAffinitySameAsQuery(engine);
+        assertTrue(context.getAffinityHitRate() > 0.5);
+        assertEquals((double) context.getAffinityHitCount() / context.getQueryCount(), context.getAffinityHitRate());
+        context.resetStats();
+        assertEquals(0, context.getQueryCount());
+        assertEquals(0.0, context.getAffinityHitRate());
+    }
+
+    @Test
+    public void testAffinityPackedGeometry() {
+        assertAffinitySameAsQuery(TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withPackedGeometry(true)));
+    }
+
+    @Test
+    public void testAffinityMapped() {
+        assertAffinitySameAsQuery(TimeZoneEngine.initializeMapped(Paths.get("target/data.tsidx")));
+    }
+
+    /**
+     * @return latitudes and longitudes of every 40th vertex of the zones, and of the midpoint of the edge starting there
+     */
+    private static double[] boundaryPoints() {
+        List<Double> points = new ArrayList<>();
+        for (ZoneMetadata zone : engine.getZoneMetadata()) {
+            for (int polygon = 0; polygon < zone.getPolygonCount(); polygon++) {
+                for (float[] ring : zone.getPolygon(polygon)) {
+                    for (int i = 0; i + 3 < ring.length; i += 80) {
+                        points.add((double) ring[i + 1]);
+                        points.add((double) ring[i]);
+                        points.add((ring[i + 1] + (double) ring[i + 3]) / 2);
+                        points.add((ring[i] + (double) ring[i + 2]) / 2);
+                    }
+                }
+            }
+        }
+        return points.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    /**
+     * The points on the edges are within the tolerance of {@link TimeZoneEngine#query(double, double)}, and often
+     * in the zones on both sides.
+     */
+    private static void assertSameAsQueryOnBoundaries(TimeZoneEngine engine) {
+        double[] points = boundaryPoints();
+        QueryContext context = engine.newQueryContext();
+        QueryContext affinityContext = engine.newQueryContext(true);
+        BatchQueryResult batch = engine.queryBatch(points);
+        BatchQueryResult bulk = engine.queryBulk(points);
+        for (int i = 0; i < points.length / 2; i++) {
+            double latitude = points[i * 2];
+            double longitude = points[i * 2 + 1];
+            ZoneId expected = engine.query(latitude, longitude).orElse(null);
+            assertEquals(engine.queryAll(latitude, longitude), context.queryAll(latitude, longitude));
+            assertEquals(expected, context.queryZoneId(latitude, longitude));
+            assertEquals(expected, affinityContext.queryZoneId(latitude, longitude));
+            assertEquals(expected, batch.getZoneId(i).orElse(null));
+            assertEquals(expected, bulk.getZoneId(i).orElse(null));
+        }
+    }
+
+    @Test
+    public void testBoundaries() {
+        assertSameAsQueryOnBoundaries(engine);
+    }
+
+    @Test
+    public void testBoundariesWithLevelOfDetail() {
+        assertSameAsQueryOnBoundaries(TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults()
+                .withLazyGeometry(true).withLevelOfDetail(0.01)));
+    }
+
+    @Test
+    public void testNoStatsWithoutAffinity() {
+        QueryContext context = engine.newQueryContext();
+        context.queryOrdinal(52.52, 13.40);
+        assertEquals(engine.queryAll(52.52, 13.40), context.queryAll(52.52, 13.40));
+        assertEquals(0, context.getQueryCount());
+    }
+
+    @Test
+    public void testSameAsQuery() {
+        assertSameAsQuery(engine);
+    }
+
+    @Test
+    public void testWithLookupGrid() {
+        assertSameAsQuery(TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withLookupGrid(0.5)));
+    }
+
+    @Test
+    public void testMapped() {
+        assertSameAsQuery(TimeZoneEngine.initializeMapped(Paths.get("target/data.tsidx")));
+    }
+}
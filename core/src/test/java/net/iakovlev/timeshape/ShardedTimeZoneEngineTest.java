@@ -0,0 +1,79 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(JUnit4.class)
+public class ShardedTimeZoneEngineTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+
+    private static void assertSameAsWorld(ShardedTimeZoneEngine sharded, double tileSize) {
+        assertEquals(new ArrayList<>(new LinkedHashSet<>(engine.getKnownZoneIds())), sharded.getKnownZoneIds());
+        Random random = new Random(7);
+        for (int i = 0; i < 3000; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            if (i % 3 == 0) {
+                // on the edge of a tile, where the polygons are clipped
+                longitude = -180 + Math.floor(random.nextDouble() * 360 / tileSize) * tileSize;
+            } else if (i % 3 == 1) {
+                latitude = -90 + Math.floor(random.nextDouble() * 180 / tileSize) * tileSize;
+            }
+            assertEquals(engine.queryAll(latitude, longitude), sharded.queryAll(latitude, longitude));
+            assertEquals(engine.query(latitude, longitude), sharded.query(latitude, longitude));
+        }
+    }
+
+    @Test
+    public void testSameAsWorld() {
+        assertSameAsWorld(ShardedTimeZoneEngine.initialize(45), 45);
+        assertSameAsWorld(ShardedTimeZoneEngine.initialize(25), 25);
+    }
+
+    @Test
+    public void testParallel() {
+        assertSameAsWorld(ShardedTimeZoneEngine.initialize(30,
+                TimeZoneEngineOptions.defaults().withParallelism(4).withLazyGeometry(true)), 30);
+    }
+
+    @Test
+    public void testLazy() {
+        ShardedTimeZoneEngine sharded = ShardedTimeZoneEngine.initializeLazily(20,
+                TimeZoneEngineOptions.defaults().withAcceleratedGeometry(true));
+        assertEquals(0, sharded.getBuiltTileCount());
+        assertEquals(engine.queryAll(52.52, 13.40), sharded.queryAll(52.52, 13.40));
+        assertEquals(1, sharded.getBuiltTileCount());
+        assertEquals(engine.queryAll(53.55, 10.0), sharded.queryAll(53.55, 10.0));
+        assertEquals(1, sharded.getBuiltTileCount());
+        assertSameAsWorld(sharded, 20);
+    }
+
+    @Test
+    public void testOutOfRange() {
+        ShardedTimeZoneEngine sharded = ShardedTimeZoneEngine.initializeLazily(90, TimeZoneEngineOptions.defaults());
+        assertTrue(sharded.queryAll(91, 0).isEmpty());
+        assertTrue(sharded.queryAll(0, Double.NaN).isEmpty());
+        assertEquals(engine.queryAll(90, 180), sharded.queryAll(90, 180));
+        assertEquals(engine.queryAll(-90, -180), sharded.queryAll(-90, -180));
+    }
+
+    @Test
+    public void testInvalidTileSize() {
+        for (double tileSize : new double[]{0, -1, 361, Double.NaN, 0.5}) {
+            try {
+                ShardedTimeZoneEngine.initialize(tileSize);
+                throw new AssertionError("Expected IllegalArgumentException for tile size " + tileSize);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("tile size"));
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(JUnit4.class)
+public class SlabPolygonTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+
+    private static boolean hasEdgeWithin(float[] edges, double minX, double minY, double maxX, double maxY) {
+        for (int e = 0; e < edges.length; e += 4) {
+            if (Segments.intersectsBox(edges[e], edges[e + 1], edges[e + 2], edges[e + 3], minX, minY, maxX, maxY)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The slabs, the sorted horizontal edges and the edge index only look at the edges near the box, but must
+     * find the same edges as testing all of them.
+     */
+    @Test
+    public void testHasEdgeWithin() {
+        Random random = new Random(5);
+        int found = 0;
+        for (ZoneMetadata zone : engine.getZoneMetadata()) {
+            for (int polygon = 0; polygon < zone.getPolygonCount(); polygon++) {
+                float[][] rings = zone.getPolygon(polygon);
+                int[] ringStarts = new int[rings.length + 1];
+                for (int ring = 0; ring < rings.length; ring++) {
+                    ringStarts[ring + 1] = ringStarts[ring] + rings[ring].length;
+                }
+                float[] coordinates = new float[ringStarts[rings.length]];
+                for (int ring = 0; ring < rings.length; ring++) {
+                    System.arraycopy(rings[ring], 0, coordinates, ringStarts[ring], rings[ring].length);
+                }
+                SlabPolygon slabPolygon = SlabPolygon.build(ringStarts, coordinates);
+                float[] edges = slabPolygon.edges();
+                EdgeIndex edgeIndex = EdgeIndex.build(edges);
+                for (int i = 0; i < 200; i++) {
+                    // boxes around the vertices, so that many of them touch an edge
+                    int vertex = random.nextInt(coordinates.length / 2) * 2;
+                    double size = Math.pow(10, -random.nextInt(6));
+                    double minX = coordinates[vertex] - random.nextDouble() * size;
+                    double minY = coordinates[vertex + 1] - random.nextDouble() * size;
+                    double maxX = minX + size;
+                    double maxY = minY + size;
+                    if (random.nextBoolean()) {
+                        minY += size * 2;
+                        maxY += size * 2;
+                    }
+                    boolean expected = hasEdgeWithin(edges, minX, minY, maxX, maxY);
+                    assertEquals(expected, slabPolygon.hasEdgeWithin(minX, minY, maxX, maxY));
+                    assertEquals(expected, edgeIndex.hasEdgeWithin(minX, minY, maxX, maxY));
+                    found += expected ? 1 : 0;
+                }
+            }
+        }
+        assertTrue(found > 0);
+    }
+}
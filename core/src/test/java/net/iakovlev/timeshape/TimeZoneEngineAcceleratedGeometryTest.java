@@ -0,0 +1,45 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineAcceleratedGeometryTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+    private static TimeZoneEngine acceleratedEngine = TimeZoneEngine.initialize(true);
+
+    private static void assertSameAsDefault(TimeZoneEngine accelerated) {
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            double lat = random.nextDouble() * 180 - 90;
+            double lon = random.nextDouble() * 360 - 180;
+            assertEquals(engine.queryAll(lat, lon), accelerated.queryAll(lat, lon));
+        }
+    }
+
+    @Test
+    public void testSameAsDefault() {
+        assertSameAsDefault(acceleratedEngine);
+    }
+
+    @Test
+    public void testLazy() {
+        assertSameAsDefault(TimeZoneEngine.initialize(
+                TimeZoneEngineOptions.defaults().withAcceleratedGeometry(true).withLazyGeometry(true)));
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        acceleratedEngine.writeSnapshot(bytes);
+        assertSameAsDefault(TimeZoneEngine.readSnapshot(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+}
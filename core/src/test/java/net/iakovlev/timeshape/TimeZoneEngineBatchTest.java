@@ -0,0 +1,93 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineBatchTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+
+    private static double[] randomPoints(int size) {
+        Random random = new Random(42);
+        double[] points = new double[size * 2];
+        for (int i = 0; i < size; i++) {
+            points[i * 2] = random.nextDouble() * 180 - 90;
+            points[i * 2 + 1] = random.nextDouble() * 360 - 180;
+        }
+        return points;
+    }
+
+    @Test
+    public void testSameAsQuery() {
+        double[] points = randomPoints(5000);
+        BatchQueryResult result = engine.queryBatch(points);
+        assertEquals(5000, result.size());
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals(engine.query(points[i * 2], points[i * 2 + 1]), result.getZoneId(i));
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        double[] points = randomPoints(20000);
+        BatchQueryResult sequential = engine.queryBatch(points);
+        BatchQueryResult parallel = engine.queryBatch(points, true);
+        assertEquals(sequential.getZoneIds(), parallel.getZoneIds());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertEquals(sequential.getZoneOrdinal(i), parallel.getZoneOrdinal(i));
+        }
+    }
+
+    @Test
+    public void testWithLookupGrid() {
+        TimeZoneEngine gridEngine = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withLookupGrid(0.5));
+        double[] points = randomPoints(5000);
+        BatchQueryResult result = gridEngine.queryBatch(points);
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals(engine.query(points[i * 2], points[i * 2 + 1]), result.getZoneId(i));
+        }
+    }
+
+    private static void assertBulkSameAsQuery(TimeZoneEngine bulkEngine, double[] points) {
+        BatchQueryResult result = bulkEngine.queryBulk(points);
+        assertEquals(points.length / 2, result.size());
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals(engine.query(points[i * 2], points[i * 2 + 1]), result.getZoneId(i));
+        }
+    }
+
+    @Test
+    public void testBulkSameAsQuery() {
+        assertBulkSameAsQuery(engine, randomPoints(5000));
+        // nearby points mostly hit the geometry of the previous one
+        double[] clustered = randomPoints(5000);
+        for (int i = 0; i < clustered.length; i += 2) {
+            clustered[i] = 40 + clustered[i] / 30;
+            clustered[i + 1] = 10 + clustered[i + 1] / 30;
+        }
+        assertBulkSameAsQuery(engine, clustered);
+        assertBulkSameAsQuery(TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withPackedGeometry(true)), clustered);
+        assertBulkSameAsQuery(TimeZoneEngine.initializeMapped(Paths.get("target/data.tsidx")), clustered);
+    }
+
+    @Test
+    public void testBulkParallel() {
+        double[] points = randomPoints(20000);
+        BatchQueryResult sequential = engine.queryBatch(points);
+        BatchQueryResult parallel = engine.queryBulk(points, true);
+        for (int i = 0; i < sequential.size(); i++) {
+            assertEquals(sequential.getZoneOrdinal(i), parallel.getZoneOrdinal(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOddLength() {
+        engine.queryBatch(new double[]{52.52, 13.40, 56.52});
+    }
+}
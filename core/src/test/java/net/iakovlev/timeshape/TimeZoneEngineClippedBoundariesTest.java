@@ -0,0 +1,52 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineClippedBoundariesTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+
+    private static void assertSameAsWorld(double minLat, double minLon, double maxLat, double maxLon,
+                                          TimeZoneEngineOptions options) {
+        TimeZoneEngine clipped = TimeZoneEngine.initialize(minLat, minLon, maxLat, maxLon,
+                options.withClippedBoundaries(true));
+        Random random = new Random(3);
+        for (int i = 0; i < 3000; i++) {
+            double lat = minLat + random.nextDouble() * (maxLat - minLat);
+            double lon = minLon + random.nextDouble() * (maxLon - minLon);
+            if (i % 4 == 0) {
+                lon = random.nextBoolean() ? minLon : maxLon;
+            } else if (i % 4 == 1) {
+                lat = random.nextBoolean() ? minLat : maxLat;
+            }
+            assertEquals(engine.queryAll(lat, lon), clipped.queryAll(lat, lon));
+        }
+    }
+
+    @Test
+    public void testSameAsWorld() {
+        TimeZoneEngineOptions options = TimeZoneEngineOptions.defaults();
+        assertSameAsWorld(47.0599, 4.8237, 55.3300, 15.2486, options);
+        assertSameAsWorld(-50, 100, 10, 180, options);
+        assertSameAsWorld(-90, -180, 90, 180, options);
+        assertSameAsWorld(47.0599, 4.8237, 55.3300, 15.2486, options.withAcceleratedGeometry(true));
+        assertSameAsWorld(47.0599, 4.8237, 55.3300, 15.2486, options.withLazyGeometry(true));
+        assertSameAsWorld(34, -25, 72, 45, options.withLevelOfDetail(0.01).withLookupGrid(0.5));
+    }
+
+    @Test
+    public void testKeepsCrossingZones() {
+        TimeZoneEngine bounded = TimeZoneEngine.initialize(47.0599, 4.8237, 55.3300, 15.2486, false);
+        TimeZoneEngine clipped = TimeZoneEngine.initialize(47.0599, 4.8237, 55.3300, 15.2486,
+                TimeZoneEngineOptions.defaults().withClippedBoundaries(true));
+        assertTrue(clipped.getKnownZoneIds().containsAll(bounded.getKnownZoneIds()));
+        assertTrue(clipped.getKnownZoneIds().size() > bounded.getKnownZoneIds().size());
+    }
+}
@@ -0,0 +1,81 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static junit.framework.TestCase.assertEquals;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineLazyGeometryTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+
+    private static void assertSameAsEager(TimeZoneEngine lazyEngine, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < 3000; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            assertEquals(engine.queryAll(latitude, longitude), lazyEngine.queryAll(latitude, longitude));
+        }
+    }
+
+    @Test
+    public void testSameAsEager() {
+        TimeZoneEngine lazyEngine = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withLazyGeometry(true));
+        assertEquals(engine.getKnownZoneIds(), lazyEngine.getKnownZoneIds());
+        assertSameAsEager(lazyEngine, 1);
+        assertEquals(engine.queryPolyline(new double[]{52.52, 13.40, 51.50, -0.12, 40.71, -74.0}),
+                lazyEngine.queryPolyline(new double[]{52.52, 13.40, 51.50, -0.12, 40.71, -74.0}));
+    }
+
+    @Test
+    public void testEviction() {
+        TimeZoneEngine lazyEngine = TimeZoneEngine.initialize(
+                TimeZoneEngineOptions.defaults().withLazyGeometry(true, 5).withAcceleratedGeometry(true));
+        assertSameAsEager(lazyEngine, 2);
+    }
+
+    @Test
+    public void testLookupGrid() {
+        TimeZoneEngine lazyEngine = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults()
+                .withLazyGeometry(true, 5).withLookupGrid(1));
+        assertSameAsEager(lazyEngine, 3);
+        TimeZoneEngine packedEngine = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults()
+                .withLazyGeometry(true, 5).withPackedGeometry(true).withLookupGrid(1));
+        assertSameAsEager(packedEngine, 4);
+    }
+
+    @Test
+    public void testConcurrentEviction() throws InterruptedException, ExecutionException {
+        TimeZoneEngine lazyEngine = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withLazyGeometry(true, 3));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int seed = 0; seed < 4; seed++) {
+                long s = seed;
+                futures.add(executor.submit(() -> assertSameAsEager(lazyEngine, s)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBounded() {
+        TimeZoneEngine bounded = TimeZoneEngine.initialize(47.0599, 4.8237, 55.3300, 15.2486, true);
+        TimeZoneEngine lazyBounded = TimeZoneEngine.initialize(47.0599, 4.8237, 55.3300, 15.2486,
+                TimeZoneEngineOptions.defaults().withLazyGeometry(true));
+        assertEquals(bounded.getKnownZoneIds(), lazyBounded.getKnownZoneIds());
+    }
+}
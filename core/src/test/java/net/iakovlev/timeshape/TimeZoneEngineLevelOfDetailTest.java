@@ -0,0 +1,83 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineLevelOfDetailTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+    private static double[] points = randomPoints();
+    private static List<List<ZoneId>> expected = expectedZones();
+
+    private static double[] randomPoints() {
+        Random random = new Random(1);
+        double[] points = new double[10000];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = random.nextDouble() * 180 - 90;
+            points[i + 1] = random.nextDouble() * 360 - 180;
+        }
+        return points;
+    }
+
+    private static List<List<ZoneId>> expectedZones() {
+        List<List<ZoneId>> zones = new ArrayList<>();
+        for (int i = 0; i < points.length; i += 2) {
+            zones.add(engine.queryAll(points[i], points[i + 1]));
+        }
+        return zones;
+    }
+
+    private static void assertSameAsFullGeometry(TimeZoneEngine simplifiedEngine) {
+        for (int i = 0; i < points.length; i += 2) {
+            List<ZoneId> zones = expected.get(i / 2);
+            assertEquals(zones, simplifiedEngine.queryAll(points[i], points[i + 1]));
+            assertEquals(zones.stream().findFirst(), simplifiedEngine.query(points[i], points[i + 1]));
+        }
+    }
+
+    @Test
+    public void testSameAsFullGeometry() {
+        assertSameAsFullGeometry(TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withLevelOfDetail(0.05)));
+    }
+
+    @Test
+    public void testSameAsFullGeometryPacked() {
+        assertSameAsFullGeometry(TimeZoneEngine.initialize(
+                TimeZoneEngineOptions.defaults().withLevelOfDetail(0.01).withPackedGeometry(true)));
+    }
+
+    @Test
+    public void testSameAsFullGeometryLazy() {
+        assertSameAsFullGeometry(TimeZoneEngine.initialize(
+                TimeZoneEngineOptions.defaults().withLevelOfDetail(1).withLazyGeometry(true, 10)));
+    }
+
+    @Test
+    public void testPolyline() {
+        TimeZoneEngine simplifiedEngine = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withLevelOfDetail(0.05));
+        Random random = new Random(2);
+        for (int i = 0; i < 20; i++) {
+            double[] line = new double[200];
+            double lat = random.nextDouble() * 160 - 80;
+            double lon = random.nextDouble() * 340 - 170;
+            for (int j = 0; j < line.length; j += 2) {
+                line[j] = lat += (random.nextDouble() - 0.5) / 10;
+                line[j + 1] = lon += (random.nextDouble() - 0.5) / 10;
+            }
+            assertEquals(engine.queryPolyline(line), simplifiedEngine.queryPolyline(line));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveTolerance() {
+        TimeZoneEngineOptions.defaults().withLevelOfDetail(0);
+    }
+}
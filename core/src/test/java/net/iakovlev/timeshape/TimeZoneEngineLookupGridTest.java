@@ -0,0 +1,56 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineLookupGridTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+    private static TimeZoneEngine gridEngine = TimeZoneEngine.initialize(
+            TimeZoneEngineOptions.defaults().withLookupGrid(0.25));
+
+    @Test
+    public void testSameAsPolygonLookup() {
+        for (double lat = -89.95; lat < 90; lat += 2.3) {
+            for (double lon = -179.95; lon < 180; lon += 2.3) {
+                assertEquals(engine.queryAll(lat, lon), gridEngine.queryAll(lat, lon));
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsPolygonLookupWhenCoarsenedByMemoryBudget() {
+        TimeZoneEngine coarseEngine = TimeZoneEngine.initialize(
+                TimeZoneEngineOptions.defaults().withLookupGrid(0.01, 64 * 1024));
+        for (double lat = -89.95; lat < 90; lat += 3.1) {
+            for (double lon = -179.95; lon < 180; lon += 3.1) {
+                assertEquals(engine.queryAll(lat, lon), coarseEngine.queryAll(lat, lon));
+            }
+        }
+    }
+
+    @Test
+    public void testCoarsenedToArrayLength() {
+        // fits into the budget at 0.004 degrees, but has more cells than an array can hold
+        double resolution = ZoneGrid.effectiveResolution(360, 180, 0.001, 8L << 30);
+        assertTrue(resolution > 0.004);
+        assertTrue(Math.ceil(360 / resolution) * Math.ceil(180 / resolution) <= Integer.MAX_VALUE);
+        assertEquals(0.25, ZoneGrid.effectiveResolution(360, 180, 0.25, TimeZoneEngineOptions.DEFAULT_LOOKUP_GRID_MEMORY_BUDGET));
+    }
+
+    @Test
+    public void testBounded() {
+        TimeZoneEngine bounded = TimeZoneEngine.initialize(47.0599, 4.8237, 55.3300, 15.2486,
+                TimeZoneEngineOptions.defaults().withLookupGrid(0.05));
+        TimeZoneEngine boundedPlain = TimeZoneEngine.initialize(47.0599, 4.8237, 55.3300, 15.2486, false);
+        for (double lat = 47; lat < 55.4; lat += 0.07) {
+            for (double lon = 4.8; lon < 15.3; lon += 0.07) {
+                assertEquals(boundedPlain.queryAll(lat, lon), bounded.queryAll(lat, lon));
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineMappedTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+    private static TimeZoneEngine mappedEngine = TimeZoneEngine.initializeMapped(Paths.get("target/data.tsidx"));
+
+    @Test
+    public void testSameAsPolygonLookup() {
+        for (double lat = -89.95; lat < 90; lat += 1.7) {
+            for (double lon = -179.95; lon < 180; lon += 1.7) {
+                assertEquals(engine.queryAll(lat, lon), mappedEngine.queryAll(lat, lon));
+            }
+        }
+    }
+
+    @Test
+    public void testWorld() {
+        assertEquals(engine.getKnownZoneIds(), mappedEngine.getKnownZoneIds());
+    }
+
+    @Test
+    public void testPolyline() {
+        Random random = new Random(1);
+        for (int i = 0; i < 50; i++) {
+            double[] points = new double[20];
+            double lat = random.nextDouble() * 160 - 80;
+            double lon = random.nextDouble() * 340 - 170;
+            for (int j = 0; j < points.length; j += 2) {
+                points[j] = lat += random.nextDouble() - 0.5;
+                points[j + 1] = lon += random.nextDouble() - 0.5;
+            }
+            assertEquals(engine.queryPolyline(points), mappedEngine.queryPolyline(points));
+        }
+    }
+
+    @Test
+    public void testBatch() {
+        double[] points = new double[10000];
+        Random random = new Random(2);
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = random.nextDouble() * 180 - 90;
+            points[i + 1] = random.nextDouble() * 360 - 180;
+        }
+        BatchQueryResult result = mappedEngine.queryBatch(points);
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals(engine.query(points[i * 2], points[i * 2 + 1]), result.getZoneId(i));
+        }
+    }
+
+    @Test
+    public void testSerialization() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(mappedEngine);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            TimeZoneEngine deserialized = (TimeZoneEngine) in.readObject();
+            assertEquals(mappedEngine.queryAll(52.52, 13.40), deserialized.queryAll(52.52, 13.40));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineOffHeapTest {
+    private static TimeZoneEngine packedEngine = TimeZoneEngine.initialize(
+            TimeZoneEngineOptions.defaults().withPackedGeometry(true));
+    private static TimeZoneEngine offHeapEngine = TimeZoneEngine.initialize(
+            TimeZoneEngineOptions.defaults().withOffHeapGeometry(true));
+
+    private static void assertSameAsPacked(TimeZoneEngine engine) {
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            double lat = random.nextDouble() * 180 - 90;
+            double lon = random.nextDouble() * 360 - 180;
+            assertEquals(packedEngine.queryAll(lat, lon), engine.queryAll(lat, lon));
+        }
+    }
+
+    @Test
+    public void testSameAsPacked() {
+        assertSameAsPacked(offHeapEngine);
+    }
+
+    @Test
+    public void testLazy() {
+        assertSameAsPacked(TimeZoneEngine.initialize(
+                TimeZoneEngineOptions.defaults().withOffHeapGeometry(true).withLazyGeometry(true)));
+    }
+
+    @Test
+    public void testLevelOfDetail() {
+        assertSameAsPacked(TimeZoneEngine.initialize(
+                TimeZoneEngineOptions.defaults().withOffHeapGeometry(true).withLevelOfDetail(0.01)));
+    }
+
+    @Test
+    public void testParallel() {
+        assertSameAsPacked(TimeZoneEngine.initialize(
+                TimeZoneEngineOptions.defaults().withOffHeapGeometry(true).withLevelOfDetail(0.01).withParallelism(4)));
+    }
+
+    @Test
+    public void testPolyline() {
+        Random random = new Random(2);
+        for (int i = 0; i < 50; i++) {
+            double[] points = new double[20];
+            double lat = random.nextDouble() * 160 - 80;
+            double lon = random.nextDouble() * 340 - 170;
+            for (int j = 0; j < points.length; j += 2) {
+                points[j] = lat += random.nextDouble() - 0.5;
+                points[j + 1] = lon += random.nextDouble() - 0.5;
+            }
+            assertEquals(packedEngine.queryPolyline(points), offHeapEngine.queryPolyline(points));
+            assertEquals(packedEngine.queryPolyline(points, true), offHeapEngine.queryPolyline(points, true));
+        }
+    }
+
+    @Test
+    public void testSerialization() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(offHeapEngine);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertSameAsPacked((TimeZoneEngine) in.readObject());
+        }
+    }
+
+    @Test
+    public void testLazySerialization() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(TimeZoneEngine.initialize(
+                    TimeZoneEngineOptions.defaults().withOffHeapGeometry(true).withLazyGeometry(true, 5)));
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertSameAsPacked((TimeZoneEngine) in.readObject());
+        }
+    }
+}
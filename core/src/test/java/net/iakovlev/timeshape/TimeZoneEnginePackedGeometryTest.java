@@ -0,0 +1,80 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEnginePackedGeometryTest {
+    // the lookup grid only speeds up the reference engine, its results are the same as of the polygon test
+    private static TimeZoneEngine esriEngine = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withLookupGrid(0.25));
+    private static TimeZoneEngine packedEngine = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withPackedGeometry(true));
+
+    @Test
+    public void testDenseGrid() {
+        // the offsets keep the points off the vertices, where the fill rules may disagree
+        for (double latitude = -89.9871; latitude < 90; latitude += 0.75) {
+            for (double longitude = -179.9913; longitude < 180; longitude += 0.75) {
+                assertEquals(esriEngine.queryAll(latitude, longitude), packedEngine.queryAll(latitude, longitude));
+            }
+        }
+    }
+
+    @Test
+    public void testQueryContextAndBatch() {
+        Random random = new Random(8);
+        double[] points = new double[10000];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = random.nextDouble() * 180 - 90;
+            points[i + 1] = random.nextDouble() * 360 - 180;
+        }
+        BatchQueryResult expected = esriEngine.queryBatch(points);
+        BatchQueryResult actual = packedEngine.queryBatch(points);
+        QueryContext context = packedEngine.newQueryContext();
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getZoneId(i), actual.getZoneId(i));
+            assertEquals(expected.getZoneId(i).orElse(null), context.queryZoneId(points[i * 2], points[i * 2 + 1]));
+        }
+    }
+
+    @Test
+    public void testPolyline() {
+        double[] line = {52.52, 13.40, 51.50, -0.12, 40.71, -74.0, 35.67, 139.65, -33.87, 151.21};
+        assertEquals(esriEngine.queryPolyline(line), packedEngine.queryPolyline(line));
+    }
+
+    @Test
+    public void testWithLookupGridAndLazyGeometry() {
+        TimeZoneEngine engine = TimeZoneEngine.initialize(
+                TimeZoneEngineOptions.defaults().withPackedGeometry(true).withLazyGeometry(true, 10).withLookupGrid(1));
+        Random random = new Random(9);
+        for (int i = 0; i < 3000; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            assertEquals(esriEngine.queryAll(latitude, longitude), engine.queryAll(latitude, longitude));
+        }
+    }
+
+    @Test
+    public void testSerialization() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(packedEngine);
+        }
+        TimeZoneEngine deserialized;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            deserialized = (TimeZoneEngine) in.readObject();
+        }
+        assertEquals(packedEngine.queryAll(52.52, 13.40), deserialized.queryAll(52.52, 13.40));
+        assertEquals(packedEngine.queryAll(-33.87, 151.21), deserialized.queryAll(-33.87, 151.21));
+    }
+}
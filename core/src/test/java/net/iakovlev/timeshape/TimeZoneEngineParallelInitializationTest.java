@@ -0,0 +1,57 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineParallelInitializationTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+
+    private static void assertSameAsSequential(TimeZoneEngine parallelEngine) {
+        assertEquals(engine.getKnownZoneIds(), parallelEngine.getKnownZoneIds());
+        Random random = new Random(5);
+        for (int i = 0; i < 3000; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            assertEquals(engine.queryAll(latitude, longitude), parallelEngine.queryAll(latitude, longitude));
+        }
+    }
+
+    @Test
+    public void testParallelism() {
+        assertSameAsSequential(TimeZoneEngine.initialize(
+                TimeZoneEngineOptions.defaults().withParallelism(4).withAcceleratedGeometry(true)));
+    }
+
+    @Test
+    public void testExecutor() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertSameAsSequential(TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withExecutor(executor)));
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBounded() {
+        TimeZoneEngine bounded = TimeZoneEngine.initialize(47.0599, 4.8237, 55.3300, 15.2486, false);
+        TimeZoneEngine parallelBounded = TimeZoneEngine.initialize(47.0599, 4.8237, 55.3300, 15.2486,
+                TimeZoneEngineOptions.defaults().withParallelism(4).withLazyGeometry(true));
+        assertEquals(bounded.getKnownZoneIds(), parallelBounded.getKnownZoneIds());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveParallelism() {
+        TimeZoneEngineOptions.defaults().withParallelism(0);
+    }
+}
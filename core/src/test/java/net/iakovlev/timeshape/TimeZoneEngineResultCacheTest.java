@@ -0,0 +1,105 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineResultCacheTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+
+    @Test
+    public void testSameAsWithoutCache() {
+        // coarse cells, so that many of them are crossed by zone boundaries, and the points
+        // queried after each other often fall into the same cell on different sides of a boundary
+        TimeZoneEngine cached = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withResultCache(2, 10000));
+        Random random = new Random(12);
+        for (int i = 0; i < 5000; i++) {
+            double latitude = random.nextDouble() * 40 + 20;
+            double longitude = random.nextDouble() * 60 - 10;
+            assertEquals(engine.queryAll(latitude, longitude), cached.queryAll(latitude, longitude));
+            assertEquals(engine.query(latitude, longitude), cached.query(latitude, longitude));
+        }
+        ResultCacheStats stats = cached.getResultCacheStats().get();
+        assertTrue(stats.getHitCount() > 0);
+        assertEquals(10000, stats.getHitCount() + stats.getMissCount());
+    }
+
+    @Test
+    public void testFirstQueryNearEdgeOutsideCell() {
+        // a horizontal edge just below the bottom of a cell, and the first query of the cell within
+        // the tolerance of OperatorIntersects from it, where the point is in the zones on both sides
+        float[] edge = horizontalEdge();
+        double latitude = edge[1];
+        double longitude = (edge[0] + edge[2]) / 2.0;
+        double precision = (latitude + 5e-9 + 90) / Math.round((latitude + 90) / 1e-3);
+        TimeZoneEngine cached = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withResultCache(precision, 10000));
+        for (double offset : new double[]{6e-9, precision / 2, precision / 4}) {
+            assertEquals(engine.queryAll(latitude + offset, longitude), cached.queryAll(latitude + offset, longitude));
+        }
+    }
+
+    /**
+     * @return longitude, latitude and longitude of the ends of the first horizontal edge longer than 0.01 degrees
+     */
+    private static float[] horizontalEdge() {
+        for (ZoneMetadata zone : engine.getZoneMetadata()) {
+            for (int polygon = 0; polygon < zone.getPolygonCount(); polygon++) {
+                for (float[] ring : zone.getPolygon(polygon)) {
+                    for (int i = 0; i + 3 < ring.length; i += 2) {
+                        if (ring[i + 1] == ring[i + 3] && Math.abs(ring[i] - ring[i + 2]) > 0.01 && Math.abs(ring[i + 1]) < 80) {
+                            return new float[]{ring[i], ring[i + 1], ring[i + 2]};
+                        }
+                    }
+                }
+            }
+        }
+        throw new AssertionError("No horizontal edge in the data");
+    }
+
+    @Test
+    public void testHotspots() {
+        TimeZoneEngine cached = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withResultCache(1e-4, 1000));
+        Random random = new Random(13);
+        double[] hotspots = new double[100];
+        for (int i = 0; i < hotspots.length; i += 2) {
+            hotspots[i] = random.nextDouble() * 140 - 70;
+            hotspots[i + 1] = random.nextDouble() * 360 - 180;
+        }
+        for (int i = 0; i < 10000; i++) {
+            int hotspot = random.nextInt(hotspots.length / 2) * 2;
+            double latitude = hotspots[hotspot] + random.nextDouble() * 1e-4;
+            double longitude = hotspots[hotspot + 1] + random.nextDouble() * 1e-4;
+            assertEquals(engine.queryAll(latitude, longitude), cached.queryAll(latitude, longitude));
+        }
+        ResultCacheStats stats = cached.getResultCacheStats().get();
+        assertTrue(stats.getHitRate() > 0.9);
+        assertEquals(0, stats.getEvictionCount());
+    }
+
+    @Test
+    public void testEviction() {
+        TimeZoneEngine cached = TimeZoneEngine.initialize(
+                TimeZoneEngineOptions.defaults().withPackedGeometry(true).withResultCache(0.01, 32));
+        Random random = new Random(14);
+        for (int i = 0; i < 5000; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            cached.queryAll(latitude, longitude);
+        }
+        ResultCacheStats stats = cached.getResultCacheStats().get();
+        assertTrue(stats.getEvictionCount() > 0);
+        assertTrue(stats.getSize() <= 32);
+    }
+
+    @Test
+    public void testNoStatsWithoutCache() {
+        assertFalse(engine.getResultCacheStats().isPresent());
+    }
+}
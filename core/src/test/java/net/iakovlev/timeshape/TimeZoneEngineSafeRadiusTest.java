@@ -0,0 +1,88 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineSafeRadiusTest {
+    private static final double EARTH_RADIUS = 6_371_008.8;
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+
+    /**
+     * @return latitude and longitude of the point at the distance in meters from the start in the direction
+     */
+    private static double[] destination(double latitude, double longitude, double distance, double bearing) {
+        double angle = distance / EARTH_RADIUS;
+        double lat1 = Math.toRadians(latitude);
+        double lat2 = Math.asin(Math.sin(lat1) * Math.cos(angle) + Math.cos(lat1) * Math.sin(angle) * Math.cos(bearing));
+        double lon2 = Math.toRadians(longitude) + Math.atan2(Math.sin(bearing) * Math.sin(angle) * Math.cos(lat1),
+                Math.cos(angle) - Math.sin(lat1) * Math.sin(lat2));
+        return new double[]{Math.toDegrees(lat2), Math.toDegrees(lon2)};
+    }
+
+    @Test
+    public void testZonesDontChangeWithinSafeRadius() {
+        Random random = new Random(17);
+        for (int i = 0; i < 300; i++) {
+            double latitude = random.nextDouble() * 160 - 80;
+            double longitude = random.nextDouble() * 340 - 170;
+            SafeRadiusResult result = engine.querySafeRadius(latitude, longitude);
+            assertEquals(engine.queryAll(latitude, longitude), result.getZoneIds());
+            assertEquals(engine.query(latitude, longitude), result.getZoneId());
+            assertTrue(result.getSafeRadius() >= 0);
+            for (int sample = 0; sample < 20; sample++) {
+                double[] moved = destination(latitude, longitude, result.getSafeRadius() * random.nextDouble() * 0.99,
+                        random.nextDouble() * 2 * Math.PI);
+                if (Math.abs(moved[1]) > 180) {
+                    continue;
+                }
+                assertTrue(result.isWithinSafeRadius(moved[0], moved[1]));
+                assertEquals(result.getZoneIds(), engine.queryAll(moved[0], moved[1]));
+            }
+        }
+    }
+
+    @Test
+    public void testNearBoundary() {
+        // bisect between two points in different zones down to a point right next to the boundary
+        Random random = new Random(23);
+        double[] a;
+        double[] b;
+        do {
+            a = new double[]{random.nextDouble() * 120 - 60, random.nextDouble() * 340 - 170};
+            b = new double[]{a[0] + random.nextGaussian(), a[1] + random.nextGaussian()};
+        } while (engine.queryAll(a[0], a[1]).equals(engine.queryAll(b[0], b[1])));
+        for (int i = 0; i < 40; i++) {
+            double[] middle = {(a[0] + b[0]) / 2, (a[1] + b[1]) / 2};
+            if (engine.queryAll(middle[0], middle[1]).equals(engine.queryAll(a[0], a[1]))) {
+                a = middle;
+            } else {
+                b = middle;
+            }
+        }
+        SafeRadiusResult result = engine.querySafeRadius(a[0], a[1]);
+        assertTrue(result.getSafeRadius() < 1);
+        assertTrue(!result.isWithinSafeRadius(b[0] + 0.01, b[1]));
+    }
+
+    @Test
+    public void testSameForAllKindsOfGeometry() {
+        TimeZoneEngine packedEngine = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withPackedGeometry(true));
+        TimeZoneEngine mappedEngine = TimeZoneEngine.initializeMapped(Paths.get("target/data.tsidx"));
+        Random random = new Random(29);
+        for (int i = 0; i < 300; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            double expected = engine.querySafeRadius(latitude, longitude).getSafeRadius();
+            assertEquals(expected, packedEngine.querySafeRadius(latitude, longitude).getSafeRadius(), expected * 1e-9);
+            assertEquals(expected, mappedEngine.querySafeRadius(latitude, longitude).getSafeRadius(), expected * 1e-9);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineSegmentAwarePolylineTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+
+    private static double[] randomWalk(Random random, int points) {
+        double[] track = new double[points * 2];
+        double latitude = random.nextDouble() * 120 - 60;
+        double longitude = random.nextDouble() * 340 - 170;
+        for (int i = 0; i < points; i++) {
+            latitude = Math.max(-89, Math.min(89, latitude + random.nextGaussian()));
+            longitude = Math.max(-179, Math.min(179, longitude + random.nextGaussian()));
+            track[i * 2] = latitude;
+            track[i * 2 + 1] = longitude;
+        }
+        return track;
+    }
+
+    private static double position(SameZoneSpan span) {
+        return (span.getEndIndex() - 1) / 2 + span.getEndFraction();
+    }
+
+    /**
+     * Samples every segment densely and checks that each sample belongs to the zones of the span covering it.
+     */
+    private static void assertSpansMatchPoints(TimeZoneEngine engine) {
+        Random random = new Random(5);
+        for (int track = 0; track < 10; track++) {
+            double[] points = randomWalk(random, 2 + random.nextInt(30));
+            List<SameZoneSpan> spans = engine.queryPolyline(points, true);
+            int segments = points.length / 2 - 1;
+            assertEquals(segments * 2 + 1, spans.get(spans.size() - 1).getEndIndex());
+            assertEquals(0.0, spans.get(spans.size() - 1).getEndFraction());
+            for (int i = 1; i < spans.size(); i++) {
+                assertTrue(position(spans.get(i - 1)) <= position(spans.get(i)));
+                assertTrue(!spans.get(i - 1).getZoneIds().equals(spans.get(i).getZoneIds()));
+            }
+            for (int segment = 0; segment < segments; segment++) {
+                for (int sample = 0; sample < 50; sample++) {
+                    double fraction = (sample + 0.5) / 50;
+                    double position = segment + fraction;
+                    SameZoneSpan covering = null;
+                    boolean nearEnd = false;
+                    for (SameZoneSpan span : spans) {
+                        nearEnd |= Math.abs(position(span) - position) < 1e-6;
+                        if (covering == null && position < position(span)) {
+                            covering = span;
+                        }
+                    }
+                    if (nearEnd) {
+                        continue;
+                    }
+                    double latitude = points[segment * 2] + (points[segment * 2 + 2] - points[segment * 2]) * fraction;
+                    double longitude = points[segment * 2 + 1] + (points[segment * 2 + 3] - points[segment * 2 + 1]) * fraction;
+                    assertEquals(new HashSet<>(engine.queryAll(latitude, longitude)), covering.getZoneIds());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSpansMatchPoints() {
+        assertSpansMatchPoints(engine);
+    }
+
+    @Test
+    public void testPackedGeometry() {
+        assertSpansMatchPoints(TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withPackedGeometry(true)));
+    }
+
+    @Test
+    public void testMapped() {
+        assertSpansMatchPoints(TimeZoneEngine.initializeMapped(Paths.get("target/data.tsidx")));
+    }
+
+    @Test
+    public void testCrossingBetweenPointsInSameZone() {
+        // find a short segment with both ends in the same zone, which passes through another zone
+        Random random = new Random(3);
+        double[] segment = null;
+        while (segment == null) {
+            double latitude = random.nextDouble() * 120 - 60;
+            double longitude = random.nextDouble() * 340 - 170;
+            double[] candidate = {latitude, longitude, latitude + random.nextGaussian(), longitude + random.nextGaussian()};
+            ZoneId zone = engine.query(candidate[0], candidate[1]).orElse(null);
+            if (zone == null || !engine.queryAll(candidate[2], candidate[3]).equals(engine.queryAll(candidate[0], candidate[1]))) {
+                continue;
+            }
+            for (int sample = 1; sample < 100; sample++) {
+                double fraction = sample / 100.0;
+                if (!engine.query(latitude + (candidate[2] - latitude) * fraction,
+                        longitude + (candidate[3] - longitude) * fraction).equals(engine.query(latitude, longitude))) {
+                    segment = candidate;
+                    break;
+                }
+            }
+        }
+        assertEquals(1, engine.queryPolyline(segment).size());
+        List<SameZoneSpan> spans = engine.queryPolyline(segment, true);
+        assertTrue(spans.size() >= 3);
+        SameZoneSpan first = spans.get(0);
+        assertEquals(1, first.getEndIndex());
+        assertTrue(first.getEndFraction() > 0 && first.getEndFraction() < 1);
+        assertEquals(segment[0] + (segment[2] - segment[0]) * first.getEndFraction(), first.getEndLatitude(), 1e-9);
+        assertEquals(segment[1] + (segment[3] - segment[1]) * first.getEndFraction(), first.getEndLongitude(), 1e-9);
+        assertEquals(spans.get(0).getZoneIds(), spans.get(spans.size() - 1).getZoneIds());
+    }
+
+    @Test
+    public void testSinglePoint() {
+        List<SameZoneSpan> spans = engine.queryPolyline(new double[]{10, 20}, true);
+        assertEquals(1, spans.size());
+        assertEquals(new HashSet<>(engine.queryAll(10, 20)), spans.get(0).getZoneIds());
+        assertEquals(1, spans.get(0).getEndIndex());
+        assertEquals(0, engine.queryPolyline(new double[0], true).size());
+    }
+}
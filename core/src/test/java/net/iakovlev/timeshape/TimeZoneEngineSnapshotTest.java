@@ -0,0 +1,96 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineSnapshotTest {
+
+    private static byte[] snapshot(TimeZoneEngine engine) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        engine.writeSnapshot(bytes);
+        return bytes.toByteArray();
+    }
+
+    private static void assertSameResults(TimeZoneEngine expected, TimeZoneEngine actual) {
+        assertEquals(expected.getKnownZoneIds(), actual.getKnownZoneIds());
+        Random random = new Random(1);
+        for (int i = 0; i < 5000; i++) {
+            double lat = random.nextDouble() * 180 - 90;
+            double lon = random.nextDouble() * 360 - 180;
+            assertEquals(expected.queryAll(lat, lon), actual.queryAll(lat, lon));
+        }
+    }
+
+    private static void assertRoundTrip(TimeZoneEngine engine) throws IOException {
+        assertSameResults(engine, TimeZoneEngine.readSnapshot(new ByteArrayInputStream(snapshot(engine))));
+    }
+
+    @Test
+    public void testDefault() throws IOException {
+        assertRoundTrip(TimeZoneEngine.initialize());
+    }
+
+    @Test
+    public void testPackedWithLookupGrid() throws IOException {
+        assertRoundTrip(TimeZoneEngine.initialize(
+                TimeZoneEngineOptions.defaults().withOffHeapGeometry(true).withLookupGrid(1)));
+    }
+
+    @Test
+    public void testLevelOfDetail() throws IOException {
+        assertRoundTrip(TimeZoneEngine.initialize(
+                TimeZoneEngineOptions.defaults().withLevelOfDetail(0.05).withLazyGeometry(true, 10)));
+    }
+
+    @Test
+    public void testResultCache() throws IOException {
+        TimeZoneEngine engine = TimeZoneEngine.readSnapshot(new ByteArrayInputStream(snapshot(
+                TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withPackedGeometry(true).withResultCache(1e-3, 100)))));
+        engine.queryAll(50, 10);
+        engine.queryAll(50, 10);
+        ResultCacheStats stats = engine.getResultCacheStats().get();
+        assertEquals(2, stats.getHitCount() + stats.getMissCount());
+    }
+
+    @Test
+    public void testMappedFile() throws IOException {
+        Path file = Files.createTempFile("timeshape", ".snapshot");
+        try {
+            TimeZoneEngine engine = TimeZoneEngine.initializeMapped(Paths.get("target/data.tsidx"));
+            engine.writeSnapshot(file);
+            assertSameResults(engine, TimeZoneEngine.readSnapshot(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testCorrupted() throws IOException {
+        byte[] bytes = snapshot(TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withPackedGeometry(true)));
+        bytes[bytes.length / 2] ^= 1;
+        try {
+            TimeZoneEngine.readSnapshot(new ByteArrayInputStream(bytes));
+            throw new AssertionError("corrupted snapshot was read");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("checksum"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotSnapshot() {
+        TimeZoneEngine.readSnapshot(new ByteArrayInputStream(new byte[64]));
+    }
+}
@@ -0,0 +1,58 @@
+package net.iakovlev.timeshape;
+
+import com.github.luben.zstd.ZstdInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(JUnit4.class)
+public class TimeZoneEngineZoneContainerTest {
+    private static TimeZoneEngine initializeFromTar(double minLat, double minLon, double maxLat, double maxLon) {
+        try (TarArchiveInputStream f = new TarArchiveInputStream(new BufferedInputStream(
+                new ZstdInputStream(new FileInputStream("target/data.tar.zstd"))))) {
+            return TimeZoneEngine.initialize(minLat, minLon, maxLat, maxLon, false, f);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void assertSameAsTar(double minLat, double minLon, double maxLat, double maxLon) {
+        TimeZoneEngine engine = TimeZoneEngine.initialize(minLat, minLon, maxLat, maxLon, false);
+        TimeZoneEngine tarEngine = initializeFromTar(minLat, minLon, maxLat, maxLon);
+        assertEquals(tarEngine.getKnownZoneIds(), engine.getKnownZoneIds());
+        Random random = new Random(1);
+        for (int i = 0; i < 5000; i++) {
+            double lat = minLat + random.nextDouble() * (maxLat - minLat);
+            double lon = minLon + random.nextDouble() * (maxLon - minLon);
+            assertEquals(tarEngine.queryAll(lat, lon), engine.queryAll(lat, lon));
+        }
+    }
+
+    @Test
+    public void testSameAsTar() {
+        assertSameAsTar(-90, -180, 90, 180);
+        assertSameAsTar(34, -25, 72, 45);
+        assertSameAsTar(-50, 100, 10, 180);
+        assertSameAsTar(47.0599, 4.8237, 55.3300, 15.2486);
+    }
+
+    @Test
+    public void testNotAZoneContainer() throws IOException {
+        try {
+            ZoneContainer.open(new ByteArrayInputStream(new byte[64]));
+            throw new AssertionError("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Not a zone container"));
+        }
+    }
+}
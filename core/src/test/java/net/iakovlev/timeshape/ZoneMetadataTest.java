@@ -0,0 +1,148 @@
+package net.iakovlev.timeshape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(JUnit4.class)
+public class ZoneMetadataTest {
+    private static TimeZoneEngine engine = TimeZoneEngine.initialize();
+
+    private static ZoneMetadata find(List<ZoneMetadata> metadata, ZoneId zoneId) {
+        for (ZoneMetadata zone : metadata) {
+            if (zone.getZoneId().equals(zoneId)) {
+                return zone;
+            }
+        }
+        throw new AssertionError("No metadata of " + zoneId);
+    }
+
+    @Test
+    public void testEnvelopesContainResults() {
+        List<ZoneMetadata> metadata = engine.getZoneMetadata();
+        assertEquals(new ArrayList<>(new LinkedHashSet<>(engine.getKnownZoneIds())), zoneIds(metadata));
+        Random random = new Random(11);
+        for (int i = 0; i < 3000; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            for (ZoneId zoneId : engine.queryAll(latitude, longitude)) {
+                assertTrue(find(metadata, zoneId).mayContain(latitude, longitude));
+            }
+        }
+        for (ZoneMetadata zone : metadata) {
+            assertTrue(zone.getPolygonCount() > 0);
+            assertTrue(zone.getVertexCount() >= zone.getPolygonCount() * 3);
+            assertTrue(zone.getArea() > 0);
+            assertTrue(zone.getArea() <= (zone.getMaxLatitude() - zone.getMinLatitude())
+                    * (zone.getMaxLongitude() - zone.getMinLongitude()) * (1 + 1e-9));
+            assertEquals(0.0, zone.getSimplificationError());
+        }
+    }
+
+    @Test
+    public void testSameForAllIndexes() {
+        List<ZoneMetadata> expected = engine.getZoneMetadata();
+        TimeZoneEngineOptions options = TimeZoneEngineOptions.defaults();
+        for (TimeZoneEngine other : new TimeZoneEngine[]{
+                TimeZoneEngine.initialize(options.withPackedGeometry(true)),
+                TimeZoneEngine.initialize(options.withLazyGeometry(true)),
+                TimeZoneEngine.initializeMapped(Paths.get("target/data.tsidx"))}) {
+            List<ZoneMetadata> actual = other.getZoneMetadata();
+            assertEquals(zoneIds(expected), zoneIds(actual));
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getVertexCount(), actual.get(i).getVertexCount());
+                assertEquals(expected.get(i).getArea(), actual.get(i).getArea(), 1e-9);
+                assertEquals(expected.get(i).getMinLatitude(), actual.get(i).getMinLatitude());
+                assertEquals(expected.get(i).getMaxLongitude(), actual.get(i).getMaxLongitude());
+            }
+        }
+    }
+
+    @Test
+    public void testPolygonAndWkb() {
+        ZoneMetadata zone = engine.getZoneMetadata().get(0);
+        int vertices = 0;
+        int rings = 0;
+        for (int polygon = 0; polygon < zone.getPolygonCount(); polygon++) {
+            for (float[] ring : zone.getPolygon(polygon)) {
+                assertEquals(ring[0], ring[ring.length - 2]);
+                assertEquals(ring[1], ring[ring.length - 1]);
+                vertices += ring.length / 2;
+                rings++;
+            }
+        }
+        assertEquals(zone.getVertexCount() + rings, vertices);
+        // the polygons are copies
+        zone.getPolygon(0)[0][0] = 1000;
+        assertTrue(zone.getPolygon(0)[0][0] != 1000);
+
+        ByteBuffer wkb = ByteBuffer.wrap(zone.toWkb()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(1, wkb.get());
+        assertEquals(6, wkb.getInt());
+        assertEquals(zone.getPolygonCount(), wkb.getInt());
+        assertEquals(1, wkb.get());
+        assertEquals(3, wkb.getInt());
+        assertEquals(zone.getPolygon(0).length, wkb.getInt());
+        assertEquals(zone.getPolygon(0)[0].length / 2, wkb.getInt());
+        assertEquals((double) zone.getPolygon(0)[0][0], wkb.getDouble());
+        assertEquals(9 + zone.getPolygonCount() * 9 + rings * 4 + vertices * 16, wkb.capacity());
+    }
+
+    @Test
+    public void testSimplify() {
+        for (ZoneMetadata zone : engine.getZoneMetadata()) {
+            ZoneMetadata simplified = zone.simplify(0.1);
+            assertEquals(zone.getZoneId(), simplified.getZoneId());
+            assertTrue(simplified.getVertexCount() <= zone.getVertexCount());
+            assertTrue(simplified.getSimplificationError() <= 0.1);
+            for (int polygon = 0; polygon < simplified.getPolygonCount(); polygon++) {
+                for (float[] ring : simplified.getPolygon(polygon)) {
+                    assertTrue(ring.length >= 8);
+                }
+            }
+            if (simplified.getPolygonCount() > 0) {
+                assertTrue(simplified.getMinLatitude() >= zone.getMinLatitude());
+                assertTrue(simplified.getMaxLongitude() <= zone.getMaxLongitude());
+            }
+        }
+        try {
+            engine.getZoneMetadata().get(0).simplify(-1);
+            throw new AssertionError("Expected IllegalArgumentException for negative tolerance");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("tolerance"));
+        }
+    }
+
+    @Test
+    public void testKnownZoneIdsArePrecomputed() {
+        List<ZoneId> knownZoneIds = engine.getKnownZoneIds();
+        assertSame(knownZoneIds, engine.getKnownZoneIds());
+        try {
+            knownZoneIds.add(ZoneId.of("UTC"));
+            throw new AssertionError("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    private static List<ZoneId> zoneIds(List<ZoneMetadata> metadata) {
+        List<ZoneId> result = new ArrayList<>();
+        for (ZoneMetadata zone : metadata) {
+            result.add(zone.getZoneId());
+        }
+        return result;
+    }
+}
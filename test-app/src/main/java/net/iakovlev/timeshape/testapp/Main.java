@@ -1,6 +1,7 @@
 package net.iakovlev.timeshape.testapp;
 
 import net.iakovlev.timeshape.TimeZoneEngine;
+import net.iakovlev.timeshape.TimeZoneEngineOptions;
 import org.openjdk.jol.info.GraphLayout;
 import org.openjdk.jol.vm.VM;
 
@@ -23,6 +24,10 @@ public class Main {
         out.println(engine.query(52.52, 13.40));
         out.println(VM.current().details());
         out.println(GraphLayout.parseInstance(engine).toFootprint());
+        // the direct buffers of off-heap geometry are not in the heap footprint
+        TimeZoneEngine offHeapEngine = TimeZoneEngine.initialize(TimeZoneEngineOptions.defaults().withOffHeapGeometry(true));
+        out.println("with off-heap geometry:");
+        out.println(GraphLayout.parseInstance(offHeapEngine).toFootprint());
         double lonMin = -180.0;
         double lonMax = 180.0;
         double latMin = -90.0;